@@ -1,39 +1,219 @@
 uniform sampler2D m_Texture;  // The scene texture.
+#ifdef HAS_LEVEL1
 uniform sampler2D m_Texture1;
+#endif
+#ifdef HAS_LEVEL2
 uniform sampler2D m_Texture2;
+#endif
+#ifdef HAS_LEVEL3
 uniform sampler2D m_Texture3;
+#endif
+#ifdef HAS_LEVEL4
 uniform sampler2D m_Texture4;
+#endif
+#ifdef HAS_LEVEL5
 uniform sampler2D m_Texture5;
+#endif
+#ifdef HAS_LEVEL6
 uniform sampler2D m_Texture6;
+#endif
+#ifdef HAS_LEVEL7
 uniform sampler2D m_Texture7;
+#endif
+#ifdef HAS_LEVEL8
 uniform sampler2D m_Texture8;
-uniform float m_Weight1;
-uniform float m_Weight2;
-uniform float m_Weight3;
-uniform float m_Weight4;
-uniform float m_Weight5;
-uniform float m_Weight6;
-uniform float m_Weight7;
-uniform float m_Weight8;
+#endif
+#ifdef HAS_LEVEL9
+uniform sampler2D m_Texture9;
+#endif
+#ifdef HAS_LEVEL10
+uniform sampler2D m_Texture10;
+#endif
+#ifdef HAS_LEVEL11
+uniform sampler2D m_Texture11;
+#endif
+#ifdef HAS_LEVEL12
+uniform sampler2D m_Texture12;
+#endif
+uniform float m_Weights[12];  // The weight of each mipmap level.
 varying vec2 texCoord;        // The texture coordinate.
 
+// With a shared bloom context, the level textures hold the views side by
+// side. This view reads its own tile, clamped half a texel inside, so the
+// bilinear fetches do not reach into the neighboring tiles. In stereo mode
+// the screen itself holds the eyes side by side (TILES), and each pixel
+// reads the tile of its own eye.
+#if defined(TILED) || defined(TILES)
+uniform float m_HalfTexels[12];  // Half a texel of each level texture in u.
+#ifdef TILED
+uniform float m_TileOffset;      // The u of the left edge of the tile.
+uniform float m_TileScale;       // The width of the tile in u.
+#endif
+
+vec2 levelCoord(in float halfTexel)
+{
+#ifdef TILED
+   float left=m_TileOffset;
+   float width=m_TileScale;
+   float u=m_TileOffset+texCoord.x*m_TileScale;
+#else
+   float width=1.0/float(TILES);
+   float left=floor(texCoord.x*float(TILES))*width;
+   float u=texCoord.x;
+#endif
+   return vec2(clamp(u, left+halfTexel, left+width-halfTexel), texCoord.y);
+}
+#define LEVEL_COORD(i) levelCoord(m_HalfTexels[i])
+#elif defined(REGION)
+#define LEVEL_COORD(i) ((texCoord-m_LevelRects[i].xy)/m_LevelRects[i].zw)
+#elif defined(FOCUS_LEVELS)
+#define LEVEL_COORD(i) ((i)<FOCUS_LEVELS? focusCoord:texCoord)
+#else
+#define LEVEL_COORD(i) texCoord
+#endif
+
+// With a region of interest, the levels only cover the region, padded by the
+// reach of the blur, and are composited inside the region only.
+#ifdef REGION
+uniform vec4 m_RegionRect;       // x, y, width and height in u and v.
+uniform vec4 m_LevelRects[12];   // The rectangle each level covers.
+#endif
+
+// In foveated mode, the first FOCUS_LEVELS levels only cover the focus
+// rectangle. They are faded out towards its edges, and the periphery gets
+// the low frequency levels only.
+#ifdef FOCUS_LEVELS
+uniform vec4 m_FocusRect;        // x, y, width and height in u and v.
+#define LEVEL_WEIGHT(i) ((i)<FOCUS_LEVELS? focus*m_Weights[i]:m_Weights[i])
+#else
+#define LEVEL_WEIGHT(i) m_Weights[i]
+#endif
+
+// In the mip chain storage mode, the levels without an own texture are read
+// from the mipmaps of the extracted texture, at an explicit level of detail.
+#ifdef CHAIN_LEVELS
+uniform sampler2D m_MipChain;
+uniform float m_Lods[12];
+#if __VERSION__>=130
+#define SAMPLE_LOD(tex, uv, lod) textureLod(tex, uv, lod)
+#else
+// GLSL 1.00 only has a bias on the level of detail the GPU selects, which
+// for a chain smaller than the screen is below 0.
+uniform float m_ChainLod;
+#define SAMPLE_LOD(tex, uv, lod) texture2D(tex, uv, (lod)-m_ChainLod)
+#endif
+#endif
+
 
 /**
- * Sum over eight textures with their specific weight factors.
+ * Sum over the mipmap textures with their specific weight factors. Only the
+ * levels whose texture is set (HAS_LEVELn), or which are read from the mip
+ * chain (up to CHAIN_LEVELS), are sampled.
  */
 // =============================================================================
    void main()
 // =============================================================================
-{  vec3 bloom=
-    m_Weight1*texture2D(m_Texture1, texCoord).rgb
-    +m_Weight2*texture2D(m_Texture2, texCoord).rgb
-    +m_Weight3*texture2D(m_Texture3, texCoord).rgb
-    +m_Weight4*texture2D(m_Texture4, texCoord).rgb
-    +m_Weight5*texture2D(m_Texture5, texCoord).rgb
-    +m_Weight6*texture2D(m_Texture6, texCoord).rgb
-    +m_Weight7*texture2D(m_Texture7, texCoord).rgb
-    +m_Weight8*texture2D(m_Texture8, texCoord).rgb;
+{  vec3 bloom=vec3(0.0);
+#ifdef REGION
+   if (any(lessThan(texCoord, m_RegionRect.xy))
+    || any(greaterThan(texCoord, m_RegionRect.xy+m_RegionRect.zw)))
+   {  gl_FragColor.rgb=texture2D(m_Texture, texCoord).rgb;
+      return;
+   }
+#endif
+#ifdef FOCUS_LEVELS
+// The fade is left out at the edges of the rectangle on the screen border.
+   vec2 focusCoord=(texCoord-m_FocusRect.xy)/m_FocusRect.zw;
+   vec2 lo=focusCoord+step(m_FocusRect.xy, vec2(0.001));
+   vec2 hi=1.0-focusCoord+step(vec2(0.999), m_FocusRect.xy+m_FocusRect.zw);
+   vec2 edge=min(lo, hi);
+   float focus=smoothstep(0.0, 0.125, min(edge.x, edge.y));
+#endif
+#ifdef HAS_LEVEL1
+   bloom+=LEVEL_WEIGHT(0)*texture2D(m_Texture1, LEVEL_COORD(0)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=1
+   bloom+=m_Weights[0]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[0]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL2
+   bloom+=LEVEL_WEIGHT(1)*texture2D(m_Texture2, LEVEL_COORD(1)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=2
+   bloom+=m_Weights[1]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[1]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL3
+   bloom+=LEVEL_WEIGHT(2)*texture2D(m_Texture3, LEVEL_COORD(2)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=3
+   bloom+=m_Weights[2]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[2]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL4
+   bloom+=LEVEL_WEIGHT(3)*texture2D(m_Texture4, LEVEL_COORD(3)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=4
+   bloom+=m_Weights[3]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[3]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL5
+   bloom+=LEVEL_WEIGHT(4)*texture2D(m_Texture5, LEVEL_COORD(4)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=5
+   bloom+=m_Weights[4]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[4]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL6
+   bloom+=LEVEL_WEIGHT(5)*texture2D(m_Texture6, LEVEL_COORD(5)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=6
+   bloom+=m_Weights[5]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[5]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL7
+   bloom+=LEVEL_WEIGHT(6)*texture2D(m_Texture7, LEVEL_COORD(6)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=7
+   bloom+=m_Weights[6]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[6]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL8
+   bloom+=LEVEL_WEIGHT(7)*texture2D(m_Texture8, LEVEL_COORD(7)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=8
+   bloom+=m_Weights[7]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[7]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL9
+   bloom+=LEVEL_WEIGHT(8)*texture2D(m_Texture9, LEVEL_COORD(8)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=9
+   bloom+=m_Weights[8]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[8]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL10
+   bloom+=LEVEL_WEIGHT(9)*texture2D(m_Texture10, LEVEL_COORD(9)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=10
+   bloom+=m_Weights[9]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[9]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL11
+   bloom+=LEVEL_WEIGHT(10)*texture2D(m_Texture11, LEVEL_COORD(10)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=11
+   bloom+=m_Weights[10]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[10]).rgb;
+#endif
+#endif
+#ifdef HAS_LEVEL12
+   bloom+=LEVEL_WEIGHT(11)*texture2D(m_Texture12, LEVEL_COORD(11)).rgb;
+#elif defined(CHAIN_LEVELS)
+#if CHAIN_LEVELS>=12
+   bloom+=m_Weights[11]*SAMPLE_LOD(m_MipChain, texCoord, m_Lods[11]).rgb;
+#endif
+#endif
 
 //   gl_FragColor.rgb=bloom+(1.0-bloom)*texture2D(m_Texture, texCoord).rgb;
    gl_FragColor.rgb=texture2D(m_Texture, texCoord).rgb+bloom;
-} // main ======================================================================
\ No newline at end of file
+} // main =========================================================================
\ No newline at end of file
@@ -0,0 +1,52 @@
+#import "MatDefs/MipmapBloom/Extract.glsllib"
+
+uniform float m_Dx;           // The width of a source texel in (u,v) space.
+uniform float m_Dy;           // The height of a source texel in (u,v) space.
+varying vec2 texCoord;        // The texture coordinate of the center pixel.
+
+// In stereo mode the eyes are side by side, and each is sampled within its
+// own half, clamped half a texel inside, see MipmapSampler.frag.
+#ifdef TILES
+uniform float m_TileTexel;    // Half a texel of the sampled texture in u.
+
+vec2 tileClamp(in vec2 uv)
+{  float tile=floor(texCoord.x*float(TILES));
+   return vec2(clamp(uv.x, tile/float(TILES)+m_TileTexel, 
+    (tile+1.0)/float(TILES)-m_TileTexel), uv.y);
+}
+#define TILE(uv) tileClamp(uv)
+#else
+#define TILE(uv) (uv)
+#endif
+
+
+/**
+ * Take 13 bilinear samples, which form five overlapping boxes of 2x2 samples
+ * around the center pixel. The inner box weighs one half, the four outer
+ * boxes one eighth each.
+ */
+// =============================================================================
+   void main()
+// =============================================================================
+{  vec2 d=vec2(m_Dx, m_Dy);
+
+   vec3 a=fetch(TILE(texCoord+d*vec2(-2.0, 2.0))).rgb;
+   vec3 b=fetch(TILE(texCoord+d*vec2( 0.0, 2.0))).rgb;
+   vec3 c=fetch(TILE(texCoord+d*vec2( 2.0, 2.0))).rgb;
+   vec3 e=fetch(TILE(texCoord+d*vec2(-2.0, 0.0))).rgb;
+   vec3 f=fetch(TILE(texCoord)).rgb;
+   vec3 g=fetch(TILE(texCoord+d*vec2( 2.0, 0.0))).rgb;
+   vec3 h=fetch(TILE(texCoord+d*vec2(-2.0,-2.0))).rgb;
+   vec3 i=fetch(TILE(texCoord+d*vec2( 0.0,-2.0))).rgb;
+   vec3 j=fetch(TILE(texCoord+d*vec2( 2.0,-2.0))).rgb;
+   vec3 k=fetch(TILE(texCoord+d*vec2(-1.0, 1.0))).rgb;
+   vec3 l=fetch(TILE(texCoord+d*vec2( 1.0, 1.0))).rgb;
+   vec3 m=fetch(TILE(texCoord+d*vec2(-1.0,-1.0))).rgb;
+   vec3 n=fetch(TILE(texCoord+d*vec2( 1.0,-1.0))).rgb;
+
+   gl_FragColor.rgb=f*0.125
+    +(a+c+h+j)*0.03125
+    +(b+e+g+i)*0.0625
+    +(k+l+m+n)*0.125
+    +glow(texCoord).rgb;
+} // main ======================================================================
@@ -0,0 +1,46 @@
+uniform sampler2D m_Texture;  // The lower (smaller) level to upsample.
+uniform sampler2D m_Base;     // The downsampled level of this size.
+uniform float m_Dx;           // The width of a lower texel in (u,v) space.
+uniform float m_Dy;           // The height of a lower texel in (u,v) space.
+uniform vec2 m_Weights;       // The weights of the base level (x) and of
+                              // the upsampled lower level (y).
+varying vec2 texCoord;        // The texture coordinate of the center pixel.
+
+// In stereo mode the eyes are side by side, and each is sampled within its
+// own half, clamped half a texel inside, see MipmapSampler.frag.
+#ifdef TILES
+uniform float m_TileTexel;    // Half a texel of the sampled texture in u.
+
+vec2 tileClamp(in vec2 uv)
+{  float tile=floor(texCoord.x*float(TILES));
+   return vec2(clamp(uv.x, tile/float(TILES)+m_TileTexel, 
+    (tile+1.0)/float(TILES)-m_TileTexel), uv.y);
+}
+#define TILE(uv) tileClamp(uv)
+#else
+#define TILE(uv) (uv)
+#endif
+
+
+/**
+ * Upsample the lower level with a 3x3 tent filter and add the weighted level
+ * of this size, so each level carries the bloom of all levels below it.
+ */
+// =============================================================================
+   void main()
+// =============================================================================
+{  vec2 d=vec2(m_Dx, m_Dy);
+
+   vec3 tent=texture2D(m_Texture, TILE(texCoord)).rgb*4.0
+    +(texture2D(m_Texture, TILE(texCoord+d*vec2(-1.0, 0.0))).rgb
+     +texture2D(m_Texture, TILE(texCoord+d*vec2( 1.0, 0.0))).rgb
+     +texture2D(m_Texture, TILE(texCoord+d*vec2( 0.0,-1.0))).rgb
+     +texture2D(m_Texture, TILE(texCoord+d*vec2( 0.0, 1.0))).rgb)*2.0
+    +texture2D(m_Texture, TILE(texCoord+d*vec2(-1.0,-1.0))).rgb
+    +texture2D(m_Texture, TILE(texCoord+d*vec2( 1.0,-1.0))).rgb
+    +texture2D(m_Texture, TILE(texCoord+d*vec2(-1.0, 1.0))).rgb
+    +texture2D(m_Texture, TILE(texCoord+d*vec2( 1.0, 1.0))).rgb;
+
+   gl_FragColor.rgb=m_Weights.x*texture2D(m_Base, texCoord).rgb
+    +m_Weights.y*tent/16.0;
+} // main ======================================================================
@@ -3,6 +3,26 @@ uniform float m_Size;         // The width of the texture.
 uniform float m_Scale;        // The step size in pixels.
 varying vec2 texCoord;        // Texture coordinate.
 
+// Views side by side are blurred each within its own tile, clamped half a
+// texel inside, see MipmapSampler.frag.
+#ifdef TILES
+uniform float m_TileTexel;    // Half a texel of the texture in u.
+
+vec2 tileClamp(in vec2 uv)
+{  float tile=floor(texCoord.x*float(TILES));
+   return vec2(clamp(uv.x, tile/float(TILES)+m_TileTexel, 
+    (tile+1.0)/float(TILES)-m_TileTexel), uv.y);
+}
+#define TILE(uv) tileClamp(uv)
+#else
+#define TILE(uv) (uv)
+#endif
+
+#ifdef TAPS
+uniform float m_Offsets[TAPS];  // The folded tap offsets in texels.
+uniform float m_Weights[TAPS];  // The folded tap weights.
+#endif
+
 
 // =============================================================================
    void main()
@@ -10,18 +30,29 @@ varying vec2 texCoord;        // Texture coordinate.
 {  float blurSize = m_Scale/m_Size;
    vec4 sum = vec4(0.0);
 
-// Take nine samples, with the distance (u,v) blurSize between them
    vec2 delta=blurSize*vec2(1.0,0.0);
 
-   sum+=texture2D(m_Texture, texCoord.xy-4.0*delta)*0.06;
-   sum+=texture2D(m_Texture, texCoord.xy-3.0*delta)*0.09;
-   sum+=texture2D(m_Texture, texCoord.xy-2.0*delta)*0.12;
-   sum+=texture2D(m_Texture, texCoord.xy-delta)*0.15;
-   sum+=texture2D(m_Texture, texCoord.xy)*0.16;
-   sum+=texture2D(m_Texture, texCoord.xy+delta)*0.15;
-   sum+=texture2D(m_Texture, texCoord.xy+2.0*delta)*0.12;
-   sum+=texture2D(m_Texture, texCoord.xy+3.0*delta)*0.09;
-   sum+=texture2D(m_Texture, texCoord.xy+4.0*delta)*0.06;
+#ifdef TAPS
+// Take the bilinear fetches of a generated kernel, see GaussianKernel.java.
+   sum+=texture2D(m_Texture, TILE(texCoord.xy))*m_Weights[0];
+   for (int i=1; i<TAPS; i++)
+   {  sum+=texture2D(m_Texture, TILE(texCoord.xy-m_Offsets[i]*delta))
+       *m_Weights[i];
+      sum+=texture2D(m_Texture, TILE(texCoord.xy+m_Offsets[i]*delta))
+       *m_Weights[i];
+   }
+#else
+// Take nine samples, with the distance (u,v) blurSize between them
+   sum+=texture2D(m_Texture, TILE(texCoord.xy-4.0*delta))*0.06;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy-3.0*delta))*0.09;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy-2.0*delta))*0.12;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy-delta))*0.15;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy))*0.16;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy+delta))*0.15;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy+2.0*delta))*0.12;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy+3.0*delta))*0.09;
+   sum+=texture2D(m_Texture, TILE(texCoord.xy+4.0*delta))*0.06;
+#endif
 
    gl_FragColor=sum;
 } // main ======================================================================
\ No newline at end of file
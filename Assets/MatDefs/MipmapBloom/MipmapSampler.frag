@@ -1,8 +1,77 @@
-uniform sampler2D m_Texture;  // The texture to make a mipmap from.
+#import "MatDefs/MipmapBloom/Extract.glsllib"
+
 uniform float m_Dx;           // The step size in x direction in (u,v) space.
 uniform float m_Dy;           // The step size in y direction in (u,v) space.
 varying vec2 texCoord;        // The texture coordinate of the center pixel.
 
+#ifdef VIEWS
+#if VIEWS>1
+uniform sampler2D m_View2;    // The extract texture of the second view.
+#endif
+#if VIEWS>2
+uniform sampler2D m_View3;
+#endif
+#if VIEWS>3
+uniform sampler2D m_View4;
+#endif
+#endif
+
+#ifdef TILES
+uniform float m_TileTexel;    // Half a texel of the texture in u.
+#define TILE(uv) tileClamp(uv)
+#else
+#define TILE(uv) (uv)
+#endif
+
+#ifdef SOURCE_RECT
+uniform vec4 m_SourceRect;    // The rectangle of the texture the pass covers.
+#define SOURCE(uv) (m_SourceRect.xy+(uv)*m_SourceRect.zw)
+#else
+#define SOURCE(uv) (uv)
+#endif
+
+
+#ifdef VIEWS
+/**
+ * Sample the texture of a view at a coordinate within the view.
+ */
+// =============================================================================
+   vec4 fetchView(in float view, in vec2 uv)
+// =============================================================================
+{
+#if VIEWS>3
+   if (view>2.5)
+      return texture2D(m_View4, uv);
+#endif
+#if VIEWS>2
+   if (view>1.5)
+      return texture2D(m_View3, uv);
+#endif
+#if VIEWS>1
+   if (view>0.5)
+      return texture2D(m_View2, uv);
+#endif
+   return fetch(uv);
+} // fetchView =================================================================
+#endif
+
+
+
+#ifdef TILES
+/**
+ * Clamp a coordinate into the tile of the center pixel, half a texel inside,
+ * so the views side by side do not bleed into each other.
+ */
+// =============================================================================
+   vec2 tileClamp(in vec2 uv)
+// =============================================================================
+{  float tile=floor(texCoord.x*float(TILES));
+   return vec2(clamp(uv.x, tile/float(TILES)+m_TileTexel, 
+    (tile+1.0)/float(TILES)-m_TileTexel), uv.y);
+} // tileClamp =================================================================
+#endif
+
+
 
 /**
  * Sample the texture at the center pixel and its eight neighbors.
@@ -12,13 +81,28 @@ varying vec2 texCoord;        // The texture coordinate of the center pixel.
    void main()
 // =============================================================================
 {
+#ifdef VIEWS
+// Each tile downsamples the texture of its view.
+   float view=floor(texCoord.x*float(VIEWS));
+   vec2 uv=vec2(texCoord.x*float(VIEWS)-view, texCoord.y);
 #ifdef MULTISAMPLE
-   gl_FragColor=0.25*(texture2D(m_Texture, texCoord+vec2(-m_Dx,-m_Dy))
-    +texture2D(m_Texture, texCoord+vec2( m_Dx,-m_Dy))
-    +texture2D(m_Texture, texCoord+vec2( m_Dx, m_Dy))
-    +texture2D(m_Texture, texCoord+vec2(-m_Dx, m_Dy)));
+   gl_FragColor=0.25*(fetchView(view, uv+vec2(-m_Dx,-m_Dy))
+    +fetchView(view, uv+vec2( m_Dx,-m_Dy))
+    +fetchView(view, uv+vec2( m_Dx, m_Dy))
+    +fetchView(view, uv+vec2(-m_Dx, m_Dy)));
 #else
-   gl_FragColor=texture2D(m_Texture, texCoord);
+   gl_FragColor=fetchView(view, uv);
+#endif
+#else
+#ifdef MULTISAMPLE
+   gl_FragColor=0.25*(fetch(TILE(SOURCE(texCoord+vec2(-m_Dx,-m_Dy))))
+    +fetch(TILE(SOURCE(texCoord+vec2( m_Dx,-m_Dy))))
+    +fetch(TILE(SOURCE(texCoord+vec2( m_Dx, m_Dy))))
+    +fetch(TILE(SOURCE(texCoord+vec2(-m_Dx, m_Dy)))));
+#else
+   gl_FragColor=fetch(TILE(SOURCE(texCoord)));
+#endif
+   gl_FragColor+=glow(SOURCE(texCoord));
 #endif
 
-} // main ======================================================================
\ No newline at end of file
+} // main ======================================================================
@@ -3,6 +3,11 @@ uniform float m_Size;         // The height of the texture.
 uniform float m_Scale;        // The step size in pixels.
 varying vec2 texCoord;        // Texture coordinate.
 
+#ifdef TAPS
+uniform float m_Offsets[TAPS];  // The folded tap offsets in texels.
+uniform float m_Weights[TAPS];  // The folded tap weights.
+#endif
+
 
 // =============================================================================
    void main(void)
@@ -10,9 +15,17 @@ varying vec2 texCoord;        // Texture coordinate.
 {  float blurSize = m_Scale/m_Size;
    vec4 sum = vec4(0.0);
 
-// Take nine samples, with the distance (u,v) blurSize between them
    vec2 delta=blurSize*vec2(0.0,1.0);
 
+#ifdef TAPS
+// Take the bilinear fetches of a generated kernel, see GaussianKernel.java.
+   sum+=texture2D(m_Texture, texCoord.xy)*m_Weights[0];
+   for (int i=1; i<TAPS; i++)
+   {  sum+=texture2D(m_Texture, texCoord.xy-m_Offsets[i]*delta)*m_Weights[i];
+      sum+=texture2D(m_Texture, texCoord.xy+m_Offsets[i]*delta)*m_Weights[i];
+   }
+#else
+// Take nine samples, with the distance (u,v) blurSize between them
    sum+=texture2D(m_Texture, texCoord.xy-4.0*delta)*0.06;
    sum+=texture2D(m_Texture, texCoord.xy-3.0*delta)*0.09;
    sum+=texture2D(m_Texture, texCoord.xy-2.0*delta)*0.12;
@@ -22,6 +35,7 @@ varying vec2 texCoord;        // Texture coordinate.
    sum+=texture2D(m_Texture, texCoord.xy+2.0*delta)*0.12;
    sum+=texture2D(m_Texture, texCoord.xy+3.0*delta)*0.09;
    sum+=texture2D(m_Texture, texCoord.xy+4.0*delta)*0.06;
+#endif
 
    gl_FragColor=sum;
 } // main ======================================================================
\ No newline at end of file
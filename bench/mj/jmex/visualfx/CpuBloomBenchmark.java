@@ -0,0 +1,227 @@
+package mj.jmex.visualfx;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures each stage of the bloom chain on the {@link CpuBloomEngine}:
+ * the extract pass, a single mipmap level, a single blur pass, the
+ * accumulation and the whole chain.
+ */
+// *****************************************************************************
+   @State(Scope.Thread)
+   @BenchmarkMode(Mode.AverageTime)
+   @OutputTimeUnit(TimeUnit.MILLISECONDS)
+   @Warmup(iterations=3, time=2)
+   @Measurement(iterations=5, time=2)
+   @Fork(1)
+   public class CpuBloomBenchmark
+// *****************************************************************************
+{
+   @Param({"1280x720", "1920x1080", "3840x2160"})
+   public String resolution;
+
+   @Param({"High", "Low", "Progressive"})
+   public String quality;
+
+   @Param({"2.0", "1.5"})
+   public float downSamplingCoef;
+
+   @Param({"8", "6", "auto"})
+   public String numLevels;
+
+   @Param({"false", "true"})
+   public boolean fusedExtract;
+
+/**
+ * The blur kernel, "builtin" or "sigma:radius" of a generated kernel.
+ */
+   @Param({"builtin", "1.5:3", "4:9"})
+   public String blurKernel;
+
+   private CpuBloomEngine engine;
+   private float[] scene;
+   private float[] out;
+
+
+
+/**
+ * Selects the level of the per-level benchmarks. Levels beyond the level count
+ * are clamped to the last level.
+ */
+// =============================================================================
+   @State(Scope.Thread)
+   public static class LevelState
+// =============================================================================
+{
+   @Param({"0", "3", "7"})
+   public int level;
+} // LevelState ================================================================
+
+
+
+// =============================================================================
+   @Setup
+   public void setUp()
+// =============================================================================
+{
+   int width=parseWidth(resolution);
+   int height=parseHeight(resolution);
+   scene=makeScene(width, height, 1);
+   out=new float[scene.length];
+
+   engine=new CpuBloomEngine();
+   engine.setQuality(Quality.valueOf(quality));
+   engine.setDownSamplingCoef(downSamplingCoef);
+   if (numLevels.equals("auto"))
+      engine.setAutoLevels(8);
+   else
+      engine.setNumLevels(Integer.parseInt(numLevels));
+   engine.setFusedExtract(fusedExtract);
+   if (!blurKernel.equals("builtin"))
+   {  int colon=blurKernel.indexOf(':');
+      engine.setBlurKernel(GaussianKernel.get(
+       Float.parseFloat(blurKernel.substring(0, colon)),
+       Integer.parseInt(blurKernel.substring(colon+1))));
+   }
+   engine.setExposureCutOff(0.5f);
+   engine.render(scene, width, height, out);
+   engine.prepare(scene, width, height);
+} // setUp =====================================================================
+
+
+
+// =============================================================================
+   @Benchmark
+   public float[] fullChain()
+// =============================================================================
+{  engine.render(scene, parseWidth(resolution), parseHeight(resolution), out);
+   return out;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Benchmark
+   public CpuBloomEngine.Surface extract()
+// =============================================================================
+{  engine.extractStage();
+   return engine.getExtract();
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Benchmark
+   public CpuBloomEngine.Surface mipmapLevel(LevelState state)
+// =============================================================================
+{  int level=Math.min(state.level, engine.getLevelCount()-1);
+   engine.levelStage(level);
+   return engine.getLevel(level);
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Benchmark
+   public CpuBloomEngine.Surface horizontalBlur(LevelState state)
+// =============================================================================
+{  int level=Math.min(state.level, engine.getLevelCount()-1);
+   if (engine.getQuality()!=Quality.Progressive)  // No blur buffers.
+      engine.blurStage(level, true);
+   return engine.getLevel(level);
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Benchmark
+   public CpuBloomEngine.Surface verticalBlur(LevelState state)
+// =============================================================================
+{  int level=Math.min(state.level, engine.getLevelCount()-1);
+   if (engine.getQuality()!=Quality.Progressive)  // No blur buffers.
+      engine.blurStage(level, false);
+   return engine.getLevel(level);
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Benchmark
+   public CpuBloomEngine.Surface upsample(LevelState state)
+// =============================================================================
+{  int level=Math.min(state.level, engine.getLevelCount()-2);
+   if (engine.getQuality()==Quality.Progressive && level>=0)
+      engine.upStage(level);
+   return engine.getResult(Math.max(0, level));
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Benchmark
+   public float[] accumulation()
+// =============================================================================
+{  engine.accumulateStage(out);
+   return out;
+} // ===========================================================================
+
+
+
+/**
+ * Makes a dim scene with a few small, very bright spots.
+ */
+// =============================================================================
+   static float[] makeScene(int width, int height, long seed)
+// =============================================================================
+{
+   Random random=new Random(seed);
+   float[] rgb=new float[width*height*3];
+   for (int ii=0; ii<rgb.length; ii++)
+      rgb[ii]=0.3f*random.nextFloat();
+   for (int spot=0; spot<32; spot++)
+   {  int cx=random.nextInt(width);
+      int cy=random.nextInt(height);
+      int radius=1+random.nextInt(Math.max(1, width/200));
+      for (int y=Math.max(0, cy-radius); y<Math.min(height, cy+radius); y++)
+         for (int x=Math.max(0, cx-radius); x<Math.min(width, cx+radius); x++)
+         {  int i=(y*width+x)*3;
+            rgb[i]=4.0f;
+            rgb[i+1]=3.0f;
+            rgb[i+2]=2.0f;
+         }
+   }
+   return rgb;
+} // makeScene =================================================================
+
+
+
+// =============================================================================
+   static int parseWidth(String resolution)
+// =============================================================================
+{  return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+} // ===========================================================================
+
+
+
+// =============================================================================
+   static int parseHeight(String resolution)
+// =============================================================================
+{  return Integer.parseInt(resolution.substring(resolution.indexOf('x')+1));
+} // ===========================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,174 @@
+package mj.jmex.visualfx;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import java.util.concurrent.TimeUnit;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * Measures the Java side overhead of {@link MipmapBloomFilter}: building the
+ * pass graph in <code>initFilter</code>, rebuilding it in
+ * <code>reInitFilter</code>, and the per-frame uniform updates of the passes,
+ * all against a {@link RecordingRenderer}.
+ * <p>
+ * The material definitions are loaded from the <code>Assets</code> directory
+ * of the working directory and the jME3 classpath.
+ */
+// *****************************************************************************
+   @State(Scope.Thread)
+   @BenchmarkMode(Mode.AverageTime)
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   @Warmup(iterations=3, time=1)
+   @Measurement(iterations=5, time=1)
+   @Fork(1)
+   public class FilterBenchmark
+// *****************************************************************************
+{
+   @Param({"1280x720", "1920x1080", "3840x2160"})
+   public String resolution;
+
+   @Param({"High", "Low", "Progressive"})
+   public String quality;
+
+   private AssetManager assetManager;
+   private RenderManager renderManager;
+   private ViewPort viewPort;
+   private BenchFilter filter;
+   private int width;
+   private int height;
+
+
+
+/**
+ * Gives the benchmark access to the protected members of the filter.
+ */
+// =============================================================================
+   static class BenchFilter extends MipmapBloomFilter
+// =============================================================================
+{
+   BenchFilter(Quality quality) {super(quality);}
+
+   @Override
+   protected void reInitFilter() {super.reInitFilter();}
+
+   void initialize(AssetManager manager, RenderManager rm, ViewPort vp, int w,
+    int h)
+   {  initFilter(manager, rm, vp, w, h);
+   }
+
+   /**
+    * Does what the FilterPostProcessor does for the filter each frame, up to
+    * the actual rendering.
+    */
+   void frame(float tpf)
+   {  preFrame(tpf);
+      for (int ii=0; ii<postRenderPasses.size(); ii++)
+         postRenderPasses.get(ii).beforeRender();
+   }
+} // BenchFilter ===============================================================
+
+
+
+// =============================================================================
+   @Setup
+   public void setUp()
+// =============================================================================
+{
+   width=CpuBloomBenchmark.parseWidth(resolution);
+   height=CpuBloomBenchmark.parseHeight(resolution);
+   assetManager=new DesktopAssetManager(true);
+   assetManager.registerLocator("Assets", FileLocator.class);
+   renderManager=new RenderManager(new RecordingRenderer().getRenderer());
+   viewPort=new ViewPort("bench", new Camera(width, height));
+   filter=new BenchFilter(Quality.valueOf(quality));
+   filter.initialize(assetManager, renderManager, viewPort, width, height);
+} // setUp =====================================================================
+
+
+
+/**
+ * Builds the pass graph of a new filter, with an empty render target pool.
+ */
+// =============================================================================
+   @Benchmark
+   public MipmapBloomFilter initFilter()
+// =============================================================================
+{  BenchFilter f=new BenchFilter(Quality.valueOf(quality));
+   f.initialize(assetManager, renderManager, viewPort, width, height);
+   return f;
+} // ===========================================================================
+
+
+
+/**
+ * Rebuilds the pass graph of an initialized filter.
+ */
+// =============================================================================
+   @Benchmark
+   public MipmapBloomFilter reInitFilter()
+// =============================================================================
+{  filter.reInitFilter();
+   return filter;
+} // ===========================================================================
+
+
+
+/**
+ * The per-frame work of the filter when nothing changed.
+ */
+// =============================================================================
+   @Benchmark
+   public MipmapBloomFilter frame()
+// =============================================================================
+{  filter.frame(0.016f);
+   return filter;
+} // ===========================================================================
+
+
+
+/**
+ * A per-frame change of the bloom intensity, e.g. for a pulsing bloom.
+ */
+// =============================================================================
+   @Benchmark
+   public MipmapBloomFilter animatedIntensity()
+// =============================================================================
+{  filter.setBloomIntensity(filter.getBloomFactor(), filter.getBloomPower());
+   filter.frame(0.016f);
+   return filter;
+} // ===========================================================================
+
+
+
+/**
+ * The same change published as from another thread, and taken over by the
+ * next frame.
+ */
+// =============================================================================
+   @Benchmark
+   public MipmapBloomFilter publishedIntensity()
+// =============================================================================
+{  filter.publishBloomIntensity(filter.getBloomFactor()+1.0e-6f, 
+    filter.getBloomPower());
+   filter.frame(0.016f);
+   return filter;
+} // ===========================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,145 @@
+package mj.jmex.visualfx;
+
+import com.jme3.renderer.Caps;
+import com.jme3.renderer.Renderer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+
+/**
+ * A fake {@link Renderer} that does nothing but count the calls of each of its
+ * methods. It is a dynamic proxy, so it works with any version of the
+ * Renderer interface.
+ * <p>
+ * <code>getCaps()</code> reports no capabilities, all other methods return
+ * <code>null</code>, <code>0</code> or <code>false</code>. The objects passed
+ * to the <code>delete</code> methods are kept, see
+ * {@link #isDeleted(Object)}.
+ */
+// *****************************************************************************
+   public class RecordingRenderer implements InvocationHandler
+// *****************************************************************************
+{
+   private final Renderer renderer;
+   private final Map<String, int[]> counts=new HashMap<String, int[]>();
+   private final EnumSet<Caps> caps=EnumSet.noneOf(Caps.class);
+   private final Set<Object> deleted=
+    Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+
+
+// =============================================================================
+   public RecordingRenderer()
+// =============================================================================
+{
+   renderer=(Renderer)Proxy.newProxyInstance(Renderer.class.getClassLoader(),
+    new Class<?>[] {Renderer.class}, this);
+} // ===========================================================================
+
+
+
+/**
+ * @return  The proxy that records its calls.
+ */
+// =============================================================================
+   public Renderer getRenderer() {return renderer;}
+// =============================================================================
+
+
+
+/**
+ * Provides how often a method has been called since the last reset.
+ * @param method  The method name, e.g. <code>"deleteFrameBuffer"</code>.
+ * @return
+ */
+// =============================================================================
+   public int count(String method)
+// =============================================================================
+{  int[] count=counts.get(method);
+   return count==null? 0:count[0];
+} // count =====================================================================
+
+
+
+/**
+ * @return  The number of all calls since the last reset.
+ */
+// =============================================================================
+   public int total()
+// =============================================================================
+{  int total=0;
+   for (int[] count : counts.values())
+      total+=count[0];
+   return total;
+} // total =====================================================================
+
+
+
+/**
+ * Tells if an object has been passed to a <code>delete</code> method since
+ * the last reset, e.g. a FrameBuffer to <code>deleteFrameBuffer</code>.
+ * @param object
+ * @return
+ */
+// =============================================================================
+   public boolean isDeleted(Object object) {return deleted.contains(object);}
+// =============================================================================
+
+
+
+// =============================================================================
+   public void reset()
+// =============================================================================
+{  for (int[] count : counts.values())
+      count[0]=0;
+   deleted.clear();
+} // reset =====================================================================
+
+
+
+// =============================================================================
+   @Override
+   public Object invoke(Object proxy, Method method, Object[] args)
+// =============================================================================
+{
+   String name=method.getName();
+   if (method.getDeclaringClass()==Object.class)
+   {  if (name.equals("equals"))
+         return proxy==args[0];
+      if (name.equals("hashCode"))
+         return System.identityHashCode(proxy);
+      return "RecordingRenderer";
+   }
+
+   int[] count=counts.get(name);
+   if (count==null)
+   {  count=new int[1];
+      counts.put(name, count);
+   }
+   count[0]++;
+   if (name.startsWith("delete") && args!=null && args.length==1)
+      deleted.add(args[0]);
+
+   Class<?> type=method.getReturnType();
+   if (name.equals("getCaps"))
+      return caps;
+   if (type==boolean.class)
+      return Boolean.FALSE;
+   if (type==int.class)
+      return 0;
+   if (type==long.class)
+      return 0L;
+   if (type==float.class)
+      return 0.0f;
+   return null;
+} // invoke ====================================================================
+
+} // ***************************************************************************
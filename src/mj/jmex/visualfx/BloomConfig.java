@@ -0,0 +1,519 @@
+package mj.jmex.visualfx;
+
+import java.util.Arrays;
+import mj.jmex.visualfx.MipmapBloomFilter.GlowMode;
+import mj.jmex.visualfx.MipmapBloomFilter.LevelStorage;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+
+
+
+/**
+ * An immutable set of all settings of a {@link MipmapBloomFilter}.
+ * <p>
+ * Each <code>with</code> method returns a copy with one setting changed, so a
+ * settings screen can collect all changes and hand them to
+ * {@link MipmapBloomFilter#apply(BloomConfig)} at once, which rebuilds the
+ * passes at most once. The current settings of a filter are provided by
+ * {@link MipmapBloomFilter#getConfig()}.
+ */
+// *****************************************************************************
+   public final class BloomConfig
+// *****************************************************************************
+{
+/**
+ * The settings of a new filter.
+ */
+   public static final BloomConfig DEFAULT=new BloomConfig();
+
+   private Quality quality=Quality.High;
+   private GlowMode glowMode=GlowMode.Scene;
+   private float exposurePower=3.0f;
+   private float exposureCutOff=0.0f;
+   private float bloomFactor=1.5f;
+   private float bloomPower=1.5f;
+   private float downSamplingCoef=2.0f;
+   private int numLevels=8;
+   private int autoLevelSize=0;
+   private float pruneEpsilon=0.0f;
+   private float expectedLuminance=1.0f;
+   private LevelStorage levelStorage=LevelStorage.Separate;
+   private boolean fusedExtract=false;
+   private boolean stereo=false;
+   private float focusWidth=1.0f;
+   private float focusHeight=1.0f;
+   private int focusLevels=0;
+   private float regionX=0.0f;
+   private float regionY=0.0f;
+   private float regionWidth=1.0f;
+   private float regionHeight=1.0f;
+   private GaussianKernel blurKernel;
+   private int[] updatePeriods=new int[MipmapBloomFilter.MAX_LEVELS];
+
+
+
+// =============================================================================
+   private BloomConfig() {Arrays.fill(updatePeriods, 1);}
+// =============================================================================
+
+
+
+// =============================================================================
+   private BloomConfig copy()
+// =============================================================================
+{
+   BloomConfig c=new BloomConfig();
+   c.quality=quality;
+   c.glowMode=glowMode;
+   c.exposurePower=exposurePower;
+   c.exposureCutOff=exposureCutOff;
+   c.bloomFactor=bloomFactor;
+   c.bloomPower=bloomPower;
+   c.downSamplingCoef=downSamplingCoef;
+   c.numLevels=numLevels;
+   c.autoLevelSize=autoLevelSize;
+   c.pruneEpsilon=pruneEpsilon;
+   c.expectedLuminance=expectedLuminance;
+   c.levelStorage=levelStorage;
+   c.fusedExtract=fusedExtract;
+   c.stereo=stereo;
+   c.focusWidth=focusWidth;
+   c.focusHeight=focusHeight;
+   c.focusLevels=focusLevels;
+   c.regionX=regionX;
+   c.regionY=regionY;
+   c.regionWidth=regionWidth;
+   c.regionHeight=regionHeight;
+   c.blurKernel=blurKernel;
+   c.updatePeriods=updatePeriods.clone();
+   return c;
+} // copy ======================================================================
+
+
+
+/**
+ * Tells if the filter has to rebuild its passes to change from this
+ * configuration to another one. Exposure, intensity, pruning and update period
+ * settings are applied without a rebuild, and so is the number of levels
+ * while it is chosen by the level size.
+ *
+ * @param other
+ * @return
+ */
+// =============================================================================
+   public boolean requiresRebuild(BloomConfig other)
+// =============================================================================
+{
+   return quality!=other.quality
+    || glowMode!=other.glowMode
+    || downSamplingCoef!=other.downSamplingCoef
+    || autoLevelSize!=other.autoLevelSize
+    || autoLevelSize<=0 && numLevels!=other.numLevels
+    || levelStorage!=other.levelStorage
+    || fusedExtract!=other.fusedExtract
+    || stereo!=other.stereo
+    || focusWidth!=other.focusWidth
+    || focusHeight!=other.focusHeight
+    || focusLevels!=other.focusLevels
+    || regionX!=other.regionX
+    || regionY!=other.regionY
+    || regionWidth!=other.regionWidth
+    || regionHeight!=other.regionHeight
+    || blurKernel!=other.blurKernel;
+} // requiresRebuild ===========================================================
+
+
+
+// =============================================================================
+   @Override
+   public boolean equals(Object o)
+// =============================================================================
+{
+   if (!(o instanceof BloomConfig))
+      return false;
+// The floats are compared like hashCode hashes them, i.e. 0.0 and -0.0 are
+// different, NaN is equal to itself.
+   BloomConfig c=(BloomConfig)o;
+   return quality==c.quality
+    && glowMode==c.glowMode
+    && Float.compare(exposurePower, c.exposurePower)==0
+    && Float.compare(exposureCutOff, c.exposureCutOff)==0
+    && Float.compare(bloomFactor, c.bloomFactor)==0
+    && Float.compare(bloomPower, c.bloomPower)==0
+    && Float.compare(downSamplingCoef, c.downSamplingCoef)==0
+    && numLevels==c.numLevels
+    && autoLevelSize==c.autoLevelSize
+    && Float.compare(pruneEpsilon, c.pruneEpsilon)==0
+    && Float.compare(expectedLuminance, c.expectedLuminance)==0
+    && levelStorage==c.levelStorage
+    && fusedExtract==c.fusedExtract
+    && stereo==c.stereo
+    && Float.compare(focusWidth, c.focusWidth)==0
+    && Float.compare(focusHeight, c.focusHeight)==0
+    && focusLevels==c.focusLevels
+    && Float.compare(regionX, c.regionX)==0
+    && Float.compare(regionY, c.regionY)==0
+    && Float.compare(regionWidth, c.regionWidth)==0
+    && Float.compare(regionHeight, c.regionHeight)==0
+    && blurKernel==c.blurKernel
+    && Arrays.equals(updatePeriods, c.updatePeriods);
+} // equals ====================================================================
+
+
+
+// =============================================================================
+   @Override
+   public int hashCode()
+// =============================================================================
+{
+   int hash=quality.hashCode();
+   hash=31*hash+glowMode.hashCode();
+   hash=31*hash+Float.floatToIntBits(exposurePower);
+   hash=31*hash+Float.floatToIntBits(exposureCutOff);
+   hash=31*hash+Float.floatToIntBits(bloomFactor);
+   hash=31*hash+Float.floatToIntBits(bloomPower);
+   hash=31*hash+Float.floatToIntBits(downSamplingCoef);
+   hash=31*hash+numLevels;
+   hash=31*hash+autoLevelSize;
+   hash=31*hash+Float.floatToIntBits(pruneEpsilon);
+   hash=31*hash+Float.floatToIntBits(expectedLuminance);
+   hash=31*hash+levelStorage.hashCode();
+   hash=31*hash+(fusedExtract? 1:0);
+   hash=31*hash+(stereo? 1:0);
+   hash=31*hash+Float.floatToIntBits(focusWidth);
+   hash=31*hash+Float.floatToIntBits(focusHeight);
+   hash=31*hash+focusLevels;
+   hash=31*hash+Float.floatToIntBits(regionX);
+   hash=31*hash+Float.floatToIntBits(regionY);
+   hash=31*hash+Float.floatToIntBits(regionWidth);
+   hash=31*hash+Float.floatToIntBits(regionHeight);
+   hash=31*hash+(blurKernel==null? 0:blurKernel.hashCode());
+   hash=31*hash+Arrays.hashCode(updatePeriods);
+   return hash;
+} // hashCode ==================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withQuality(Quality quality)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.quality=quality;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withGlowMode(GlowMode glowMode)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.glowMode=glowMode;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withExposurePower(float exposurePower)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.exposurePower=exposurePower;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withExposureCutOff(float exposureCutOff)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.exposureCutOff=exposureCutOff;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * See {@link MipmapBloomFilter#setBloomIntensity(float, float)}.
+ * @param bloomFactor
+ * @param bloomPower
+ * @return
+ */
+// =============================================================================
+   public BloomConfig withBloomIntensity(float bloomFactor, float bloomPower)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.bloomFactor=bloomFactor;
+   c.bloomPower=bloomPower;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withDownSamplingCoef(float downSamplingCoef)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.downSamplingCoef=downSamplingCoef;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * See {@link MipmapBloomFilter#setNumLevels(int)}, turns the automatic level
+ * count off.
+ * @param numLevels   1 to {@link MipmapBloomFilter#MAX_LEVELS}.
+ * @return
+ */
+// =============================================================================
+   public BloomConfig withNumLevels(int numLevels)
+// =============================================================================
+{  if (numLevels<1 || numLevels>MipmapBloomFilter.MAX_LEVELS)
+      throw new IllegalArgumentException("numLevels must be 1 to "
+       +MipmapBloomFilter.MAX_LEVELS+": "+numLevels);
+   BloomConfig c=copy();
+   c.numLevels=numLevels;
+   c.autoLevelSize=0;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * See {@link MipmapBloomFilter#setAutoLevels(int)}.
+ * @param minLevelSize
+ * @return
+ */
+// =============================================================================
+   public BloomConfig withAutoLevels(int minLevelSize)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.autoLevelSize=Math.max(0, minLevelSize);
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withPruneEpsilon(float pruneEpsilon)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.pruneEpsilon=pruneEpsilon;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withExpectedLuminance(float expectedLuminance)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.expectedLuminance=expectedLuminance;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withLevelStorage(LevelStorage levelStorage)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.levelStorage=levelStorage;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withFusedExtract(boolean fusedExtract)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.fusedExtract=fusedExtract;
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public BloomConfig withStereo(boolean stereo)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.stereo=stereo;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * See {@link MipmapBloomFilter#setFoveation(float, float, int)}.
+ * @param focusWidth   The width of the focus rectangle, 0 to 1 of the screen.
+ * @param focusHeight  The height of the focus rectangle.
+ * @param focusLevels  The number of levels in the focus rectangle only, 0 to
+ *                     turn foveation off.
+ * @return
+ */
+// =============================================================================
+   public BloomConfig withFoveation(float focusWidth, float focusHeight,
+    int focusLevels)
+// =============================================================================
+{  checkFoveation(focusWidth, focusHeight, focusLevels);
+   BloomConfig c=copy();
+   c.focusWidth=focusWidth;
+   c.focusHeight=focusHeight;
+   c.focusLevels=focusLevels;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * Checks the arguments of {@link #withFoveation(float, float, int)}.
+ * @throws IllegalArgumentException  If one is out of range.
+ */
+// =============================================================================
+   static void checkFoveation(float focusWidth, float focusHeight,
+    int focusLevels)
+// =============================================================================
+{  if (!(focusWidth>0.0f && focusWidth<=1.0f && focusHeight>0.0f
+    && focusHeight<=1.0f))
+      throw new IllegalArgumentException("focus size must be 0 to 1: "
+       +focusWidth+"x"+focusHeight);
+   if (focusLevels<0 || focusLevels>=MipmapBloomFilter.MAX_LEVELS)
+      throw new IllegalArgumentException("focusLevels must be 0 to "
+       +(MipmapBloomFilter.MAX_LEVELS-1)+": "+focusLevels);
+} // checkFoveation ============================================================
+
+
+
+/**
+ * See {@link MipmapBloomFilter#setRegionOfInterest(float, float, float,
+ * float)}.
+ * @param x       The left edge of the region, 0 to 1 of the screen width.
+ * @param y       The bottom edge, 0 to 1 of the screen height.
+ * @param width   The width, up to 1-x.
+ * @param height  The height, up to 1-y.
+ * @return
+ */
+// =============================================================================
+   public BloomConfig withRegionOfInterest(float x, float y, float width,
+    float height)
+// =============================================================================
+{  checkRegionOfInterest(x, y, width, height);
+   BloomConfig c=copy();
+   c.regionX=x;
+   c.regionY=y;
+   c.regionWidth=width;
+   c.regionHeight=height;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * Checks the arguments of
+ * {@link #withRegionOfInterest(float, float, float, float)}.
+ * @throws IllegalArgumentException  If the region is not inside the screen.
+ */
+// =============================================================================
+   static void checkRegionOfInterest(float x, float y, float width,
+    float height)
+// =============================================================================
+{  if (!(x>=0.0f && y>=0.0f && width>0.0f && height>0.0f
+    && x+width<=1.0f && y+height<=1.0f))
+      throw new IllegalArgumentException("region must be inside the screen: "
+       +x+", "+y+", "+width+"x"+height);
+} // checkRegionOfInterest =====================================================
+
+
+
+/**
+ * @return  <code>true</code> if the region of interest is not the whole
+ *          screen.
+ */
+// =============================================================================
+   public boolean hasRegionOfInterest()
+// =============================================================================
+{  return regionWidth<1.0f || regionHeight<1.0f;
+} // ===========================================================================
+
+
+
+/**
+ * @param blurKernel   <code>null</code> for the built-in kernel.
+ * @return
+ */
+// =============================================================================
+   public BloomConfig withBlurKernel(GaussianKernel blurKernel)
+// =============================================================================
+{  BloomConfig c=copy();
+   c.blurKernel=blurKernel;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * See {@link MipmapBloomFilter#setUpdatePeriod(int, int)}.
+ * @param level   0 to {@link MipmapBloomFilter#MAX_LEVELS}-1.
+ * @param period  The period in frames, at least 1.
+ * @return
+ */
+// =============================================================================
+   public BloomConfig withUpdatePeriod(int level, int period)
+// =============================================================================
+{  if (level<0 || level>=MipmapBloomFilter.MAX_LEVELS)
+      throw new IllegalArgumentException("level must be 0 to "
+       +(MipmapBloomFilter.MAX_LEVELS-1)+": "+level);
+   if (period<1)
+      throw new IllegalArgumentException("period must be at least 1: "
+       +period);
+   BloomConfig c=copy();
+   c.updatePeriods[level]=period;
+   return c;
+} // ===========================================================================
+
+
+
+/**
+ * @param periods   The update periods of the levels, one per level up to
+ *                  {@link MipmapBloomFilter#MAX_LEVELS}.
+ * @return
+ */
+// =============================================================================
+   BloomConfig withUpdatePeriods(int[] periods)
+// =============================================================================
+{  BloomConfig c=copy();
+   System.arraycopy(periods, 0, c.updatePeriods, 0, c.updatePeriods.length);
+   return c;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public Quality getQuality() {return quality;}
+   public GlowMode getGlowMode() {return glowMode;}
+   public float getExposurePower() {return exposurePower;}
+   public float getExposureCutOff() {return exposureCutOff;}
+   public float getBloomFactor() {return bloomFactor;}
+   public float getBloomPower() {return bloomPower;}
+   public float getDownSamplingCoef() {return downSamplingCoef;}
+   public int getNumLevels() {return numLevels;}
+   public int getAutoLevelSize() {return autoLevelSize;}
+   public float getPruneEpsilon() {return pruneEpsilon;}
+   public float getExpectedLuminance() {return expectedLuminance;}
+   public LevelStorage getLevelStorage() {return levelStorage;}
+   public boolean isFusedExtract() {return fusedExtract;}
+   public boolean isStereo() {return stereo;}
+   public float getFocusWidth() {return focusWidth;}
+   public float getFocusHeight() {return focusHeight;}
+   public int getFocusLevels() {return focusLevels;}
+   public float getRegionX() {return regionX;}
+   public float getRegionY() {return regionY;}
+   public float getRegionWidth() {return regionWidth;}
+   public float getRegionHeight() {return regionHeight;}
+   public GaussianKernel getBlurKernel() {return blurKernel;}
+   public int getUpdatePeriod(int level) {return updatePeriods[level];}
+// =============================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,365 @@
+package mj.jmex.visualfx;
+
+import com.jme3.material.Material;
+import com.jme3.post.Filter;
+import com.jme3.renderer.Renderer;
+import com.jme3.texture.Image.Format;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import mj.jmex.visualfx.MipmapBloomFilter.LevelStorage;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+
+
+
+/**
+ * A bloom chain shared by the filters of several viewports with the same
+ * resolution, e.g. for split-screen, see
+ * {@link MipmapBloomFilter#setBloomContext(BloomContext)}.
+ * <p>
+ * Each filter extracts the bright pixels of its own scene. The level passes
+ * and blur passes are done once for all views: the levels hold the views
+ * side by side, level 0 gathers the extract textures of the views into their
+ * tiles, and all passes clamp their samples into the tile of the pixel, so
+ * the views do not bleed into each other. Each filter composites its own
+ * tile with its own intensity.
+ * <p>
+ * The chain is rendered by the filter of the viewport that is rendered last
+ * in a frame, after its extract pass, which is determined from the frames
+ * before. The viewports rendered before it composite the levels of the
+ * previous frame.
+ * <p>
+ * Up to {@link #MAX_VIEWS} filters can share a chain. They need the same
+ * resolution and the same settings of the chain (quality, downsampling
+ * coefficient, levels and blur kernel), and their own extract pass, i.e.
+ * <code>Quality.High</code> or <code>Quality.Low</code> with separate level
+ * storage, without a fused extract, foveation or region of interest. Other
+ * filters build a chain of their own. Update periods do not apply to the
+ * shared chain, and pruning only applies to the composites.
+ */
+// *****************************************************************************
+   public final class BloomContext
+// *****************************************************************************
+{
+/**
+ * The maximum number of views of a chain, limited by the textures of the
+ * gather pass.
+ */
+   public static final int MAX_VIEWS=4;
+   private static final String[] VIEW_TEXTURES={"Texture", "View2", "View3",
+    "View4"};
+
+   private final ArrayList<MipmapBloomFilter> views=
+    new ArrayList<MipmapBloomFilter>();
+   private BloomConfig config;
+   private int width;
+   private int height;
+   private final RenderTargetPool targetPool=new RenderTargetPool();
+   private final ArrayList<RenderTargetPool.Target> heldTargets=
+    new ArrayList<RenderTargetPool.Target>();
+   private final ArrayList<Filter.Pass> passes=new ArrayList<Filter.Pass>();
+   private Texture2D[] levelTextures=new Texture2D[0];
+   private final float[] halfTexels=new float[MipmapBloomFilter.MAX_LEVELS];
+   private final IdentityHashMap<MipmapBloomFilter, Boolean> begun=
+    new IdentityHashMap<MipmapBloomFilter, Boolean>();
+   private MipmapBloomFilter last;
+   private MipmapBloomFilter runner;
+
+
+
+/**
+ * Tells if a filter with some settings can share a chain.
+ * @param config
+ * @return
+ */
+// =============================================================================
+   public static boolean isShareable(BloomConfig config)
+// =============================================================================
+{
+   return config.getQuality()!=Quality.Progressive
+    && config.getLevelStorage()==LevelStorage.Separate
+    && !config.isFusedExtract() && !config.isStereo()
+    && config.getFocusLevels()==0 && !config.hasRegionOfInterest();
+} // isShareable ===============================================================
+
+
+
+/**
+ * Tells if a filter can join the chain.
+ */
+// =============================================================================
+   boolean accepts(MipmapBloomFilter filter, int w, int h)
+// =============================================================================
+{
+   BloomConfig c=filter.getConfig();
+   if (!isShareable(c) || views.contains(filter))
+      return false;
+   if (views.isEmpty())
+      return true;
+   return views.size()<MAX_VIEWS && w==width && h==height
+    && c.getQuality()==config.getQuality()
+    && c.getDownSamplingCoef()==config.getDownSamplingCoef()
+    && c.getNumLevels()==config.getNumLevels()
+    && c.getAutoLevelSize()==config.getAutoLevelSize()
+    && (c.getBlurKernel()==null? config.getBlurKernel()==null
+     :c.getBlurKernel().equals(config.getBlurKernel()));
+} // accepts ===================================================================
+
+
+
+/**
+ * Adds the extract pass of a filter to the chain, which is rebuilt for the
+ * new number of views.
+ *
+ * @param filter  A filter that is accepted, see
+ *                {@link #accepts(MipmapBloomFilter, int, int)}.
+ * @param w       The resolution of the view.
+ * @param h
+ * @param r       The renderer, to delete targets that are no longer used, or
+ *                <code>null</code>.
+ */
+// =============================================================================
+   void join(MipmapBloomFilter filter, int w, int h, Renderer r)
+// =============================================================================
+{
+   if (views.isEmpty())
+   {  config=filter.getConfig();
+      width=w;
+      height=h;
+   }
+   views.add(filter);
+   rebuild(r);
+} // join ======================================================================
+
+
+
+/**
+ * Removes a filter from the chain, which is rebuilt for the remaining views,
+ * or released if there are none. Without a renderer the targets of a
+ * released chain stay in the pool, until the next join with a renderer or
+ * {@link #dispose(Renderer)} deletes them.
+ *
+ * @param filter
+ * @param r       The renderer, to delete targets that are no longer used, or
+ *                <code>null</code>.
+ */
+// =============================================================================
+   void leave(MipmapBloomFilter filter, Renderer r)
+// =============================================================================
+{
+   if (!views.remove(filter))
+      return;
+   begun.remove(filter);
+   if (runner==filter)
+      runner=null;
+   if (last==filter)
+      last=null;
+   if (!views.isEmpty())
+   {  rebuild(r);
+      return;
+   }
+
+   releaseTargets();
+   passes.clear();
+   levelTextures=new Texture2D[0];
+   config=null;
+   if (r!=null)
+      targetPool.dispose(r);
+} // leave =====================================================================
+
+
+
+/**
+ * Deletes the render targets that a chain without views has left in its
+ * pool, e.g. after its last filter left it without a renderer.
+ *
+ * @param r  The renderer that owns the targets.
+ */
+// =============================================================================
+   public void dispose(Renderer r)
+// =============================================================================
+{
+   if (!views.isEmpty())
+      throw new IllegalStateException("The chain still has "+views.size()
+       +" views.");
+   targetPool.dispose(r);
+} // dispose ===================================================================
+
+
+
+/**
+ * Called by each filter at the start of its frame.
+ *
+ * @param filter
+ * @return  <code>true</code> if the filter renders the chain in this frame,
+ *          i.e. it was the last one in the previous frame.
+ */
+// =============================================================================
+   boolean begin(MipmapBloomFilter filter)
+// =============================================================================
+{
+// A filter that begins a second time starts the next frame.
+   if (begun.containsKey(filter))
+   {  runner=last;
+      begun.clear();
+   }
+   begun.put(filter, Boolean.TRUE);
+   last=filter;
+   return filter==runner;
+} // begin =====================================================================
+
+
+
+/**
+ * Builds the passes for the current views, and binds the levels to their
+ * filters.
+ */
+// =============================================================================
+   private void rebuild(Renderer r)
+// =============================================================================
+{
+   releaseTargets();
+   passes.clear();
+   int n=views.size();
+   MipmapBloomFilter owner=views.get(0);
+   Quality quality=config.getQuality();
+   float coef=config.getDownSamplingCoef();
+   GaussianKernel kernel=config.getBlurKernel();
+   int count=MipmapBloomFilter.levelCount(width, height, coef,
+    config.getNumLevels(), config.getAutoLevelSize());
+   levelTextures=new Texture2D[count];
+
+   Texture2D previous=null;
+   for (int ii=0; ii<count; ii++)
+   {  int w=MipmapBloomFilter.levelSize(width, coef, ii);
+      int h=MipmapBloomFilter.levelSize(height, coef, ii);
+      Material mat=owner.createMaterial(
+       "MatDefs/MipmapBloom/MipmapSampler.j3md");
+
+//    Level 0 samples the views at their own resolution, all other levels
+//    the tiles of the previous level.
+      if (ii==0)
+      {  mat.setInt("Views", n);
+         for (int jj=0; jj<n; jj++)
+            mat.setTexture(VIEW_TEXTURES[jj],
+             views.get(jj).getExtractTexture());
+         if (quality==Quality.High)
+         {  mat.setFloat("Dx", 0.5f/w);
+            mat.setFloat("Dy", 0.5f/h);
+         }
+      }
+      else
+      {  mat.setTexture("Texture", previous);
+         if (n>1)
+            MipmapBloomFilter.setTiles(mat, n, previous.getImage().getWidth());
+         if (quality==Quality.High)
+         {  mat.setFloat("Dx", 0.5f/(n*w));
+            mat.setFloat("Dy", 0.5f/h);
+         }
+      }
+      Filter.Pass level=pass(owner, n*w, h, mat);
+      previous=level.getRenderedTexture();
+      levelTextures[ii]=previous;
+
+      if (quality==Quality.High && ii>=3)
+      {  Material hBlurMat=owner.createMaterial(
+          "MatDefs/MipmapBloom/HGaussianBlur.j3md");
+         MipmapBloomFilter.setBlurTaps(hBlurMat, kernel);
+         hBlurMat.setTexture("Texture", previous);
+         hBlurMat.setFloat("Size", n*w);
+         hBlurMat.setFloat("Scale", MipmapBloomFilter.blurScale(kernel));
+         if (n>1)
+            MipmapBloomFilter.setTiles(hBlurMat, n, n*w);
+         Filter.Pass hBlur=pass(owner, n*w, h, hBlurMat);
+
+         Material vBlurMat=owner.createMaterial(
+          "MatDefs/MipmapBloom/VGaussianBlur.j3md");
+         MipmapBloomFilter.setBlurTaps(vBlurMat, kernel);
+         vBlurMat.setTexture("Texture", hBlur.getRenderedTexture());
+         vBlurMat.setFloat("Size", h);
+         vBlurMat.setFloat("Scale", MipmapBloomFilter.blurScale(kernel));
+         levelTextures[ii]=pass(owner, n*w, h, vBlurMat).getRenderedTexture();
+      }
+      halfTexels[ii]=0.5f/(n*w);
+   }
+   if (r!=null)
+      targetPool.trim(r);
+
+   for (int ii=0; ii<n; ii++)
+      views.get(ii).bindContext(levelTextures, ii, n, halfTexels);
+} // rebuild ===================================================================
+
+
+
+/**
+ * Makes a pass of the chain with a render target of the pool.
+ */
+// =============================================================================
+   private Filter.Pass pass(MipmapBloomFilter owner, int w, int h,
+    Material mat)
+// =============================================================================
+{
+   RenderTargetPool.Target target=targetPool.acquire(w, h,
+    owner.getTextureFormat(), Format.Depth);
+   heldTargets.add(target);
+   Filter.Pass pass=owner.new PooledPass();
+   pass.setRenderFrameBuffer(target.getFrameBuffer());
+   pass.setRenderedTexture(target.getTexture());
+   pass.setPassMaterial(mat);
+   pass.getRenderedTexture().setMagFilter(Texture.MagFilter.Bilinear);
+   passes.add(pass);
+   return pass;
+} // pass ======================================================================
+
+
+
+// =============================================================================
+   private void releaseTargets()
+// =============================================================================
+{
+   for (int ii=0; ii<heldTargets.size(); ii++)
+      targetPool.release(heldTargets.get(ii));
+   heldTargets.clear();
+} // ===========================================================================
+
+
+
+/**
+ * @return  The passes of the chain in render order.
+ */
+// =============================================================================
+   List<Filter.Pass> getPasses() {return passes;}
+// =============================================================================
+
+
+
+/**
+ * @return  The filters that share the chain, in the order of their tiles.
+ */
+// =============================================================================
+   public List<MipmapBloomFilter> getViews()
+    {return Collections.unmodifiableList(views);}
+// =============================================================================
+
+
+
+/**
+ * @return  The number of passes of the chain.
+ */
+// =============================================================================
+   public int getPassCount() {return passes.size();}
+// =============================================================================
+
+
+
+/**
+ * @return  The pool of the render targets of the chain.
+ */
+// =============================================================================
+   public RenderTargetPool getRenderTargetPool() {return targetPool;}
+// =============================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,474 @@
+package mj.jmex.visualfx;
+
+import com.jme3.texture.Image.Format;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import mj.jmex.visualfx.MipmapBloomFilter.GlowMode;
+import mj.jmex.visualfx.MipmapBloomFilter.LevelStorage;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+
+
+
+/**
+ * An analytic cost model of the pass graph a {@link MipmapBloomFilter} builds
+ * for a configuration and resolution, with all levels active.
+ * <p>
+ * The model lists the passes in render order with their sizes and texture
+ * fetches per pixel (the texture lookups of the shaders, like
+ * {@link CpuBloomEngine#getFetchCount()} counts them), plus the mipmap
+ * generation the renderer does for the targets with a trilinear min filter.
+ * From these it sums up per frame:
+ * <ul>
+ * <li>the pixels shaded,</li>
+ * <li>the texture fetches,</li>
+ * <li>the bytes read, counting one texel of the texture format per fetch
+ * (texture caches and the filter footprint are not modelled),</li>
+ * <li>the bytes written to the color targets,</li>
+ * </ul>
+ * and the video memory of the render targets, with their depth buffers and
+ * mipmaps. The scene and glow textures are assumed to have the texture format
+ * of the filter. The pre-glow pass renders the glowing geometry; its shading
+ * cost depends on the scene and is only counted as pixels written.
+ * <p>
+ * The totals are the cost of a frame that updates all levels. Levels with an
+ * update period above 1 (see {@link MipmapBloomFilter#setUpdatePeriod(int,
+ * int)}) are rendered only every few frames; the averages, e.g.
+ * {@link #getAverageFetches()}, divide the cost of their passes by the period.
+ * <p>
+ * In foveated mode (see {@link MipmapBloomFilter#setFoveation(float, float,
+ * int)}) the extract and the focus levels have the size of the focus
+ * rectangle, with a region of interest (see
+ * {@link MipmapBloomFilter#setRegionOfInterest(float, float, float, float)})
+ * all passes have the size of the padded region, and the accumulation
+ * samples the levels only inside the region. {@link #getPixelsSaved()}
+ * compares the pixels shaded with the ones of the same settings without
+ * foveation and region.
+ */
+// *****************************************************************************
+   public final class BloomCostModel
+// *****************************************************************************
+{
+   private final List<PassCost> passes=new ArrayList<PassCost>();
+   private final int bytesPerTexel;
+   private final BloomConfig config;
+   private long pixelsShaded;
+   private long fetches;
+   private long bytesRead;
+   private long bytesWritten;
+   private long targetBytes;
+   private long mipmapBytes;
+   private long pixelsSaved;
+   private double averagePixels;
+   private double averageFetches;
+   private double averageBytesRead;
+   private double averageBytesWritten;
+
+
+
+/**
+ * The kind of a pass of the model.
+ */
+// =============================================================================
+   public enum Kind
+// =============================================================================
+{  PreGlow, Extract, Mipmaps, Level, HorizontalBlur, VerticalBlur, Upsample,
+   Accumulation,
+
+   /**
+    * The extract of the whole screen at the size of level 1 in foveated mode,
+    * or of level 0 with a single focus level. Its level is the first one
+    * outside the focus, which reads it.
+    */
+   Periphery;
+} // Kind ======================================================================
+
+
+
+/**
+ * The cost of a single pass.
+ */
+// =============================================================================
+   public static final class PassCost
+// =============================================================================
+{
+   private final Kind kind;
+   private final int level;
+   private final int width;
+   private final int height;
+   private final long pixels;
+   private final int fetchesPerPixel;
+   private final long bytesRead;
+   private final long bytesWritten;
+   private final int updatePeriod;
+
+   private PassCost(Kind kind, int level, int width, int height, long pixels,
+    int fetchesPerPixel, int bytesPerTexel, int updatePeriod)
+   {  this.kind=kind;
+      this.level=level;
+      this.width=width;
+      this.height=height;
+      this.pixels=pixels;
+      this.fetchesPerPixel=fetchesPerPixel;
+      this.bytesRead=pixels*fetchesPerPixel*bytesPerTexel;
+      this.bytesWritten=pixels*bytesPerTexel;
+      this.updatePeriod=updatePeriod;
+   }
+
+   public Kind getKind() {return kind;}
+
+   /**
+    * @return  The level of the pass, or -1 for passes that have none.
+    */
+   public int getLevel() {return level;}
+   public int getWidth() {return width;}
+   public int getHeight() {return height;}
+
+   /**
+    * @return  The pixels shaded, which is the sum over all mipmaps for
+    *          <code>Kind.Mipmaps</code>.
+    */
+   public long getPixels() {return pixels;}
+   public int getFetchesPerPixel() {return fetchesPerPixel;}
+   public long getFetches() {return pixels*fetchesPerPixel;}
+   public long getBytesRead() {return bytesRead;}
+   public long getBytesWritten() {return bytesWritten;}
+
+   /**
+    * @return  The number of frames between two renders of the pass.
+    */
+   public int getUpdatePeriod() {return updatePeriod;}
+
+   @Override
+   public String toString()
+   {  return kind+(level>=0? " "+level:"")+" "+width+"x"+height+", "
+       +fetchesPerPixel+" fetches/pixel";
+   }
+} // PassCost ==================================================================
+
+
+
+/**
+ * Builds the model.
+ *
+ * @param config     The settings of the filter.
+ * @param width      The width of the framebuffer.
+ * @param height     The height of the framebuffer.
+ * @param texFormat  The format of the render targets.
+ */
+// =============================================================================
+   public BloomCostModel(BloomConfig config, int width, int height,
+    Format texFormat)
+// =============================================================================
+{
+   this.config=config;
+   bytesPerTexel=texFormat.getBitsPerPixel()/8;
+   Quality quality=config.getQuality();
+   float coef=config.getDownSamplingCoef();
+   boolean fused=config.isFusedExtract();
+   boolean progressive=quality==Quality.Progressive;
+   boolean stereo=config.isStereo();
+   boolean chain=!progressive && !stereo
+    && config.getLevelStorage()==LevelStorage.MipChain;
+   boolean mipmapped=!progressive && !stereo;
+   int count=MipmapBloomFilter.levelCount(stereo? width/2:width, height, coef,
+    config.getNumLevels(), config.getAutoLevelSize());
+   boolean region=!progressive && !stereo && !chain
+    && config.hasRegionOfInterest();
+   int[] columns=null;
+   int[] rows=null;
+   if (region)
+   {  int blurFrom=quality==Quality.High? 3:MipmapBloomFilter.MAX_LEVELS;
+      int reach=MipmapBloomFilter.blurReach(config.getBlurKernel());
+      columns=MipmapBloomFilter.regionSpans(width, coef, count,
+       config.getRegionX(), config.getRegionWidth(), blurFrom, reach);
+      rows=MipmapBloomFilter.regionSpans(height, coef, count,
+       config.getRegionY(), config.getRegionHeight(), blurFrom, reach);
+   }
+   int focus=!progressive && !stereo && !chain && !region
+    ? Math.min(config.getFocusLevels(), count-1):0;
+   float focusWidth=config.getFocusWidth();
+   float focusHeight=config.getFocusHeight();
+   int glow=config.getGlowMode()!=GlowMode.Scene? 1:0;
+   int extract=config.getGlowMode()!=GlowMode.Objects? 1:0;
+   GaussianKernel kernel=config.getBlurKernel();
+   int blurFetches=kernel!=null? 2*kernel.getTapCount()-1:9;
+
+   if (glow>0)
+   {  target(MipmapBloomFilter.levelSize(width, coef, 0),
+       MipmapBloomFilter.levelSize(height, coef, 0), texFormat, false);
+      add(Kind.PreGlow, -1, MipmapBloomFilter.levelSize(width, coef, 0),
+       MipmapBloomFilter.levelSize(height, coef, 0), 0);
+   }
+   if (!fused)
+   {  int w=region? columns[1]:focus>0
+       ? MipmapBloomFilter.focusSize(width, focusWidth):width;
+      int h=region? rows[1]:focus>0
+       ? MipmapBloomFilter.focusSize(height, focusHeight):height;
+      target(w, h, texFormat, mipmapped);
+      add(Kind.Extract, -1, w, h, extract+glow);
+      if (mipmapped)
+         addMipmaps(-1, w, h);
+   }
+
+   for (int ii=0; ii<count; ii++)
+   {  int w=MipmapBloomFilter.levelWidth(width, coef, ii, stereo);
+      int h=MipmapBloomFilter.levelSize(height, coef, ii);
+      if (region)
+      {  w=columns[2*ii+3];
+         h=rows[2*ii+3];
+      }
+      else if (ii<focus)
+      {  w=MipmapBloomFilter.focusSize(w, focusWidth);
+         h=MipmapBloomFilter.focusSize(h, focusHeight);
+      }
+      else if (ii==focus && focus>0)
+      {  int level=Math.min(1, focus-1);
+         int pw=MipmapBloomFilter.levelSize(width, coef, level);
+         int ph=MipmapBloomFilter.levelSize(height, coef, level);
+         target(pw, ph, texFormat, true);
+         add(Kind.Periphery, ii, pw, ph, (level>0? 4:1)*extract+glow);
+         addMipmaps(ii, pw, ph);
+      }
+      int taps=progressive? 13:quality==Quality.High? 4:1;
+      boolean first=fused && ii==0;
+      if (first)                       // Taps of the scene, without glow.
+         taps*=extract;
+
+      if (progressive)
+      {  target(w, h, texFormat, false);
+         add(Kind.Level, ii, w, h, taps+(first? glow:0));
+      }
+      else if (!chain || first)
+      {  target(w, h, texFormat, mipmapped);
+         add(Kind.Level, ii, w, h, taps+(first? glow:0));
+         if (mipmapped)
+            addMipmaps(ii, w, h);
+      }
+      if (quality==Quality.High && ii>=3)
+      {  target(w, h, texFormat, false);
+         add(Kind.HorizontalBlur, ii, w, h, blurFetches);
+         target(w, h, texFormat, false);
+         add(Kind.VerticalBlur, ii, w, h, blurFetches);
+      }
+   }
+
+   if (progressive)
+      for (int ii=count-2; ii>=0; ii--)
+      {  int w=MipmapBloomFilter.levelWidth(width, coef, ii, stereo);
+         int h=MipmapBloomFilter.levelSize(height, coef, ii);
+         target(w, h, texFormat, false);
+         add(Kind.Upsample, ii, w, h, 10);
+      }
+   if (region)
+   {
+//    The levels are sampled inside the region, the pixels outside only copy
+//    the scene.
+      int w=(int)Math.ceil((config.getRegionX()+config.getRegionWidth())*width)
+       -(int)(config.getRegionX()*width);
+      int h=(int)Math.ceil((config.getRegionY()+config.getRegionHeight())
+       *height)-(int)(config.getRegionY()*height);
+      add(Kind.Accumulation, -1, w, h, 1+count);
+      addPass(new PassCost(Kind.Accumulation, -1, width, height,
+       (long)width*height-(long)w*h, 1, bytesPerTexel, 1));
+   }
+   else
+      add(Kind.Accumulation, -1, width, height, progressive? 2:1+count);
+
+   if (focus>0 || region)
+      pixelsSaved=new BloomCostModel(config.withFoveation(1.0f, 1.0f, 0)
+       .withRegionOfInterest(0.0f, 0.0f, 1.0f, 1.0f), width, height,
+       texFormat).pixelsShaded-pixelsShaded;
+} // BloomCostModel ============================================================
+
+
+
+/**
+ * Builds the model of the current settings of a filter.
+ *
+ * @param filter
+ * @param width      The width of the framebuffer.
+ * @param height     The height of the framebuffer.
+ * @return
+ */
+// =============================================================================
+   public static BloomCostModel of(MipmapBloomFilter filter, int width,
+    int height)
+// =============================================================================
+{  return new BloomCostModel(filter.getConfig(), width, height,
+    filter.getTextureFormat());
+} // ===========================================================================
+
+
+
+// =============================================================================
+   private void add(Kind kind, int level, int w, int h, int fetchesPerPixel)
+// =============================================================================
+{
+   PassCost pass=new PassCost(kind, level, w, h, (long)w*h, fetchesPerPixel,
+    bytesPerTexel, period(level));
+   addPass(pass);
+} // ===========================================================================
+
+
+
+/**
+ * Adds the mipmap generation of a target, a 2x2 box filter per mipmap pixel.
+ */
+// =============================================================================
+   private void addMipmaps(int level, int w, int h)
+// =============================================================================
+{
+   long pixels=mipmapPixels(w, h);
+   if (pixels>0)
+      addPass(new PassCost(Kind.Mipmaps, level, w, h, pixels, 4,
+       bytesPerTexel, period(level)));
+} // addMipmaps ================================================================
+
+
+
+// =============================================================================
+   private void addPass(PassCost pass)
+// =============================================================================
+{
+   passes.add(pass);
+   pixelsShaded+=pass.pixels;
+   fetches+=pass.getFetches();
+   bytesRead+=pass.bytesRead;
+   bytesWritten+=pass.bytesWritten;
+   averagePixels+=(double)pass.pixels/pass.updatePeriod;
+   averageFetches+=(double)pass.getFetches()/pass.updatePeriod;
+   averageBytesRead+=(double)pass.bytesRead/pass.updatePeriod;
+   averageBytesWritten+=(double)pass.bytesWritten/pass.updatePeriod;
+} // ===========================================================================
+
+
+
+/**
+ * @return  The update period of a level, 1 for the passes of no level.
+ */
+// =============================================================================
+   private int period(int level)
+// =============================================================================
+{  return level>=0? config.getUpdatePeriod(level):1;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   private void target(int w, int h, Format texFormat, boolean mipmapped)
+// =============================================================================
+{
+   targetBytes+=RenderTargetPool.bytesOf(w, h, texFormat, Format.Depth);
+   if (mipmapped)
+      mipmapBytes+=mipmapPixels(w, h)*bytesPerTexel;
+} // ===========================================================================
+
+
+
+/**
+ * @return  The pixels of all mipmaps below the base level.
+ */
+// =============================================================================
+   static long mipmapPixels(int w, int h)
+// =============================================================================
+{
+   long pixels=0;
+   while (w>1 || h>1)
+   {  w=Math.max(1, w/2);
+      h=Math.max(1, h/2);
+      pixels+=(long)w*h;
+   }
+   return pixels;
+} // mipmapPixels ==============================================================
+
+
+
+/**
+ * @return  The passes in render order.
+ */
+// =============================================================================
+   public List<PassCost> getPasses()
+    {return Collections.unmodifiableList(passes);}
+// =============================================================================
+
+
+
+/**
+ * @return  The number of passes with a render target of their own, i.e. all
+ *          passes except the mipmap generation and the accumulation.
+ */
+// =============================================================================
+   public int getTargetCount()
+// =============================================================================
+{
+   int count=0;
+   for (int ii=0; ii<passes.size(); ii++)
+   {  Kind kind=passes.get(ii).kind;
+      if (kind!=Kind.Mipmaps && kind!=Kind.Accumulation)
+         count++;
+   }
+   return count;
+} // getTargetCount ============================================================
+
+
+
+// =============================================================================
+   public long getPixelsShaded() {return pixelsShaded;}
+   public long getFetches() {return fetches;}
+   public long getBytesRead() {return bytesRead;}
+   public long getBytesWritten() {return bytesWritten;}
+// =============================================================================
+
+
+
+/**
+ * The averages per frame over the update periods of the levels. Without
+ * periods above 1 they equal the totals.
+ */
+// =============================================================================
+   public double getAveragePixelsShaded() {return averagePixels;}
+   public double getAverageFetches() {return averageFetches;}
+   public double getAverageBytesRead() {return averageBytesRead;}
+   public double getAverageBytesWritten() {return averageBytesWritten;}
+// =============================================================================
+
+
+
+/**
+ * @return  The pixels shaded per frame less than without foveation and
+ *          region of interest, 0 if the settings have neither.
+ */
+// =============================================================================
+   public long getPixelsSaved() {return pixelsSaved;}
+// =============================================================================
+
+
+
+/**
+ * @return  The bytes of the render targets (color and depth), as the
+ *          {@link RenderTargetPool} of the filter counts them.
+ */
+// =============================================================================
+   public long getTargetBytes() {return targetBytes;}
+// =============================================================================
+
+
+
+/**
+ * @return  The bytes of the mipmaps the renderer generates for the targets.
+ */
+// =============================================================================
+   public long getMipmapBytes() {return mipmapBytes;}
+// =============================================================================
+
+
+
+/**
+ * @return  The video memory resident for the filter: targets and mipmaps.
+ */
+// =============================================================================
+   public long getResidentBytes() {return targetBytes+mipmapBytes;}
+// =============================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,316 @@
+package mj.jmex.visualfx;
+
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+
+
+
+/**
+ * Adapts the settings of a {@link MipmapBloomFilter} to a frame time budget.
+ * <p>
+ * The governor steps through a ladder of configurations, ordered from the
+ * cheapest to the most expensive one. Only the settings that change the cost
+ * of the filter are taken from the ladder: quality (which includes the blur
+ * passes), downsampling coefficient, level count, fused extract (the extract
+ * resolution) and blur kernel. All other settings of the filter are kept.
+ * <p>
+ * {@link #update()} has to be called once per frame, e.g. from the update
+ * loop of the application. It measures the frame time with a {@link Clock},
+ * which can be replaced by a synthetic one, and smooths it with an
+ * exponential moving average. To avoid oscillation:
+ * <ul>
+ * <li>the governor steps down only if the smoothed frame time exceeds the
+ * budget by the down margin for <code>downFrames</code> frames in a row, and
+ * steps up only if it stays below the budget by the up margin for the longer
+ * <code>upFrames</code>,</li>
+ * <li>after each step the frame times are ignored for
+ * <code>cooldownFrames</code> frames, which also skips the hitch of the
+ * rebuild,</li>
+ * <li>a step up that is followed by a step down soon after the cooldown
+ * doubles the time the governor waits before the next step up, until a step
+ * up holds for <code>upFrames</code> frames.</li>
+ * </ul>
+ */
+// *****************************************************************************
+   public class BloomGovernor
+// *****************************************************************************
+{
+   private final MipmapBloomFilter filter;
+   private final BloomConfig[] ladder;
+   private Clock clock=Clock.SYSTEM;
+   private long budgetNanos;
+   private float downMargin=0.1f;
+   private float upMargin=0.25f;
+   private int downFrames=30;
+   private int upFrames=180;
+   private int cooldownFrames=30;
+   private float smoothing=0.1f;
+
+   private int rung;
+   private long lastTime=-1;
+   private float smoothed=-1.0f;
+   private int overBudget;
+   private int underBudget;
+   private int cooldown;
+   private int upBackoff=1;
+   private int sinceStepUp=-1;
+
+
+
+/**
+ * A source of time stamps.
+ */
+// =============================================================================
+   public interface Clock
+// =============================================================================
+{
+/**
+ * The clock of the system.
+ */
+   Clock SYSTEM=new Clock()
+   {  @Override
+      public long nanoTime() {return System.nanoTime();}
+   };
+
+/**
+ * @return  The current time in nanoseconds, from an arbitrary origin.
+ */
+   long nanoTime();
+} // Clock =====================================================================
+
+
+
+/**
+ * Instantiates a governor, which applies the most expensive configuration of
+ * the ladder first.
+ *
+ * @param filter        The governed filter.
+ * @param ladder        Configurations from the cheapest to the most
+ *                      expensive one, see {@link #defaultLadder()}.
+ * @param budgetMillis  The target frame time in milliseconds.
+ */
+// =============================================================================
+   public BloomGovernor(MipmapBloomFilter filter, BloomConfig[] ladder,
+    float budgetMillis)
+// =============================================================================
+{
+   if (ladder.length==0)
+      throw new IllegalArgumentException("The ladder is empty.");
+   this.filter=filter;
+   this.ladder=ladder.clone();
+   this.budgetNanos=(long)(budgetMillis*1000000.0f);
+   setRung(ladder.length-1);
+} // BloomGovernor =============================================================
+
+
+
+/**
+ * Provides the default ladder:
+ * <ol>
+ * <li><code>Quality.Low</code>, fused extract, 5 levels,</li>
+ * <li><code>Quality.Low</code>, fused extract, 6 levels,</li>
+ * <li><code>Quality.Low</code>, 8 levels,</li>
+ * <li><code>Quality.High</code> with the blur of the levels 3 and up,
+ * 8 levels.</li>
+ * </ol>
+ * @return  A new ladder.
+ */
+// =============================================================================
+   public static BloomConfig[] defaultLadder()
+// =============================================================================
+{
+   BloomConfig low=BloomConfig.DEFAULT.withQuality(Quality.Low);
+   return new BloomConfig[]
+   {  low.withFusedExtract(true).withNumLevels(5),
+      low.withFusedExtract(true).withNumLevels(6),
+      low.withNumLevels(8),
+      BloomConfig.DEFAULT.withQuality(Quality.High).withNumLevels(8)
+   };
+} // defaultLadder =============================================================
+
+
+
+/**
+ * Measures the time since the last call and adapts the filter to it. Has to
+ * be called once per frame.
+ */
+// =============================================================================
+   public void update()
+// =============================================================================
+{
+   long now=clock.nanoTime();
+   if (lastTime>=0)
+      sample(now-lastTime);
+   lastTime=now;
+} // update ====================================================================
+
+
+
+/**
+ * Adapts the filter to the time of a frame, for callers that measure the
+ * frame time themselves.
+ *
+ * @param frameNanos  The time of the last frame in nanoseconds.
+ */
+// =============================================================================
+   public void sample(long frameNanos)
+// =============================================================================
+{
+   if (cooldown>0)
+   {  cooldown--;
+      return;
+   }
+   smoothed=smoothed<0.0f? frameNanos
+    :smoothed+smoothing*(frameNanos-smoothed);
+   if (sinceStepUp>=0 && ++sinceStepUp>upFrames)
+   {  upBackoff=1;                      // The last step up has held.
+      sinceStepUp=-1;
+   }
+
+   if (smoothed>budgetNanos*(1.0f+downMargin))
+   {  overBudget++;
+      underBudget=0;
+   }
+   else if (smoothed<budgetNanos*(1.0f-upMargin))
+   {  underBudget++;
+      overBudget=0;
+   }
+   else
+   {  overBudget=0;
+      underBudget=0;
+   }
+
+   if (overBudget>=downFrames && rung>0)
+   {
+//    A step up that did not fit the budget is tried less often.
+      if (sinceStepUp>=0 && sinceStepUp<=2*downFrames)
+         upBackoff=Math.min(upBackoff*2, 64);
+      step(rung-1);
+      sinceStepUp=-1;
+   }
+   else if (underBudget>=upFrames*upBackoff && rung<ladder.length-1)
+   {  step(rung+1);
+      sinceStepUp=0;
+   }
+} // sample ====================================================================
+
+
+
+// =============================================================================
+   private void step(int newRung)
+// =============================================================================
+{
+   setRung(newRung);
+   overBudget=0;
+   underBudget=0;
+   cooldown=cooldownFrames;
+   smoothed=-1.0f;
+} // step ======================================================================
+
+
+
+/**
+ * Applies a configuration of the ladder to the filter.
+ * @param rung  0 (the cheapest) to <code>getRungCount()-1</code>.
+ */
+// =============================================================================
+   public void setRung(int rung)
+// =============================================================================
+{
+   BloomConfig r=ladder[rung];
+   BloomConfig config=filter.getConfig()
+    .withQuality(r.getQuality())
+    .withDownSamplingCoef(r.getDownSamplingCoef())
+    .withNumLevels(r.getNumLevels())
+    .withAutoLevels(r.getAutoLevelSize())
+    .withFusedExtract(r.isFusedExtract())
+    .withBlurKernel(r.getBlurKernel());
+   filter.apply(config);
+   this.rung=rung;
+} // setRung ===================================================================
+
+
+
+/**
+ * @return  The index of the current configuration of the ladder.
+ */
+// =============================================================================
+   public int getRung() {return rung;}
+// =============================================================================
+
+
+
+// =============================================================================
+   public int getRungCount() {return ladder.length;}
+// =============================================================================
+
+
+
+/**
+ * @return  The smoothed frame time in milliseconds, or a negative value if
+ *          there is no sample since the last step.
+ */
+// =============================================================================
+   public float getSmoothedMillis()
+// =============================================================================
+{  return smoothed<0.0f? -1.0f:smoothed/1000000.0f;
+} // ===========================================================================
+
+
+
+/**
+ * Replaces the clock, e.g. by a synthetic frame time source.
+ * @param clock
+ */
+// =============================================================================
+   public void setClock(Clock clock)
+// =============================================================================
+{  this.clock=clock;
+   lastTime=-1;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   public void setBudgetMillis(float budgetMillis)
+// =============================================================================
+{  this.budgetNanos=(long)(budgetMillis*1000000.0f);
+} // ===========================================================================
+
+
+
+/**
+ * Sets the hysteresis of the governor.
+ *
+ * @param downMargin      Fraction of the budget the frame time has to exceed
+ *                        to step down (default 0.1).
+ * @param upMargin        Fraction of the budget the frame time has to stay
+ *                        below to step up (default 0.25).
+ * @param downFrames      Frames over budget before stepping down (default 30).
+ * @param upFrames        Frames under budget before stepping up (default 180).
+ * @param cooldownFrames  Frames ignored after a step (default 30).
+ */
+// =============================================================================
+   public void setHysteresis(float downMargin, float upMargin, int downFrames,
+    int upFrames, int cooldownFrames)
+// =============================================================================
+{
+   this.downMargin=downMargin;
+   this.upMargin=upMargin;
+   this.downFrames=Math.max(1, downFrames);
+   this.upFrames=Math.max(1, upFrames);
+   this.cooldownFrames=Math.max(0, cooldownFrames);
+} // setHysteresis =============================================================
+
+
+
+/**
+ * @param smoothing  The weight of a new frame time in the moving average,
+ *                   0 to 1 (default 0.1).
+ */
+// =============================================================================
+   public void setSmoothing(float smoothing)
+// =============================================================================
+{  this.smoothing=Math.max(0.0f, Math.min(1.0f, smoothing));
+} // ===========================================================================
+
+} // ***************************************************************************
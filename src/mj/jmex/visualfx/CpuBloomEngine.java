@@ -0,0 +1,1336 @@
+package mj.jmex.visualfx;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import mj.jmex.visualfx.MipmapBloomFilter.GlowMode;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+
+
+
+/**
+ * A CPU implementation of the {@link MipmapBloomFilter} pipeline, working on
+ * float RGB buffers (three floats per pixel, row by row).
+ * <p>
+ * The engine mirrors the passes of the GPU filter:
+ * <ul>
+ * <li>the BloomExtract pass, thresholding with <code>exposureCutOff</code> and
+ * raising to <code>exposurePower</code>, optionally adding a glow map,</li>
+ * <li>the mipmap levels, each sized by <code>downSamplingCoef</code> and
+ * sampled like <code>MipmapSampler.frag</code> (4 taps in
+ * <code>Quality.High</code>, 1 tap in <code>Quality.Low</code>),</li>
+ * <li>the 9-tap horizontal and vertical Gaussian blur of the levels 3 and up
+ * in <code>Quality.High</code>,</li>
+ * <li>the weighted sum of <code>Accumulation.frag</code>.</li>
+ * </ul>
+ * In <code>Quality.Progressive</code> the levels are downsampled like
+ * <code>DualDownsample.frag</code> instead, then upsampled and summed from the
+ * smallest level up like <code>DualUpsample.frag</code>, and the accumulation
+ * reads the single upsampled level 0.
+ * <p>
+ * With a fused extract the first level reads the scene and extracts each tap
+ * itself, like the first level pass of the filter does, and there is no
+ * extract surface.
+ * <p>
+ * In stereo mode the buffers hold two eyes side by side. Like the shaders,
+ * every pass clamps its samples into the eye of the pixel and the surfaces
+ * have no mipmaps, so no bloom crosses the seam between the eyes.
+ * <p>
+ * Levels with an update period above 1 are scheduled by {@link #render} like
+ * the filter schedules them, so consecutive renders show the error of the
+ * reused levels.
+ * <p>
+ * The engine counts the texture fetches the shaders of the GPU filter would
+ * make for the last render (see {@link #getFetchCount()}), so the cost of the
+ * quality modes can be compared along with their output.
+ * Textures are sampled like OpenGL does with edge clamping: magnification is
+ * bilinear, and minification of textures with a trilinear min filter uses a
+ * box filtered mipmap pyramid, just like the one the renderer generates for
+ * the render targets of the filter.
+ * <p>
+ * Rows are processed in parallel tiles on a fork/join pool. All buffers and
+ * tasks are kept between calls, so {@link #render} does not allocate once the
+ * resolution and the level layout have been used before.
+ * An engine instance must not be used by more than one thread at a time.
+ */
+// *****************************************************************************
+   public class CpuBloomEngine
+// *****************************************************************************
+{
+   private static final float[] BLUR_WEIGHTS=
+    {0.16f, 0.15f, 0.12f, 0.09f, 0.06f};
+   private static final float BLUR_SCALE=0.666666f;
+   private static final int MIN_TILE_ROWS=8;
+
+   private Quality quality=Quality.High;
+   private GlowMode glowMode=GlowMode.Scene;
+   private float exposurePower=3.0f;
+   private float exposureCutOff=0.0f;
+   private float bloomFactor=1.5f;
+   private float bloomPower=1.5f;
+   private float downSamplingCoef=2.0f;
+   private int numLevels=8;
+   private int autoLevelSize=0;
+   private int levelCount=8;
+   private boolean fusedExtract=false;
+   private boolean stereo=false;
+   private GaussianKernel gaussianKernel;
+   private final int[] updatePeriods=new int[MipmapBloomFilter.MAX_LEVELS];
+
+   private final ForkJoinPool pool;
+   private final RowTask[] tasks;
+   private final AtomicInteger pending=new AtomicInteger();
+   private volatile Thread waiter;
+   private volatile Throwable failure;
+   private final ExtractKernel extractKernel=new ExtractKernel();
+   private final SampleKernel sampleKernel=new SampleKernel();
+   private final BlurKernel blurKernel=new BlurKernel();
+   private final MipKernel mipKernel=new MipKernel();
+   private final AccumulateKernel accumulateKernel=new AccumulateKernel();
+   private final DownKernel downKernel=new DownKernel();
+   private final UpKernel upKernel=new UpKernel();
+
+   private float[] glowData;
+   private int glowWidth;
+   private int glowHeight;
+   private final Surface glowSurface=new Surface();
+   private final Surface sceneSurface=new Surface();
+   private Surface extract;
+   private Surface[] levels=new Surface[0];
+   private Surface[] hBlurs=new Surface[0];
+   private Surface[] vBlurs=new Surface[0];
+   private Surface[] ups=new Surface[0];
+   private Surface[] results=new Surface[0];
+   private float[] weights=new float[0];
+   private boolean[] levelValid=new boolean[0];
+   private boolean[] levelScheduled=new boolean[0];
+   private long frameCount;
+   private int accumulated;
+   private int layoutWidth=-1;
+   private int layoutHeight=-1;
+   private float layoutCoef;
+   private int layoutLevels;
+   private Quality layoutQuality;
+   private boolean layoutFused;
+   private boolean layoutStereo;
+   private long fetchCount;
+   private long fullResolutionFetchCount;
+
+
+
+/**
+ * A float RGB image with an optional box filtered mipmap pyramid.
+ */
+// =============================================================================
+   public static final class Surface
+// =============================================================================
+{
+   private int width;
+   private int height;
+   private float[] data;
+   private Surface[] mips;
+
+   Surface() {}
+
+   Surface(int width, int height)
+   {  this.width=width;
+      this.height=height;
+      data=new float[width*height*3];
+   }
+
+   public int getWidth() {return width;}
+   public int getHeight() {return height;}
+
+   /**
+    * @return  The RGB values, three floats per pixel, row by row.
+    */
+   public float[] getData() {return data;}
+
+   void wrap(float[] data, int width, int height)
+   {  this.data=data;
+      this.width=width;
+      this.height=height;
+   }
+
+   /**
+    * Provides the surface of the specified mipmap level (0 is the surface
+    * itself).
+    */
+   Surface mip(int level)
+   {  return level<=0? this:mips[Math.min(level, mips.length)-1];
+   }
+
+   int mipCount() {return mips==null? 0:mips.length;}
+
+   /**
+    * Allocates the mipmap pyramid, halving each dimension down to 1x1.
+    */
+   void allocateMips()
+   {  int count=0;
+      for (int w=width, h=height; w>1 || h>1; count++)
+      {  w=Math.max(1, w/2);
+         h=Math.max(1, h/2);
+      }
+      mips=new Surface[count];
+      int w=width;
+      int h=height;
+      for (int ii=0; ii<count; ii++)
+      {  w=Math.max(1, w/2);
+         h=Math.max(1, h/2);
+         mips[ii]=new Surface(w, h);
+      }
+   }
+} // Surface ===================================================================
+
+
+
+/**
+ * Instantiates an engine that uses a shared fork/join pool with one worker
+ * per available processor.
+ */
+// =============================================================================
+   public CpuBloomEngine()
+// =============================================================================
+{  this(DefaultPool.POOL);
+} // ===========================================================================
+
+
+
+/**
+ * Instantiates an engine that runs its tiles on the specified pool.
+ * @param pool
+ */
+// =============================================================================
+   public CpuBloomEngine(ForkJoinPool pool)
+// =============================================================================
+{
+   this.pool=pool;
+   Arrays.fill(updatePeriods, 1);
+   tasks=new RowTask[Math.max(1, 4*pool.getParallelism())];
+   for (int ii=0; ii<tasks.length; ii++)
+      tasks[ii]=new RowTask();
+} // ===========================================================================
+
+
+
+// =============================================================================
+   private static final class DefaultPool
+// =============================================================================
+{
+   static final ForkJoinPool POOL=new ForkJoinPool();
+} // DefaultPool ===============================================================
+
+
+
+/**
+ * Copies the parameters of the specified filter.
+ * @param filter
+ */
+// =============================================================================
+   public void configure(MipmapBloomFilter filter)
+// =============================================================================
+{
+   quality=filter.getQuality();
+   glowMode=filter.getGlowMode();
+   exposurePower=filter.getExposurePower();
+   exposureCutOff=filter.getExposureCutOff();
+   bloomFactor=filter.getBloomFactor();
+   bloomPower=filter.getBloomPower();
+   downSamplingCoef=filter.getDownSamplingCoef();
+   numLevels=filter.getNumLevels();
+   autoLevelSize=filter.getAutoLevelSize();
+   fusedExtract=filter.isFusedExtract();
+   stereo=filter.isStereo();
+   gaussianKernel=filter.getBlurKernel();
+   for (int ii=0; ii<MipmapBloomFilter.MAX_LEVELS; ii++)
+      updatePeriods[ii]=filter.getUpdatePeriod(ii);
+} // configure =================================================================
+
+
+
+/**
+ * Sets the glow map that is added to the extracted colors when the glow mode
+ * is not <code>GlowMode.Scene</code>. It corresponds to the texture rendered
+ * by the pre-glow pass of the filter.
+ *
+ * @param rgb     The RGB values, or <code>null</code> for no glow map.
+ * @param width
+ * @param height
+ */
+// =============================================================================
+   public void setGlowMap(float[] rgb, int width, int height)
+// =============================================================================
+{
+   glowData=rgb;
+   glowWidth=width;
+   glowHeight=height;
+} // setGlowMap ================================================================
+
+
+
+/**
+ * Applies the bloom to a scene.
+ *
+ * @param scene   The scene colors, 3 floats per pixel.
+ * @param width   The width of the scene.
+ * @param height  The height of the scene.
+ * @param out     Receives the final colors, may be the scene array itself.
+ */
+// =============================================================================
+   public void render(float[] scene, int width, int height, float[] out)
+// =============================================================================
+{
+   prepare(scene, width, height);
+   if (out.length<width*height*3)
+      throw new IllegalArgumentException("Buffers are smaller than "
+       +width+"x"+height+" RGB.");
+
+   scheduleLevels();
+   extractStage();
+   for (int ii=0; ii<levelCount; ii++)
+   {  if (!levelScheduled[ii])
+         continue;
+      levelStage(ii);
+      if (isBlurred(ii))
+      {  blurStage(ii, true);
+         blurStage(ii, false);
+      }
+   }
+   if (quality==Quality.Progressive)
+      for (int ii=levelCount-2; ii>=0; ii--)
+         if (levelScheduled[ii])
+            upStage(ii);
+   accumulateStage(out);
+} // render ====================================================================
+
+
+
+/**
+ * Selects the levels rendered by this frame from their update periods, like
+ * the filter does. Levels that have not been rendered since the buffers were
+ * laid out are always selected.
+ */
+// =============================================================================
+   private void scheduleLevels()
+// =============================================================================
+{
+   for (int ii=0; ii<levelCount; ii++)
+   {  levelScheduled[ii]=!levelValid[ii] || MipmapBloomFilter.isScheduled(
+       updatePeriods[ii], ii, frameCount);
+      levelValid[ii]=true;
+   }
+   frameCount++;
+} // scheduleLevels ============================================================
+
+
+
+/**
+ * Lays out the buffers for the resolution and sets the scene of the next
+ * stages. {@link #render} calls this and each stage in turn; the stages are
+ * separate so they can be measured one by one.
+ */
+// =============================================================================
+   void prepare(float[] scene, int width, int height)
+// =============================================================================
+{
+   if (scene.length<width*height*3)
+      throw new IllegalArgumentException("Buffers are smaller than "
+       +width+"x"+height+" RGB.");
+   layout(width, height);
+   sceneSurface.wrap(scene, width, height);
+   for (int ii=0; ii<levelCount; ii++)
+      if (quality==Quality.Progressive)
+         results[ii]=ii<levelCount-1? ups[ii]:levels[ii];
+      else
+         results[ii]=isBlurred(ii)? vBlurs[ii]:levels[ii];
+   fetchCount=0;
+   fullResolutionFetchCount=0;
+} // prepare ===================================================================
+
+
+
+/**
+ * Extracts the bright pixels of the scene (BloomExtract pass).
+ */
+// =============================================================================
+   void extractStage()
+// =============================================================================
+{
+   if (fusedExtract)                   // Done by the first level.
+      return;
+   extractKernel.src=sceneSurface;
+   extractKernel.dst=extract;
+   extractKernel.extract=glowMode!=GlowMode.Objects;
+   extractKernel.glow=glow();
+   runRows(extractKernel, sceneSurface.height);
+   generateMips(extract);
+   countFetches(sceneSurface, extractKernel.glow!=null? 2:1);
+} // extractStage ==============================================================
+
+
+
+/**
+ * Downsamples a level from the previous one (MipmapSampler pass, or
+ * DualDownsample pass in <code>Quality.Progressive</code>).
+ * @param level
+ */
+// =============================================================================
+   void levelStage(int level)
+// =============================================================================
+{
+   boolean fused=fusedExtract && level==0;
+   Surface src=fused? sceneSurface:level==0? extract:levels[level-1];
+   Surface glow=fused? glow():null;
+   int glowFetches=glow!=null? 1:0;
+   if (quality==Quality.Progressive)
+   {  downKernel.src=src;
+      downKernel.dst=levels[level];
+      downKernel.fused=fused;
+      downKernel.glow=glow;
+      runRows(downKernel, levels[level].height);
+      countFetches(levels[level], 13+glowFetches);
+      return;
+   }
+   sampleKernel.src=src;
+   sampleKernel.dst=levels[level];
+   sampleKernel.multisample=quality==Quality.High;
+   sampleKernel.fused=fused;
+   sampleKernel.glow=glow;
+   runRows(sampleKernel, levels[level].height);
+   if (level<levelCount-1)
+      generateMips(levels[level]);
+   countFetches(levels[level], (sampleKernel.multisample? 4:1)+glowFetches);
+} // levelStage ================================================================
+
+
+
+/**
+ * Upsamples the next smaller level into a level and adds the weighted level
+ * (DualUpsample pass of <code>Quality.Progressive</code>).
+ * @param level   0 to <code>getLevelCount()-2</code>.
+ */
+// =============================================================================
+   void upStage(int level)
+// =============================================================================
+{
+   boolean lowest=level==levelCount-2;
+   upKernel.src=lowest? levels[level+1]:ups[level+1];
+   upKernel.base=levels[level];
+   upKernel.dst=ups[level];
+   upKernel.weight=levelWeight(level);
+   upKernel.lowWeight=lowest? levelWeight(level+1):1.0f;
+   upKernel.stereo=stereo;
+   runRows(upKernel, ups[level].height);
+   countFetches(ups[level], 10);
+} // upStage ===================================================================
+
+
+
+/**
+ * Blurs a level in one direction (HGaussianBlur or VGaussianBlur pass).
+ * @param level
+ * @param horizontal
+ */
+// =============================================================================
+   void blurStage(int level, boolean horizontal)
+// =============================================================================
+{
+   blurKernel.src=horizontal? levels[level]:hBlurs[level];
+   blurKernel.dst=horizontal? hBlurs[level]:vBlurs[level];
+   blurKernel.horizontal=horizontal;
+   blurKernel.stereo=stereo && horizontal;
+   blurKernel.kernel=gaussianKernel;
+   runRows(blurKernel, levels[level].height);
+   countFetches(blurKernel.dst, gaussianKernel!=null
+    ? 2*gaussianKernel.getTapCount()-1:2*BLUR_WEIGHTS.length-1);
+} // blurStage =================================================================
+
+
+
+/**
+ * Adds the weighted levels to the scene (Accumulation pass).
+ * @param out
+ */
+// =============================================================================
+   void accumulateStage(float[] out)
+// =============================================================================
+{
+   if (quality==Quality.Progressive)
+   {  accumulated=1;
+      weights[0]=levelCount==1? levelWeight(0):1.0f;
+   }
+   else
+   {  accumulated=levelCount;
+      for (int ii=0; ii<levelCount; ii++)
+         weights[ii]=levelWeight(ii);
+   }
+   accumulateKernel.scene=sceneSurface;
+   accumulateKernel.out=out;
+   runRows(accumulateKernel, sceneSurface.height);
+   countFetches(sceneSurface, 1+accumulated);
+} // accumulateStage
+
+
+
+/**
+ * @return  The glow map as surface, or <code>null</code> if the glow mode
+ *          does not use one.
+ */
+// =============================================================================
+   private Surface glow()
+// =============================================================================
+{
+   if (glowMode==GlowMode.Scene || glowData==null)
+      return null;
+   glowSurface.wrap(glowData, glowWidth, glowHeight);
+   return glowSurface;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   private float levelWeight(int level)
+// =============================================================================
+{  return bloomFactor*(float)Math.pow(bloomPower, level);
+} // ===========================================================================
+
+
+
+/**
+ * Adds the fetches of a pass that renders the surface with the given number
+ * of texture fetches per pixel.
+ */
+// =============================================================================
+   private void countFetches(Surface dst, int perPixel)
+// =============================================================================
+{
+   long fetches=(long)dst.width*dst.height*perPixel;
+   fetchCount+=fetches;
+   if (dst.width==sceneSurface.width && dst.height==sceneSurface.height)
+      fullResolutionFetchCount+=fetches;
+} // countFetches ===========================================================
+
+
+
+/**
+ * @param level
+ * @return  <code>true</code> if the level gets a Gaussian blur.
+ */
+// =============================================================================
+   boolean isBlurred(int level)
+// =============================================================================
+{  return quality==Quality.High && level>=3;
+} // ===========================================================================
+
+
+
+/**
+ * @param level
+ * @return  <code>true</code> if the level was rendered by the last render,
+ *          <code>false</code> if its previous result was reused.
+ */
+// =============================================================================
+   boolean isScheduled(int level) {return levelScheduled[level];}
+// =============================================================================
+
+
+
+/**
+ * (Re)allocates the buffers if the resolution or level layout changed.
+ */
+// =============================================================================
+   private void layout(int width, int height)
+// =============================================================================
+{
+   levelCount=MipmapBloomFilter.levelCount(stereo? width/2:width, height, 
+    downSamplingCoef, numLevels, autoLevelSize);
+   if (width==layoutWidth && height==layoutHeight
+    && downSamplingCoef==layoutCoef && levelCount==layoutLevels
+    && quality==layoutQuality && fusedExtract==layoutFused
+    && stereo==layoutStereo)
+      return;
+
+// The progressive chain samples every texture at its full size, and so does
+// the stereo mode.
+   boolean progressive=quality==Quality.Progressive;
+   boolean mipmapped=!progressive && !stereo;
+   extract=fusedExtract? null:new Surface(width, height);
+   if (mipmapped && !fusedExtract)
+      extract.allocateMips();
+   levels=new Surface[levelCount];
+   hBlurs=new Surface[levelCount];
+   vBlurs=new Surface[levelCount];
+   ups=new Surface[levelCount];
+   results=new Surface[levelCount];
+   weights=new float[levelCount];
+   levelValid=new boolean[levelCount];
+   levelScheduled=new boolean[levelCount];
+   frameCount=0;
+   for (int ii=0; ii<levelCount; ii++)
+   {  int w=MipmapBloomFilter.levelWidth(width, downSamplingCoef, ii, 
+       stereo);
+      int h=MipmapBloomFilter.levelSize(height, downSamplingCoef, ii);
+      levels[ii]=new Surface(w, h);
+      if (progressive)
+      {  if (ii<levelCount-1)
+            ups[ii]=new Surface(w, h);
+         continue;
+      }
+      if (mipmapped && ii<levelCount-1)
+         levels[ii].allocateMips();
+      hBlurs[ii]=new Surface(w, h);
+      vBlurs[ii]=new Surface(w, h);
+   }
+   layoutWidth=width;
+   layoutHeight=height;
+   layoutCoef=downSamplingCoef;
+   layoutLevels=levelCount;
+   layoutQuality=quality;
+   layoutFused=fusedExtract;
+   layoutStereo=stereo;
+} // layout ====================================================================
+
+
+
+// =============================================================================
+   private void generateMips(Surface surface)
+// =============================================================================
+{
+   for (int ii=0; ii<surface.mipCount(); ii++)
+   {  mipKernel.src=surface.mip(ii);
+      mipKernel.dst=surface.mip(ii+1);
+      runRows(mipKernel, mipKernel.dst.height);
+   }
+} // generateMips ==============================================================
+
+
+
+/**
+ * Runs the kernel over all rows, split into tiles on the fork/join pool.
+ * 
+ * @throws IllegalStateException  If the kernel failed in a tile, with the
+ *                                failure as the cause.
+ */
+// =============================================================================
+   void runRows(RowKernel kernel, int rows)
+// =============================================================================
+{
+   int count=Math.min(tasks.length, rows/MIN_TILE_ROWS);
+   if (count<=1)
+   {  kernel.run(0, rows);
+      return;
+   }
+   for (int ii=0; ii<count; ii++)
+   {  RowTask task=tasks[ii];
+      task.reinitialize();
+      task.kernel=kernel;
+      task.y0=rows*ii/count;
+      task.y1=rows*(ii+1)/count;
+   }
+   waiter=Thread.currentThread();
+   failure=null;
+   pending.set(count);
+   for (int ii=1; ii<count; ii++)
+      pool.execute(tasks[ii]);
+   tasks[0].invoke();
+
+// Run the tiles no worker has picked up yet on this thread, then wait for the
+// rest. Waiting by parking instead of joining keeps this allocation-free.
+// A worker marks its task as done just after the kernel returned, which must
+// have happened before the task can be reinitialized for the next run, so
+// the tasks are joined, which by then hardly ever has to wait.
+   for (int ii=count-1; ii>=1; ii--)
+      if (tasks[ii].tryUnfork())
+         tasks[ii].invoke();
+   while (pending.get()>0)
+      LockSupport.park(this);
+   for (int ii=1; ii<count; ii++)
+      tasks[ii].quietlyJoin();
+   waiter=null;
+
+   if (failure!=null)
+      throw new IllegalStateException("A bloom tile failed.", failure);
+} // runRows ===================================================================
+
+
+
+// =============================================================================
+   private final class RowTask extends RecursiveAction
+// =============================================================================
+{
+   private static final long serialVersionUID=1L;
+
+   RowKernel kernel;
+   int y0;
+   int y1;
+
+   @Override
+   protected void compute()
+   {  try
+      {  kernel.run(y0, y1);
+      }
+      catch (RuntimeException ex)
+      {  failure=ex;
+      }
+      catch (Error ex)
+      {  failure=ex;
+      }
+      finally
+      {  if (pending.decrementAndGet()==0)
+            LockSupport.unpark(waiter);
+      }
+   }
+} // RowTask ===================================================================
+
+
+
+// =============================================================================
+   abstract static class RowKernel
+// =============================================================================
+{
+   /**
+    * Processes the rows y0 (inclusive) to y1 (exclusive).
+    */
+   abstract void run(int y0, int y1);
+} // RowKernel =================================================================
+
+
+
+// =============================================================================
+   private final class ExtractKernel extends RowKernel
+// =============================================================================
+{
+   Surface src;
+   Surface dst;
+   Surface glow;
+   boolean extract;
+
+   @Override
+   void run(int y0, int y1)
+   {  final float[] s=src.data;
+      final float[] d=dst.data;
+      final int w=dst.width;
+      for (int y=y0; y<y1; y++)
+      {  final float v=(y+0.5f)/dst.height;
+         for (int x=0, i=y*w*3; x<w; x++, i+=3)
+         {  float r=0.0f, g=0.0f, b=0.0f;
+            if (extract && (s[i]+s[i+1]+s[i+2])/3.0f>=exposureCutOff)
+            {  r=pow(s[i], exposurePower);
+               g=pow(s[i+1], exposurePower);
+               b=pow(s[i+2], exposurePower);
+            }
+            d[i]=r;
+            d[i+1]=g;
+            d[i+2]=b;
+//          The glow map is raised to the exposure power before it is
+//          added, so it is sampled channel by channel.
+            if (glow!=null)
+            {  final float u=(x+0.5f)/w;
+               d[i]+=pow(bilinearChannel(glow, u, v, 0), exposurePower);
+               d[i+1]+=pow(bilinearChannel(glow, u, v, 1), exposurePower);
+               d[i+2]+=pow(bilinearChannel(glow, u, v, 2), exposurePower);
+            }
+         }
+      }
+   }
+} // ExtractKernel =============================================================
+
+
+
+// =============================================================================
+   private final class SampleKernel extends RowKernel
+// =============================================================================
+{
+   Surface src;
+   Surface dst;
+   Surface glow;
+   boolean multisample;
+   boolean fused;
+
+   @Override
+   void run(int y0, int y1)
+   {  final float[] d=dst.data;
+      final int w=dst.width;
+      final float lod=lod(src, dst);
+      final float dx=0.5f/w;
+      final float dy=0.5f/dst.height;
+      for (int y=y0; y<y1; y++)
+      {  final float v=(y+0.5f)/dst.height;
+         for (int x=0, i=y*w*3; x<w; x++, i+=3)
+         {  final float u=(x+0.5f)/w;
+            d[i]=0.0f;
+            d[i+1]=0.0f;
+            d[i+2]=0.0f;
+            if (multisample)
+            {  tap(u-dx, u, v-dy, lod, 0.25f, d, i);
+               tap(u+dx, u, v-dy, lod, 0.25f, d, i);
+               tap(u+dx, u, v+dy, lod, 0.25f, d, i);
+               tap(u-dx, u, v+dy, lod, 0.25f, d, i);
+            }
+            else
+               tap(u, u, v, lod, 1.0f, d, i);
+            if (glow!=null)
+               addGlow(glow, u, v, d, i);
+         }
+      }
+   }
+
+   private void tap(float u, float center, float v, float lod, float wt, 
+    float[] d, int i)
+   {  u=eye(u, center, src, stereo);
+      if (fused)
+         addExtracted(src, u, v, wt, d, i);
+      else
+         addTrilinear(src, u, v, lod, wt, d, i);
+   }
+} // SampleKernel ==============================================================
+
+
+
+// =============================================================================
+   private static final class BlurKernel extends RowKernel
+// =============================================================================
+{
+   Surface src;
+   Surface dst;
+   boolean horizontal;
+   boolean stereo;
+   GaussianKernel kernel;
+
+   @Override
+   void run(int y0, int y1)
+   {  final float[] d=dst.data;
+      final int w=dst.width;
+      final float scale=kernel!=null? 1.0f:BLUR_SCALE;
+      final float du=horizontal? scale/w:0.0f;
+      final float dv=horizontal? 0.0f:scale/dst.height;
+      for (int y=y0; y<y1; y++)
+      {  final float v=(y+0.5f)/dst.height;
+         for (int x=0, i=y*w*3; x<w; x++, i+=3)
+         {  final float u=(x+0.5f)/w;
+            d[i]=0.0f;
+            d[i+1]=0.0f;
+            d[i+2]=0.0f;
+            if (kernel!=null)
+            {  addBilinear(src, u, v, kernel.getWeight(0), d, i);
+               for (int k=1; k<kernel.getTapCount(); k++)
+               {  final float o=kernel.getOffset(k);
+                  final float wt=kernel.getWeight(k);
+                  addBilinear(src, eye(u-o*du, u, src, stereo), v-o*dv, 
+                   wt, d, i);
+                  addBilinear(src, eye(u+o*du, u, src, stereo), v+o*dv, 
+                   wt, d, i);
+               }
+               continue;
+            }
+            addBilinear(src, u, v, BLUR_WEIGHTS[0], d, i);
+            for (int k=1; k<BLUR_WEIGHTS.length; k++)
+            {  addBilinear(src, eye(u-k*du, u, src, stereo), v-k*dv, 
+                BLUR_WEIGHTS[k], d, i);
+               addBilinear(src, eye(u+k*du, u, src, stereo), v+k*dv, 
+                BLUR_WEIGHTS[k], d, i);
+            }
+         }
+      }
+   }
+} // BlurKernel ================================================================
+
+
+
+// =============================================================================
+   private static final class MipKernel extends RowKernel
+// =============================================================================
+{
+   Surface src;
+   Surface dst;
+
+   @Override
+   void run(int y0, int y1)
+   {  final float[] s=src.data;
+      final float[] d=dst.data;
+      final int sw=src.width;
+      final int w=dst.width;
+      for (int y=y0; y<y1; y++)
+      {  final int sy0=Math.min(2*y, src.height-1);
+         final int sy1=Math.min(2*y+1, src.height-1);
+         for (int x=0, i=y*w*3; x<w; x++, i+=3)
+         {  final int sx0=Math.min(2*x, sw-1);
+            final int sx1=Math.min(2*x+1, sw-1);
+            final int a=(sy0*sw+sx0)*3;
+            final int b=(sy0*sw+sx1)*3;
+            final int c=(sy1*sw+sx0)*3;
+            final int e=(sy1*sw+sx1)*3;
+            for (int ch=0; ch<3; ch++)
+               d[i+ch]=0.25f*(s[a+ch]+s[b+ch]+s[c+ch]+s[e+ch]);
+         }
+      }
+   }
+} // MipKernel =================================================================
+
+
+
+// =============================================================================
+   private final class AccumulateKernel extends RowKernel
+// =============================================================================
+{
+   Surface scene;
+   float[] out;
+
+   @Override
+   void run(int y0, int y1)
+   {  final float[] s=scene.data;
+      final int w=scene.width;
+      for (int y=y0; y<y1; y++)
+      {  final float v=(y+0.5f)/scene.height;
+         for (int x=0, i=y*w*3; x<w; x++, i+=3)
+         {  final float u=(x+0.5f)/w;
+            final float r=s[i], g=s[i+1], b=s[i+2];  // out may be the scene.
+            out[i]=0.0f;
+            out[i+1]=0.0f;
+            out[i+2]=0.0f;
+            for (int ii=0; ii<accumulated; ii++)
+               addBilinear(results[ii], eye(u, u, results[ii], stereo), v, 
+                weights[ii], out, i);
+            out[i]+=r;
+            out[i+1]+=g;
+            out[i+2]+=b;
+         }
+      }
+   }
+} // AccumulateKernel ==========================================================
+
+
+
+/**
+ * The 13-tap downsample of <code>DualDownsample.frag</code>.
+ */
+// =============================================================================
+   private final class DownKernel extends RowKernel
+// =============================================================================
+{
+   Surface src;
+   Surface dst;
+   Surface glow;
+   boolean fused;
+
+   @Override
+   void run(int y0, int y1)
+   {  final float[] d=dst.data;
+      final int w=dst.width;
+      final float dx=1.0f/src.width;
+      final float dy=1.0f/src.height;
+      for (int y=y0; y<y1; y++)
+      {  final float v=(y+0.5f)/dst.height;
+         for (int x=0, i=y*w*3; x<w; x++, i+=3)
+         {  final float u=(x+0.5f)/w;
+            d[i]=0.0f;
+            d[i+1]=0.0f;
+            d[i+2]=0.0f;
+            tap(u, u, v, 0.125f, d, i);
+            tap(u-2*dx, u, v+2*dy, 0.03125f, d, i);
+            tap(u+2*dx, u, v+2*dy, 0.03125f, d, i);
+            tap(u-2*dx, u, v-2*dy, 0.03125f, d, i);
+            tap(u+2*dx, u, v-2*dy, 0.03125f, d, i);
+            tap(u, u, v+2*dy, 0.0625f, d, i);
+            tap(u-2*dx, u, v, 0.0625f, d, i);
+            tap(u+2*dx, u, v, 0.0625f, d, i);
+            tap(u, u, v-2*dy, 0.0625f, d, i);
+            tap(u-dx, u, v+dy, 0.125f, d, i);
+            tap(u+dx, u, v+dy, 0.125f, d, i);
+            tap(u-dx, u, v-dy, 0.125f, d, i);
+            tap(u+dx, u, v-dy, 0.125f, d, i);
+            if (glow!=null)
+               addGlow(glow, u, v, d, i);
+         }
+      }
+   }
+
+   private void tap(float u, float center, float v, float wt, float[] d, 
+    int i)
+   {  u=eye(u, center, src, stereo);
+      if (fused)
+         addExtracted(src, u, v, wt, d, i);
+      else
+         addBilinear(src, u, v, wt, d, i);
+   }
+} // DownKernel ================================================================
+
+
+
+/**
+ * The tent upsample of <code>DualUpsample.frag</code>.
+ */
+// =============================================================================
+   private static final class UpKernel extends RowKernel
+// =============================================================================
+{
+   Surface src;
+   Surface base;
+   Surface dst;
+   float weight;
+   float lowWeight;
+   boolean stereo;
+
+   @Override
+   void run(int y0, int y1)
+   {  final float[] d=dst.data;
+      final int w=dst.width;
+      final float dx=1.0f/src.width;
+      final float dy=1.0f/src.height;
+      final float t=lowWeight/16.0f;
+      for (int y=y0; y<y1; y++)
+      {  final float v=(y+0.5f)/dst.height;
+         for (int x=0, i=y*w*3; x<w; x++, i+=3)
+         {  final float u=(x+0.5f)/w;
+            d[i]=0.0f;
+            d[i+1]=0.0f;
+            d[i+2]=0.0f;
+            final float uc=eye(u, u, src, stereo);
+            final float ul=eye(u-dx, u, src, stereo);
+            final float ur=eye(u+dx, u, src, stereo);
+            addBilinear(base, u, v, weight, d, i);
+            addBilinear(src, uc, v, 4.0f*t, d, i);
+            addBilinear(src, ul, v, 2.0f*t, d, i);
+            addBilinear(src, ur, v, 2.0f*t, d, i);
+            addBilinear(src, uc, v-dy, 2.0f*t, d, i);
+            addBilinear(src, uc, v+dy, 2.0f*t, d, i);
+            addBilinear(src, ul, v-dy, t, d, i);
+            addBilinear(src, ur, v-dy, t, d, i);
+            addBilinear(src, ul, v+dy, t, d, i);
+            addBilinear(src, ur, v+dy, t, d, i);
+         }
+      }
+   }
+} // UpKernel ==================================================================
+
+
+
+/**
+ * Adds a bilinear sample that is thresholded and raised to the exposure
+ * power like the ExtractKernel does (fused extract).
+ */
+// =============================================================================
+   private void addExtracted(Surface s, float u, float v, float wt, 
+    float[] dst, int i)
+// =============================================================================
+{
+   if (glowMode==GlowMode.Objects)
+      return;
+   final float r=bilinearChannel(s, u, v, 0);
+   final float g=bilinearChannel(s, u, v, 1);
+   final float b=bilinearChannel(s, u, v, 2);
+   if ((r+g+b)/3.0f<exposureCutOff)
+      return;
+   dst[i]+=wt*pow(r, exposurePower);
+   dst[i+1]+=wt*pow(g, exposurePower);
+   dst[i+2]+=wt*pow(b, exposurePower);
+} // addExtracted ==============================================================
+
+
+
+/**
+ * Adds the glow map raised to the exposure power (fused extract).
+ */
+// =============================================================================
+   private void addGlow(Surface glow, float u, float v, float[] dst, int i)
+// =============================================================================
+{
+   dst[i]+=pow(bilinearChannel(glow, u, v, 0), exposurePower);
+   dst[i+1]+=pow(bilinearChannel(glow, u, v, 1), exposurePower);
+   dst[i+2]+=pow(bilinearChannel(glow, u, v, 2), exposurePower);
+} // addGlow ===================================================================
+
+
+
+/**
+ * The level of detail OpenGL selects when a texture of the size of src is
+ * drawn onto a render target of the size of dst.
+ */
+// =============================================================================
+   static float lod(Surface src, Surface dst)
+// =============================================================================
+{
+   float rho=Math.max((float)src.width/dst.width,
+    (float)src.height/dst.height);
+   return (float)(Math.log(rho)/Math.log(2.0));
+} // lod =======================================================================
+
+
+
+/**
+ * Clamps the u of a sample into the eye of the pixel in stereo mode, half a
+ * texel of the sampled surface inside, like the TILE macro of the shaders.
+ *
+ * @param u       The u of the sample.
+ * @param center  The u of the pixel.
+ * @param s       The sampled surface.
+ * @param stereo
+ * @return  The clamped u.
+ */
+// =============================================================================
+   static float eye(float u, float center, Surface s, boolean stereo)
+// =============================================================================
+{
+   if (!stereo)
+      return u;
+   final float left=center<0.5f? 0.0f:0.5f;
+   final float half=0.5f/s.width;
+   return Math.max(left+half, Math.min(left+0.5f-half, u));
+} // eye =======================================================================
+
+
+
+/**
+ * Adds a trilinear sample of the surface (bilinear if the surface has no
+ * mipmaps or is magnified) to dst[i..i+2].
+ */
+// =============================================================================
+   static void addTrilinear(Surface s, float u, float v, float lod, float wt,
+    float[] dst, int i)
+// =============================================================================
+{
+   if (lod<=0.0f || s.mipCount()==0)
+   {  addBilinear(s, u, v, wt, dst, i);
+      return;
+   }
+   int level=(int)lod;
+   float f=lod-level;
+   if (level>=s.mipCount())
+   {  addBilinear(s.mip(s.mipCount()), u, v, wt, dst, i);
+      return;
+   }
+   addBilinear(s.mip(level), u, v, wt*(1.0f-f), dst, i);
+   if (f>0.0f)
+      addBilinear(s.mip(level+1), u, v, wt*f, dst, i);
+} // addTrilinear ==============================================================
+
+
+
+/**
+ * Adds a bilinear, edge clamped sample of the surface at the texture
+ * coordinate (u,v) to dst[i..i+2].
+ */
+// =============================================================================
+   static void addBilinear(Surface s, float u, float v, float wt, float[] dst,
+    int i)
+// =============================================================================
+{
+   final float px=u*s.width-0.5f;
+   final float py=v*s.height-0.5f;
+   final int x0=(int)Math.floor(px);
+   final int y0=(int)Math.floor(py);
+   final float fx=px-x0;
+   final float fy=py-y0;
+   final int xa=clamp(x0, s.width);
+   final int xb=clamp(x0+1, s.width);
+   final int ya=clamp(y0, s.height)*s.width;
+   final int yb=clamp(y0+1, s.height)*s.width;
+   final float w00=wt*(1.0f-fx)*(1.0f-fy);
+   final float w10=wt*fx*(1.0f-fy);
+   final float w01=wt*(1.0f-fx)*fy;
+   final float w11=wt*fx*fy;
+   final float[] d=s.data;
+   final int a=(ya+xa)*3, b=(ya+xb)*3, c=(yb+xa)*3, e=(yb+xb)*3;
+   dst[i]+=w00*d[a]+w10*d[b]+w01*d[c]+w11*d[e];
+   dst[i+1]+=w00*d[a+1]+w10*d[b+1]+w01*d[c+1]+w11*d[e+1];
+   dst[i+2]+=w00*d[a+2]+w10*d[b+2]+w01*d[c+2]+w11*d[e+2];
+} // addBilinear ===============================================================
+
+
+
+// =============================================================================
+   static float bilinearChannel(Surface s, float u, float v, int ch)
+// =============================================================================
+{
+   final float px=u*s.width-0.5f;
+   final float py=v*s.height-0.5f;
+   final int x0=(int)Math.floor(px);
+   final int y0=(int)Math.floor(py);
+   final float fx=px-x0;
+   final float fy=py-y0;
+   final int xa=clamp(x0, s.width);
+   final int xb=clamp(x0+1, s.width);
+   final int ya=clamp(y0, s.height)*s.width;
+   final int yb=clamp(y0+1, s.height)*s.width;
+   final float[] d=s.data;
+   return (1.0f-fy)*((1.0f-fx)*d[(ya+xa)*3+ch]+fx*d[(ya+xb)*3+ch])
+    +fy*((1.0f-fx)*d[(yb+xa)*3+ch]+fx*d[(yb+xb)*3+ch]);
+} // bilinearChannel ===========================================================
+
+
+
+// =============================================================================
+   private static int clamp(int i, int size)
+// =============================================================================
+{  return i<0? 0:(i>=size? size-1:i);
+} // ===========================================================================
+
+
+
+// =============================================================================
+   private static float pow(float a, float b)
+// =============================================================================
+{  return (float)Math.pow(a, b);
+} // ===========================================================================
+
+
+
+/**
+ * Provides the downsampled (not blurred) surface of a level of the last
+ * render.
+ * @param level   0 to <code>getNumLevels()-1</code>.
+ * @return
+ */
+// =============================================================================
+   public Surface getLevel(int level) {return levels[level];}
+// =============================================================================
+
+
+
+/**
+ * Provides the surface a level contributes to the accumulation with, i.e.
+ * the blurred surface if the level is blurred.
+ * @param level   0 to <code>getNumLevels()-1</code>.
+ * @return
+ */
+// =============================================================================
+   public Surface getResult(int level) {return results[level];}
+// =============================================================================
+
+
+
+/**
+ * Provides the extracted bright pixels of the last render.
+ * @return  <code>null</code> with a fused extract.
+ */
+// =============================================================================
+   public Surface getExtract() {return extract;}
+// =============================================================================
+
+
+
+/**
+ * Provides the number of texture fetches the shaders of the filter make for
+ * the last render. A fetch is one texture lookup of a shader; the mipmaps the
+ * renderer generates are not counted.
+ * @return
+ */
+// =============================================================================
+   public long getFetchCount() {return fetchCount;}
+// =============================================================================
+
+
+
+/**
+ * Provides the part of {@link #getFetchCount()} made by the passes that
+ * render at the resolution of the scene.
+ * @return
+ */
+// =============================================================================
+   public long getFullResolutionFetchCount() {return fullResolutionFetchCount;}
+// =============================================================================
+
+
+
+// =============================================================================
+   public Quality getQuality() {return quality;}
+   public void setQuality(Quality quality) {this.quality=quality;}
+   public GlowMode getGlowMode() {return glowMode;}
+   public void setGlowMode(GlowMode glowMode) {this.glowMode=glowMode;}
+   public float getExposurePower() {return exposurePower;}
+   public void setExposurePower(float v) {exposurePower=v;}
+   public float getExposureCutOff() {return exposureCutOff;}
+   public void setExposureCutOff(float v) {exposureCutOff=v;}
+   public float getBloomFactor() {return bloomFactor;}
+   public float getBloomPower() {return bloomPower;}
+   public float getDownSamplingCoef() {return downSamplingCoef;}
+   public void setDownSamplingCoef(float v) {downSamplingCoef=v;}
+   public boolean isFusedExtract() {return fusedExtract;}
+   public void setFusedExtract(boolean v) {fusedExtract=v;}
+   public boolean isStereo() {return stereo;}
+   public void setStereo(boolean v) {stereo=v;}
+   public GaussianKernel getBlurKernel() {return gaussianKernel;}
+   public void setBlurKernel(GaussianKernel v) {gaussianKernel=v;}
+   public int getNumLevels() {return numLevels;}
+// =============================================================================
+
+
+
+/**
+ * Sets the number of mipmap levels.
+ * @param numLevels   1 to {@link MipmapBloomFilter#MAX_LEVELS}.
+ */
+// =============================================================================
+   public void setNumLevels(int numLevels)
+// =============================================================================
+{  if (numLevels<1 || numLevels>MipmapBloomFilter.MAX_LEVELS)
+      throw new IllegalArgumentException("numLevels must be 1 to "
+       +MipmapBloomFilter.MAX_LEVELS+": "+numLevels);
+   this.numLevels=numLevels;
+   this.autoLevelSize=0;
+} // setNumLevels ==============================================================
+
+
+
+/**
+ * Chooses the number of levels from the resolution, see
+ * {@link MipmapBloomFilter#setAutoLevels(int)}.
+ * @param minLevelSize  The target size of the last level, or 0 to use the
+ *                      fixed number of levels.
+ */
+// =============================================================================
+   public void setAutoLevels(int minLevelSize)
+// =============================================================================
+{  this.autoLevelSize=Math.max(0, minLevelSize);
+} // setAutoLevels =============================================================
+
+
+
+/**
+ * @return  The number of levels of the last render.
+ */
+// =============================================================================
+   public int getLevelCount() {return levelCount;}
+// =============================================================================
+
+
+
+/**
+ * Sets the weights of the levels, see
+ * {@link MipmapBloomFilter#setBloomIntensity(float, float)}.
+ * @param bloomFactor
+ * @param bloomPower
+ */
+// =============================================================================
+   public void setBloomIntensity(float bloomFactor, float bloomPower)
+// =============================================================================
+{  this.bloomFactor=bloomFactor;
+   this.bloomPower=bloomPower;
+} // setBloomIntensity =========================================================
+
+
+
+/**
+ * Sets the number of renders between two updates of a level, see
+ * {@link MipmapBloomFilter#setUpdatePeriod(int, int)}.
+ * @param level   0 to {@link MipmapBloomFilter#MAX_LEVELS}-1.
+ * @param period  The period in renders, 1 (default) to update every render.
+ */
+// =============================================================================
+   public void setUpdatePeriod(int level, int period)
+// =============================================================================
+{  if (period<1)
+      throw new IllegalArgumentException("period must be at least 1: "
+       +period);
+   updatePeriods[level]=period;
+} // setUpdatePeriod ===========================================================
+
+
+
+// =============================================================================
+   public int getUpdatePeriod(int level) {return updatePeriods[level];}
+// =============================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,213 @@
+package mj.jmex.visualfx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * A normalised one dimensional Gaussian kernel for the separable blur passes.
+ * <p>
+ * The discrete kernel has a tap at each texel from <code>-radius</code> to
+ * <code>radius</code>. Since the blur shaders sample with bilinear filtering,
+ * two neighboring taps <code>a</code> and <code>b</code> are folded into a
+ * single fetch at the offset <code>(a*w(a)+b*w(b))/(w(a)+w(b))</code> with the
+ * weight <code>w(a)+w(b)</code>, which gives the same result. A kernel of
+ * radius 4 needs 5 fetches instead of 9.
+ * <p>
+ * Kernels are immutable and cached by sigma and radius, see
+ * {@link #get(float, int)}.
+ */
+// *****************************************************************************
+   public final class GaussianKernel
+// *****************************************************************************
+{
+/**
+ * The largest supported radius, limited by the uniform arrays of the blur
+ * shaders.
+ */
+   public static final int MAX_RADIUS=32;
+   private static final Map<Key, GaussianKernel> CACHE=
+    new HashMap<Key, GaussianKernel>();
+
+   private final float sigma;
+   private final int radius;
+   private final float[] discreteWeights;
+   private final float[] offsets;
+   private final float[] weights;
+
+
+
+// =============================================================================
+   private static final class Key
+// =============================================================================
+{
+   final int sigmaBits;
+   final int radius;
+
+   Key(float sigma, int radius)
+   {  this.sigmaBits=Float.floatToIntBits(sigma);
+      this.radius=radius;
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {  if (!(o instanceof Key))
+         return false;
+      Key k=(Key)o;
+      return sigmaBits==k.sigmaBits && radius==k.radius;
+   }
+
+   @Override
+   public int hashCode() {return 31*sigmaBits+radius;}
+} // Key =======================================================================
+
+
+
+// =============================================================================
+   private GaussianKernel(float sigma, int radius)
+// =============================================================================
+{
+   this.sigma=sigma;
+   this.radius=radius;
+
+// Discrete weights of the center and one side, normalised over both sides.
+   discreteWeights=new float[radius+1];
+   double sum=0.0;
+   double[] w=new double[radius+1];
+   for (int ii=0; ii<=radius; ii++)
+   {  w[ii]=Math.exp(-0.5*ii*ii/((double)sigma*sigma));
+      sum+=ii==0? w[ii]:2.0*w[ii];
+   }
+   for (int ii=0; ii<=radius; ii++)
+      discreteWeights[ii]=(float)(w[ii]/sum);
+
+// The center stays a tap of its own, the taps 1 and 2, 3 and 4 etc. are
+// folded. An odd radius leaves the last tap alone.
+   int taps=1+(radius+1)/2;
+   offsets=new float[taps];
+   weights=new float[taps];
+   weights[0]=discreteWeights[0];
+   for (int ii=1; ii<taps; ii++)
+   {  int a=2*ii-1;
+      int b=a+1;
+      double wa=w[a]/sum;
+      double wb=b<=radius? w[b]/sum:0.0;
+      weights[ii]=(float)(wa+wb);
+      offsets[ii]=(float)((a*wa+b*wb)/(wa+wb));
+   }
+} // GaussianKernel ============================================================
+
+
+
+/**
+ * Provides the kernel for a sigma and radius, which is generated on first use
+ * and cached afterwards.
+ *
+ * @param sigma   The standard deviation in texels, greater than 0.
+ * @param radius  The number of texels on each side, 1 to
+ *                {@link #MAX_RADIUS}.
+ * @return  The shared kernel.
+ */
+// =============================================================================
+   public static GaussianKernel get(float sigma, int radius)
+// =============================================================================
+{
+   if (!(sigma>0.0f))
+      throw new IllegalArgumentException("sigma must be greater than 0: "
+       +sigma);
+   if (radius<1 || radius>MAX_RADIUS)
+      throw new IllegalArgumentException("radius must be 1 to "+MAX_RADIUS
+       +": "+radius);
+
+   Key key=new Key(sigma, radius);
+   synchronized (CACHE)
+   {  GaussianKernel kernel=CACHE.get(key);
+      if (kernel==null)
+      {  kernel=new GaussianKernel(sigma, radius);
+         CACHE.put(key, kernel);
+      }
+      return kernel;
+   }
+} // get =======================================================================
+
+
+
+/**
+ * @return  The standard deviation in texels.
+ */
+// =============================================================================
+   public float getSigma() {return sigma;}
+// =============================================================================
+
+
+
+/**
+ * @return  The number of texels on each side of the center.
+ */
+// =============================================================================
+   public int getRadius() {return radius;}
+// =============================================================================
+
+
+
+/**
+ * Provides the weight of a discrete tap.
+ * @param distance   0 to <code>getRadius()</code> texels from the center.
+ * @return
+ */
+// =============================================================================
+   public float getDiscreteWeight(int distance)
+    {return discreteWeights[distance];}
+// =============================================================================
+
+
+
+/**
+ * Provides the number of folded taps of one side, including the center tap.
+ * A blur pass takes <code>2*getTapCount()-1</code> fetches.
+ * @return
+ */
+// =============================================================================
+   public int getTapCount() {return offsets.length;}
+// =============================================================================
+
+
+
+/**
+ * @param tap  0 (the center) to <code>getTapCount()-1</code>.
+ * @return  The offset of a folded tap in texels.
+ */
+// =============================================================================
+   public float getOffset(int tap) {return offsets[tap];}
+// =============================================================================
+
+
+
+/**
+ * @param tap  0 (the center) to <code>getTapCount()-1</code>.
+ * @return  The weight of a folded tap, which is applied on both sides.
+ */
+// =============================================================================
+   public float getWeight(int tap) {return weights[tap];}
+// =============================================================================
+
+
+
+/**
+ * The folded offsets, shared with the blur materials. Must not be modified.
+ */
+// =============================================================================
+   float[] offsets() {return offsets;}
+// =============================================================================
+
+
+
+/**
+ * The folded weights, shared with the blur materials. Must not be modified.
+ */
+// =============================================================================
+   float[] weights() {return weights;}
+// =============================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,78 @@
+package mj.jmex.visualfx;
+
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+
+
+/**
+ * A node that keeps a {@link GlowRegistry} up to date: the glowing geometries
+ * of a child subtree are added when the child is attached and removed when it
+ * is detached.
+ * <p>
+ * Only changes of the direct children are noticed. Subtrees that change below
+ * a plain node have to be added to the registry by the application, or be
+ * built from glow nodes as well.
+ */
+// *****************************************************************************
+   public class GlowNode extends Node
+// *****************************************************************************
+{
+   private GlowRegistry registry;
+
+
+
+/**
+ * Serialization only.
+ */
+// =============================================================================
+   public GlowNode() {}
+// =============================================================================
+
+
+
+/**
+ * Instantiates a node.
+ * @param name
+ * @param registry  The registry of the bloom filter.
+ */
+// =============================================================================
+   public GlowNode(String name, GlowRegistry registry)
+// =============================================================================
+{  super(name);
+   this.registry=registry;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Override
+   public int attachChildAt(Spatial child, int index)
+// =============================================================================
+{
+   int result=super.attachChildAt(child, index);
+   if (registry!=null)
+      registry.add(child);
+   return result;
+} // attachChildAt =============================================================
+
+
+
+// =============================================================================
+   @Override
+   public Spatial detachChildAt(int index)
+// =============================================================================
+{
+   Spatial child=super.detachChildAt(index);
+   if (registry!=null && child!=null)
+      registry.remove(child);
+   return child;
+} // detachChildAt =============================================================
+
+
+
+// =============================================================================
+   public GlowRegistry getRegistry() {return registry;}
+// =============================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,279 @@
+package mj.jmex.visualfx;
+
+import com.jme3.material.Material;
+import com.jme3.material.MaterialDef;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+
+
+/**
+ * The geometries a {@link MipmapBloomFilter} renders into its glow map with
+ * <code>GlowMode.Objects</code> or <code>GlowMode.SceneAndObjects</code>, see
+ * {@link MipmapBloomFilter#setGlowRegistry(GlowRegistry)}.
+ * <p>
+ * Without a registry the filter renders all queued geometries of the viewport
+ * again with the Glow technique, although most of them only write black. With
+ * a registry it renders only the registered geometries that are in the view
+ * frustum. A geometry is glowing if its material has a <code>GlowColor</code>
+ * or <code>GlowMap</code> parameter set, or if its material definition has a
+ * Glow technique but none of these parameters, like a custom glow-only
+ * material.
+ * <p>
+ * The registry is maintained incrementally: {@link #add(Spatial)} and
+ * {@link #remove(Spatial)} take whole subtrees, and a {@link GlowNode} calls
+ * them when children are attached or detached. A geometry whose material
+ * changes later has to be added again.
+ * <p>
+ * Geometries without glow no longer hide glowing ones behind them in the glow
+ * map, since they are not rendered. Large occluders can be registered with
+ * {@link #addOccluder(Spatial)}; they are rendered with the Glow technique,
+ * i.e. in black, like without a registry.
+ */
+// *****************************************************************************
+   public class GlowRegistry
+// *****************************************************************************
+{
+   private final ArrayList<Geometry> geometries=new ArrayList<Geometry>();
+   private final IdentityHashMap<Geometry, Integer> indices=
+    new IdentityHashMap<Geometry, Integer>();
+   private int glowCount;
+
+
+
+/**
+ * Adds the glowing geometries of a subtree.
+ * @param spatial  A geometry or the root of a subtree.
+ */
+// =============================================================================
+   public void add(Spatial spatial)
+// =============================================================================
+{  collect(spatial, false);
+} // ===========================================================================
+
+
+
+/**
+ * Adds all geometries of a subtree, glowing or not, so they occlude the
+ * glowing geometries behind them.
+ * @param spatial  A geometry or the root of a subtree.
+ */
+// =============================================================================
+   public void addOccluder(Spatial spatial)
+// =============================================================================
+{  collect(spatial, true);
+} // ===========================================================================
+
+
+
+/**
+ * Removes all geometries of a subtree.
+ * @param spatial  A geometry or the root of a subtree.
+ */
+// =============================================================================
+   public void remove(Spatial spatial)
+// =============================================================================
+{
+   if (spatial instanceof Geometry)
+   {  Integer index=indices.remove((Geometry)spatial);
+      if (index==null)
+         return;
+      if (index<glowCount)
+      {
+//       Keep the glowing geometries in front: the last glowing one fills the
+//       gap, and the last occluder fills its place.
+         move(glowCount-1, index);
+         glowCount--;
+         index=glowCount;
+      }
+      move(geometries.size()-1, index);
+      geometries.remove(geometries.size()-1);
+   }
+   else if (spatial instanceof Node)
+   {  List<Spatial> children=((Node)spatial).getChildren();
+      for (int ii=0; ii<children.size(); ii++)
+         remove(children.get(ii));
+   }
+} // remove ====================================================================
+
+
+
+/**
+ * Removes all geometries.
+ */
+// =============================================================================
+   public void clear()
+// =============================================================================
+{  geometries.clear();
+   indices.clear();
+   glowCount=0;
+} // ===========================================================================
+
+
+
+// =============================================================================
+   private void collect(Spatial spatial, boolean occluders)
+// =============================================================================
+{
+   if (spatial instanceof Geometry)
+   {  Geometry geometry=(Geometry)spatial;
+      boolean glowing=isGlowing(geometry.getMaterial());
+      if (!glowing && !occluders)
+         return;
+      remove(geometry);
+      if (glowing)
+      {  geometries.add(null);
+         move(glowCount, geometries.size()-1);
+         set(glowCount++, geometry);
+      }
+      else
+      {  geometries.add(geometry);
+         indices.put(geometry, geometries.size()-1);
+      }
+   }
+   else if (spatial instanceof Node)
+   {  List<Spatial> children=((Node)spatial).getChildren();
+      for (int ii=0; ii<children.size(); ii++)
+         collect(children.get(ii), occluders);
+   }
+} // collect ===================================================================
+
+
+
+// =============================================================================
+   private void move(int from, int to)
+// =============================================================================
+{  if (from!=to)
+      set(to, geometries.get(from));
+} // ===========================================================================
+
+
+
+// =============================================================================
+   private void set(int index, Geometry geometry)
+// =============================================================================
+{  geometries.set(index, geometry);
+   if (geometry!=null)
+      indices.put(geometry, index);
+} // ===========================================================================
+
+
+
+/**
+ * Tells if a material renders a glow.
+ * @param mat
+ * @return
+ */
+// =============================================================================
+   public static boolean isGlowing(Material mat)
+// =============================================================================
+{
+   if (mat==null)
+      return false;
+   if (mat.getParam("GlowColor")!=null || mat.getParam("GlowMap")!=null)
+      return true;
+   MaterialDef def=mat.getMaterialDef();
+   return def!=null && def.getTechniqueDefs("Glow")!=null
+    && def.getMaterialParam("GlowColor")==null
+    && def.getMaterialParam("GlowMap")==null;
+} // isGlowing =================================================================
+
+
+
+/**
+ * Renders the registered geometries in the view frustum of a camera with the
+ * technique that is forced by the caller.
+ *
+ * @param rm
+ * @param cam
+ * @return  The number of rendered glowing geometries.
+ */
+// =============================================================================
+   int render(RenderManager rm, Camera cam)
+// =============================================================================
+{
+   int glowing=0;
+   int planeState=cam.getPlaneState();
+   for (int ii=0; ii<geometries.size(); ii++)
+   {  Geometry geometry=geometries.get(ii);
+      if (!isVisible(geometry, cam))
+         continue;
+      rm.renderGeometry(geometry);
+      if (ii<glowCount)
+         glowing++;
+   }
+   cam.setPlaneState(planeState);
+   return glowing;
+} // render ====================================================================
+
+
+
+/**
+ * Tells if a registered glowing geometry is in the view frustum of a camera.
+ * @param cam
+ * @return
+ */
+// =============================================================================
+   boolean hasVisibleGlow(Camera cam)
+// =============================================================================
+{
+   int planeState=cam.getPlaneState();
+   boolean visible=false;
+   for (int ii=0; ii<glowCount && !visible; ii++)
+      visible=isVisible(geometries.get(ii), cam);
+   cam.setPlaneState(planeState);
+   return visible;
+} // hasVisibleGlow ============================================================
+
+
+
+// =============================================================================
+   private static boolean isVisible(Geometry geometry, Camera cam)
+// =============================================================================
+{
+   Spatial.CullHint hint=geometry.getCullHint();
+   if (hint==Spatial.CullHint.Always)
+      return false;
+   if (hint==Spatial.CullHint.Never || geometry.getWorldBound()==null)
+      return true;
+   cam.setPlaneState(0);
+   return cam.contains(geometry.getWorldBound())
+    !=Camera.FrustumIntersect.Outside;
+} // isVisible =================================================================
+
+
+
+/**
+ * @return  The number of registered glowing geometries.
+ */
+// =============================================================================
+   public int getGlowCount() {return glowCount;}
+// =============================================================================
+
+
+
+/**
+ * @return  The number of registered geometries, including the occluders.
+ */
+// =============================================================================
+   public int size() {return geometries.size();}
+// =============================================================================
+
+
+
+/**
+ * @param geometry
+ * @return  <code>true</code> if the geometry is registered.
+ */
+// =============================================================================
+   public boolean contains(Geometry geometry)
+    {return indices.containsKey(geometry);}
+// =============================================================================
+
+} // ***************************************************************************
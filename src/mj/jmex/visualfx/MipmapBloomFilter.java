@@ -8,17 +8,37 @@ import com.jme3.export.OutputCapsule;
 import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
 import com.jme3.math.FastMath;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector4f;
 import com.jme3.post.Filter;
+import com.jme3.renderer.Camera;
 import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.Renderer;
 import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.GeometryList;
 import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.SceneGraphVisitor;
+import com.jme3.scene.Spatial;
+import com.jme3.shader.VarType;
 import com.jme3.texture.Image;
 import com.jme3.texture.Image.Format;
 import com.jme3.texture.Texture;
 import com.jme3.texture.Texture2D;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 
@@ -31,11 +51,63 @@ import java.util.ArrayList;
  * <p>
  * Adjustment of the bloom inensity and the downsampling coefficient shall be
  * chosen very carefully.
+ * <p>
+ * The number of mipmap levels is 8 by default. It can be set to a fixed value
+ * up to {@link #MAX_LEVELS}, or chosen automatically from the resolution, see
+ * {@link #setAutoLevels(int)}.
+ * <p>
+ * By default each level is rendered into a texture of its own. With
+ * {@link LevelStorage#MipChain} the levels are read from the mipmaps of the
+ * extracted texture instead, see {@link #setLevelStorage(LevelStorage)}.
+ * <p>
+ * The bright pixels are extracted from the scene at full resolution by
+ * default. With {@link #setFusedExtract(boolean)} the extraction is done by
+ * the first downsampling pass at the resolution of level 0 instead.
+ * <p>
+ * For a framebuffer with two eyes side by side, the stereo mode keeps the
+ * bloom of each eye on its side of the seam, see {@link #setStereo(boolean)}.
+ * The foveated mode renders the high resolution levels only in a focus
+ * rectangle that can move each frame, see
+ * {@link #setFoveation(float, float, int)}. If the bloom is only needed in a
+ * part of the screen, all passes can be limited to it, see
+ * {@link #setRegionOfInterest(float, float, float, float)}.
+ * <p>
+ * Levels with low frequency content can be updated at a reduced rate, reusing
+ * their previous result in between, see {@link #setUpdatePeriod(int, int)}.
+ * For a scene that does not change, e.g. behind a pause menu, the whole chain
+ * can be skipped and the last bloom composited again, see
+ * {@link #setStaticSceneCaching(boolean)}.
+ * <p>
+ * The filter must be changed on the render thread, except for the exposure
+ * and the intensity, which other threads can publish with
+ * {@link #publishExposurePower(float)}, 
+ * {@link #publishExposureCutOff(float)} and 
+ * {@link #publishBloomIntensity(float, float)}.
+ * <p>
+ * When the filter is initialized again, e.g. after the resolution changed,
+ * the passes can be built on a background thread while the old ones keep
+ * rendering, see {@link #setBuildExecutor(Executor)}. Viewports with the same
+ * resolution can share the level and blur passes, see
+ * {@link #setBloomContext(BloomContext)}.
+ * <p>
+ * Each structural setter (quality, glow mode, downsampling coefficient etc.)
+ * rebuilds the passes of an initialized filter. To change several settings at
+ * once, use {@link #apply(BloomConfig)}, which rebuilds at most once.
  */
 // *****************************************************************************
    public class MipmapBloomFilter extends Filter
 // *****************************************************************************
 {
+/**
+ * The maximum number of mipmap levels, limited by the texture units used by
+ * the accumulation shader.
+ */
+   public static final int MAX_LEVELS=12;
+   private static final String[] LEVEL_TEXTURES=new String[MAX_LEVELS];
+   static
+   {  for (int ii=0; ii<MAX_LEVELS; ii++)
+         LEVEL_TEXTURES[ii]="Texture"+(ii+1);
+   }
       
    private Quality quality=Quality.High;
    private GlowMode glowMode=GlowMode.Scene;
@@ -47,6 +119,7 @@ import java.util.ArrayList;
    private Pass preGlowPass;
    private Pass extractPass;
    private Material extractMat;
+   private boolean extractDirty;
    private int screenWidth;
    private int screenHeight;    
    private RenderManager renderManager;
@@ -54,8 +127,85 @@ import java.util.ArrayList;
    private AssetManager assetManager;
    private int initialWidth;
    private int initialHeight;
-   private final int numPasses=8;
+   private int numLevels=8;
+   private int autoLevelSize=0;
+   private int numPasses;
+   private final float[] weights=new float[MAX_LEVELS];
+   private final float[] powerSeries=new float[MAX_LEVELS];
+   private float seriesPower=Float.NaN;
+   private float pruneEpsilon=0.0f;
+   private float expectedLuminance=1.0f;
+   private Pass[] levelPasses;
+   private Pass[] hBlurPasses;
+   private Pass[] vBlurPasses;
+   private Pass[] upPasses;
+   private int progressiveLast=-1;
+   private final float[] compositeWeights=new float[MAX_LEVELS];
+   private final Vector2f[] upWeights=new Vector2f[MAX_LEVELS];
+   private Texture2D[] levelTextures;
+   private boolean[] levelActive;
+   private final float[] levelWeights=new float[MAX_LEVELS];
+   private final float[] levelLods=new float[MAX_LEVELS];
+   private final float[] halfTexels=new float[MAX_LEVELS];
+   private int chainLevels;
+   private LevelStorage levelStorage=LevelStorage.Separate;
+   private boolean fusedExtract=false;
+   private boolean stereo=false;
+   private float focusWidth=1.0f;
+   private float focusHeight=1.0f;
+   private int focusLevels=0;
+   private float focusX=0.5f;
+   private float focusY=0.5f;
+   private final Vector4f focusRect=new Vector4f(0.0f, 0.0f, 1.0f, 1.0f);
+   private int focusCount;
+   private Pass peripheryPass;
+   private Material peripheryMat;
+   private float regionX=0.0f;
+   private float regionY=0.0f;
+   private float regionWidth=1.0f;
+   private float regionHeight=1.0f;
+   private int[] regionColumns;
+   private int[] regionRows;
+   private GaussianKernel blurKernel;
    private Format texFormat=Format.RGB111110F;
+   private final RenderTargetPool targetPool;
+   private BloomContext context;
+   private boolean shared;
+   private boolean contextRunner;
+   private final int[] updatePeriods=new int[MAX_LEVELS];
+   private boolean amortized;
+   private long frameCount;
+   private boolean[] levelValid;
+   private boolean[] levelScheduled;
+   private boolean staticSceneCaching;
+   private boolean autoInvalidate;
+   private boolean idle;
+   private int pendingFrames;
+   private final Matrix4f lastViewProjection=new Matrix4f();
+   private int lastSceneHash;
+   private final SceneHash sceneHash=new SceneHash();
+   private GlowRegistry glowRegistry;
+   private static final Field[] QUEUE_LISTS=queueLists();
+   private boolean glowCulling;
+   private boolean glowVisible=true;
+   private boolean glowMapClear;
+   private boolean bloomSkipped;
+   private Material passThroughMat;
+   private static final int PUBLISHED_EXPOSURE_POWER=1;
+   private static final int PUBLISHED_EXPOSURE_CUTOFF=2;
+   private static final int PUBLISHED_INTENSITY=4;
+   private final AtomicInteger published=new AtomicInteger();
+   private final AtomicInteger publishedExposurePower=new AtomicInteger();
+   private final AtomicInteger publishedExposureCutOff=new AtomicInteger();
+   private final AtomicLong publishedIntensity=new AtomicLong();
+   private Executor buildExecutor;
+   private FutureTask<MipmapBloomFilter> pendingBuild;
+   private MipmapBloomFilter pendingBuilder;
+   private final ArrayList<FutureTask<MipmapBloomFilter>> abandonedBuilds=
+    new ArrayList<FutureTask<MipmapBloomFilter>>();
+   private final AtomicBoolean buildStarted=new AtomicBoolean();
+   private final ArrayList<RenderTargetPool.Target> heldTargets=
+    new ArrayList<RenderTargetPool.Target>();
 
 /**
  * GlowMode specifies if the glow will be applied to the whole scene, or to
@@ -96,18 +246,72 @@ import java.util.ArrayList;
    /**
     * Lower quality but better performance mode.
     */
-   Low;
+   Low,
+
+   /**
+    * Progressive downsampling and upsampling (dual filter): each level is
+    * downsampled from the previous one with a 13-tap filter, then the levels
+    * are upsampled with a tent filter from the smallest one up, each adding
+    * its weighted level. The full resolution composite reads a single bloom
+    * texture instead of one texture per level, which saves bandwidth at high
+    * resolutions. The level storage setting does not apply to this mode.
+    */
+   Progressive;
 } // ===========================================================================
 
     
+/**
+ * Specifies where the mipmap levels are stored.
+ */
+// =============================================================================
+   public enum LevelStorage
+// =============================================================================
+{
+   /**
+    * Each level is downsampled from the previous one into a texture of its
+    * own, with the MipmapSampler shader. (Default)
+    */
+   Separate,
+
+   /**
+    * The levels are the mipmaps of the extracted texture, which the renderer
+    * generates after the extract pass. The accumulation samples them from the
+    * single texture at an explicit level of detail, so there are no mipmap
+    * passes and no framebuffer switches for the levels. Only the blurred
+    * levels of <code>Quality.High</code> get textures of their own.
+    * <p>
+    * Hardware mipmaps halve the size per level and are box filtered, so this
+    * fits a downsampling coefficient of 2 best; other coefficients are
+    * approximated by fractional levels of detail.
+    */
+   MipChain;
+} // LevelStorage ==============================================================
+
+
+
 /**
  * Instantiates a new bloom filter.
  */
 // =============================================================================
    public MipmapBloomFilter()
 // =============================================================================
+{  this(new RenderTargetPool());
+} // ===========================================================================
+
+
+
+/**
+ * Instantiates a filter that builds its passes with the render targets of
+ * another one, see {@link #createBuilder(RenderTargetPool)}.
+ * @param targetPool
+ */
+// =============================================================================
+   protected MipmapBloomFilter(RenderTargetPool targetPool)
+// =============================================================================
 {
    super("MipmapBloomFilter");
+   this.targetPool=targetPool;
+   Arrays.fill(updatePeriods, 1);
 } // ===========================================================================
 
 
@@ -153,12 +357,63 @@ import java.util.ArrayList;
 
 
 
+/**
+ * Builds the passes, or starts building them in the background if a build
+ * executor is set and the filter already has passes, which keep rendering
+ * until the new ones are swapped in.
+ */
 // =============================================================================
    @Override
    protected void initFilter(final AssetManager manager, 
     RenderManager renderManager, ViewPort vp, int w, int h)
 // =============================================================================
 {
+   MipmapBloomFilter builder=buildExecutor!=null && !heldTargets.isEmpty()
+    && context==null? createBuilder(targetPool):null;
+   if (builder!=null)
+      startBuild(builder, manager, renderManager, vp, w, h);
+   else
+      buildGraph(manager, renderManager, vp, w, h);
+} // initFilter ================================================================
+
+
+
+/**
+ * Creates the filter that builds the passes in the background. It has to be
+ * of the class of this filter, so that the overrides of
+ * {@link #makeExtractPass(AssetManager, RenderManager, int, int)} build the
+ * same passes as on the render thread, and it has to build with the targets
+ * of the pool. The settings of {@link #getConfig()} are applied to it.
+ * <p>
+ * A subclass that builds in the background overrides this, e.g. with a
+ * constructor that calls {@link #MipmapBloomFilter(RenderTargetPool)}.
+ * 
+ * @param pool  The pool of the render targets of this filter.
+ * @return  A new filter, or <code>null</code> to build on the render thread,
+ *          which is the default for subclasses.
+ */
+// =============================================================================
+   protected MipmapBloomFilter createBuilder(RenderTargetPool pool)
+// =============================================================================
+{  return getClass()==MipmapBloomFilter.class? new MipmapBloomFilter(pool)
+    :null;
+} // createBuilder =============================================================
+
+
+
+/**
+ * Builds the passes for a resolution on the calling thread. A build that is
+ * still pending in the background is abandoned.
+ */
+// =============================================================================
+   private void buildGraph(final AssetManager manager, 
+    RenderManager renderManager, ViewPort vp, int w, int h)
+// =============================================================================
+{
+   abandonBuild();
+   if (shared)
+      leaveContext(renderManager!=null? renderManager.getRenderer()
+       :this.renderManager!=null? this.renderManager.getRenderer():null);
    this.renderManager=renderManager;
    this.viewPort=vp;
 
@@ -166,357 +421,2215 @@ import java.util.ArrayList;
    this.initialWidth=w;    //640;
    this.initialHeight=h;   //(int)(640.0f*(float)h/(float)w);
 
+// Hand the render targets of a previous initialization back to the pool, so
+// passes of the same size reuse them instead of allocating new framebuffers.
+   releaseTargets();
    postRenderPasses=new ArrayList<Pass>();
+   numPasses=levelCount(stereo? w/2:w, h, downSamplingCoef, numLevels, 
+    autoLevelSize);
+   levelPasses=new Pass[numPasses];
+   hBlurPasses=new Pass[numPasses];
+   vBlurPasses=new Pass[numPasses];
+   levelTextures=new Texture2D[numPasses];
+   levelActive=new boolean[numPasses];
+   levelValid=new boolean[numPasses];
+   levelScheduled=new boolean[numPasses];
+   Arrays.fill(levelScheduled, true);
+   resetFrameState();
+   regionColumns=null;
+   regionRows=null;
+   if (isRegional())
+   {  int blurFrom=quality==Quality.High? 3:MAX_LEVELS;
+      regionColumns=regionSpans(w, downSamplingCoef, numPasses, regionX, 
+       regionWidth, blurFrom, blurReach(blurKernel));
+      regionRows=regionSpans(h, downSamplingCoef, numPasses, regionY, 
+       regionHeight, blurFrom, blurReach(blurKernel));
+   }
+   focusCount=regionColumns==null && isFoveated()
+    ? Math.min(focusLevels, numPasses-1):0;
+   peripheryPass=null;
+   peripheryMat=null;
+   upPasses=null;
+   chainLevels=0;
+   progressiveLast=-1;
    
 // Configure extract pass.
 // -----------------------------------------------------------------------------
-   postRenderPasses.add(makeExtractPass(manager, renderManager, w, h)); 
+   makeExtractPass(manager, renderManager, w, h);
+
+// With a bloom context the levels are rendered by the shared chain, which
+// binds them by bindContext, and the filter only composites its tile.
+   if (context!=null && context.accepts(this, w, h))
+   {  material=createMaterial("MatDefs/MipmapBloom/Accumulation.j3md");
+      shared=true;
+      context.join(this, w, h, renderManager==null? null
+       :renderManager.getRenderer());
+      setBloomIntensity(bloomFactor, bloomPower);
+      if (renderManager!=null)
+         targetPool.trim(renderManager.getRenderer());
+      return;
+   }
+
+   if (quality==Quality.Progressive)
+   {  makeProgressiveChain(manager);
+      if (renderManager!=null)
+         targetPool.trim(renderManager.getRenderer());
+      return;
+   }
 
 // Configure mipmap blur passes.
 // -----------------------------------------------------------------------------
 // The mipmaps will be generated with according width and height, that can be
 // specified implicitly with the downSamplingFactor.
-   final Pass[] mmPasses=new Pass[numPasses];
-   final Texture2D[] mipmaps=new Texture2D[numPasses];
+   final Pass[] mmPasses=levelPasses;
+   Vector4f[] levelRects=null;
+   if (regionColumns!=null)
+   {  levelRects=new Vector4f[numPasses];
+      for (int ii=0; ii<numPasses; ii++)
+         levelRects[ii]=spanRect(ii+1, initialWidth, initialHeight);
+   }
 
    for (int ii=0; ii<numPasses; ii++)
    {
-      final int passWidth=Math.max(1, 
-       (int)(initialWidth/FastMath.pow(downSamplingCoef, (ii+1))));
-      final int passHeight=//initialHeight;
-       Math.max(1, (int)(initialHeight/FastMath.pow(downSamplingCoef, (ii+1))));
+      final int passWidth=levelWidth(initialWidth, downSamplingCoef, ii, 
+       stereo);
+      final int passHeight=levelSize(initialHeight, downSamplingCoef, ii);
+      halfTexels[ii]=0.5f/passWidth;
+
+//    The focus levels only cover the focus rectangle, all levels of a region
+//    of interest only the padded region.
+      final int targetWidth=levelRects!=null? regionColumns[2*ii+3]
+       :ii<focusCount? focusSize(passWidth, focusWidth):passWidth;
+      final int targetHeight=levelRects!=null? regionRows[2*ii+3]
+       :ii<focusCount? focusSize(passHeight, focusHeight):passHeight;
+
+//    In the mip chain storage the level is a mipmap of the extracted texture,
+//    or of level 0 if the extract is fused into it. A blur pass of the 
+//    level's size reads the matching mipmap by itself.
+      if (isMipChain() && !(fusedExtract && ii==0))
+      {  Texture2D chain=chainTexture();
+         levelLods[ii]=FastMath.log(Math.max(
+          (float)chain.getImage().getWidth()/passWidth, 
+          (float)chain.getImage().getHeight()/passHeight), 2.0f);
+         if (quality==Quality.High && ii>=3)
+            levelTextures[ii]=gaussianBlur(manager, ii, chain, passWidth, 
+             passHeight);
+         continue;
+      }
 
-      final Material passMat=new Material(manager,
+//    The parameters of the level passes do not change from frame to frame,
+//    so they are set once here.
+      final Material passMat=createMaterial(
        "MatDefs/MipmapBloom/MipmapSampler.j3md");
       final int jj=ii;
-      mmPasses[jj]=new Pass()
-      {  
-         @Override
-         public void beforeRender()
-         {  
-            if (jj==0)
-               passMat.setTexture("Texture", extractPass.getRenderedTexture());
-            else
-               passMat.setTexture("Texture", mmPasses[jj-1]
-                .getRenderedTexture());
-            
-            if (quality==Quality.High)
-            {
-               passMat.setFloat("Dx", 0.5f/(float)passWidth);
-               passMat.setFloat("Dy", 0.5f/(float)passHeight);
-            }
+      if (fusedExtract && ii==0)
+      {  extractMat=passMat;
+         setExtractParams(passMat);
+         mmPasses[jj]=new PooledPass()
+         {  @Override
+            public boolean requiresSceneAsTexture() {return true;}
+         };
+         if (stereo)
+            setTiles(passMat, 2, initialWidth);
+         if (focusCount>0)
+            passMat.setVector4("SourceRect", focusRect);
+         if (levelRects!=null)
+         {  passMat.setVector4("SourceRect", levelRects[0]);
+            passMat.setVector4("ClipRect", getRegionOfInterest(null));
          }
-      };
+      }
+      else
+      {
+//       The first level outside the focus is downsampled from the extract of
+//       the periphery.
+         Texture2D source=jj==0? extractPass.getRenderedTexture()
+          :jj==focusCount? makePeripheryPass()
+          :mmPasses[jj-1].getRenderedTexture();
+         passMat.setTexture("Texture", source);
+         mmPasses[jj]=new PooledPass();
+         if (stereo)
+            setTiles(passMat, 2, source.getImage().getWidth());
+         if (levelRects!=null)
+            passMat.setVector4("SourceRect", sourceRect(levelRects[jj], 
+             jj==0? spanRect(0, initialWidth, initialHeight)
+             :levelRects[jj-1]));
+      }
+      if (quality==Quality.High)
+      {
+         passMat.setFloat("Dx", 0.5f/(float)targetWidth);
+         passMat.setFloat("Dy", 0.5f/(float)targetHeight);
+      }
 
-      mmPasses[jj].init(renderManager.getRenderer(), passWidth, 
-       passHeight, texFormat, Format.Depth, 1, passMat);
+      initPass(mmPasses[jj], targetWidth, targetHeight, passMat);
       mmPasses[jj].getRenderedTexture().setMagFilter(
        Texture.MagFilter.Bilinear);
-      mmPasses[jj].getRenderedTexture().setMinFilter(
-       Texture.MinFilter.Trilinear);
-      postRenderPasses.add(mmPasses[jj]);
+      mmPasses[jj].getRenderedTexture().setMinFilter(minFilter());
 
 //    In high quality mode each mipmap will be blurred with a gaussian blur,
 //    which makes the result much smoother.
       if (quality==Quality.High && jj>=3)
-         mipmaps[jj]=gaussianBlur(manager, mmPasses[jj].getRenderedTexture());
+         levelTextures[jj]=gaussianBlur(manager, jj, 
+          mmPasses[jj].getRenderedTexture(), targetWidth, targetHeight);
       else
-         mipmaps[jj]=mmPasses[jj].getRenderedTexture();
+         levelTextures[jj]=mmPasses[jj].getRenderedTexture();
 
    }
       
 // Accumulate mipmaps to the final image.
 // -----------------------------------------------------------------------------
-   material=new Material(manager, "MatDefs/MipmapBloom/Accumulation.j3md");
-   for (int ii=0; ii<numPasses; ii++)
-      material.setTexture("Texture"+(ii+1), mipmaps[ii]);
+// The level textures and the pass list are set by setBloomIntensity, which 
+// leaves out the levels with a negligible weight.
+   material=createMaterial("MatDefs/MipmapBloom/Accumulation.j3md");
+   if (isMipChain())
+   {  Image chain=chainTexture().getImage();
+      material.setTexture("MipChain", chainTexture());
+      material.setParam("Lods", VarType.FloatArray, levelLods);
+//    The level of detail the GPU selects for the chain at the screen size,
+//    e.g. -1 for level 0 of a fused extract. The GLSL100 technique can only
+//    bias it, so it subtracts it from the explicit levels of detail.
+      material.setFloat("ChainLod", FastMath.log(Math.max(
+       (float)chain.getWidth()/initialWidth,
+       (float)chain.getHeight()/initialHeight), 2.0f));
+   }
+   setStereoParams();
+   if (focusCount>0)
+   {  material.setInt("FocusLevels", focusCount);
+      updateFocusRect();
+   }
+   if (levelRects!=null)
+   {  material.setVector4("RegionRect", getRegionOfInterest(null));
+      material.setParam("LevelRects", VarType.Vector4Array, levelRects);
+   }
    setBloomIntensity(bloomFactor, bloomPower);
-} // initFilter ================================================================
+
+// Delete targets that are not used by the new configuration. A background
+// build leaves this to the render thread.
+   if (renderManager!=null)
+      targetPool.trim(renderManager.getRenderer());
+} // buildGraph ================================================================
+
 
 
-   
 /**
- * Informs the FilterPostProcessor that this Filter needs the original scene as 
- * texture.
- * 
- * @return  <code>true</code>
+ * Creates a pass material. The asset manager loads each definition once and
+ * keeps it in its cache, so the passes of all filters share the definitions
+ * and the shaders of their techniques.
+ *
+ * @param name  The asset name of the definition.
+ * @return  A new material.
  */
 // =============================================================================
-   @Override
-   protected boolean isRequiresSceneTexture() {return true;}
+   Material createMaterial(String name)
 // =============================================================================
+{  return new Material(assetManager, name);
+} // ===========================================================================
+
+
 
-   
-   
 /**
- * Makes the glow pass and/or extract pass.
- * 
- * @param manager
- * @param renderManager
- * @param w
- * @param h
- * @return 
+ * Resets the state that is kept from frame to frame for new passes.
  */
 // =============================================================================
-   protected Pass makeExtractPass(AssetManager manager, 
-    RenderManager renderManager, int w, int h)
+   private void resetFrameState()
 // =============================================================================
 {
-// Configure the preGlowPass, for use with GlowMode.SceneAndObjects and
-// GlowMode.Objects.
-// -----------------------------------------------------------------------------
-   screenWidth=(int)Math.max(1.0, (w/downSamplingCoef));
-   screenHeight=(int)Math.max(1.0, (h/downSamplingCoef));
-   if (glowMode!=GlowMode.Scene)
-   {  preGlowPass=new Pass();
-      preGlowPass.init(renderManager.getRenderer(), screenWidth, screenHeight,
-       texFormat, Format.Depth);
-   }
-
-// Configure extractPass, extracting bright pixels from the scene.
-// -----------------------------------------------------------------------------   
-   extractMat=new Material(manager, "Common/MatDefs/Post/BloomExtract.j3md");
-   extractPass=new Pass()
-   {
-      @Override
-      public boolean requiresSceneAsTexture() {return true;}
-
-      @Override
-      public void beforeRender() {
-         extractMat.setFloat("ExposurePow", exposurePower);
-         extractMat.setFloat("ExposureCutoff", exposureCutOff);
-         if (glowMode!=GlowMode.Scene)
-            extractMat.setTexture("GlowMap", preGlowPass.getRenderedTexture());
-         extractMat.setBoolean("Extract", glowMode!=GlowMode.Objects);
-      }
-   };
+   frameCount=0;
+   idle=false;
+   markDirty();
+   glowVisible=true;
+   glowMapClear=false;
+   bloomSkipped=false;
+   passThroughMat=null;
+} // resetFrameState ===========================================================
 
-   extractPass.init(renderManager.getRenderer(), w, h, 
-    texFormat, Format.Depth, 1, extractMat);
 
-   extractPass.getRenderedTexture().setMagFilter(Texture.MagFilter.Bilinear);
-   extractPass.getRenderedTexture().setMinFilter(Texture.MinFilter.Trilinear);
-   
-   return extractPass;
-} // makeExtractPass =========================================================== 
-   
-  
 
 /**
- * Adds an additional Gaussian blur (one horizontal and one vertical pass) to
- * the specified texture.
- * 
- * @param manager
- * @param texture A single mipmap texture here.
- * @return 
- */   
+ * Starts building the passes for a resolution on the build executor. The
+ * passes are built by a filter with the same settings and the same target
+ * pool, but without a renderer, so no render targets are deleted; the
+ * targets themselves are only allocated by the renderer when they are first
+ * rendered to. The result is swapped in by {@link #commitBuild()}.
+ *
+ * @param builder  The filter that builds, see
+ *                 {@link #createBuilder(RenderTargetPool)}.
+ */
 // =============================================================================
-   private Texture2D gaussianBlur(AssetManager manager, final Texture2D texture)
+   private void startBuild(final MipmapBloomFilter builder, 
+    final AssetManager manager, final RenderManager renderManager, 
+    final ViewPort vp, final int w, final int h)
 // =============================================================================
 {
-   final int w=texture.getImage().getWidth();
-   final int h=texture.getImage().getHeight();
-   
-// Configure horizontal blur pass.
-// -----------------------------------------------------------------------------   
-   final Material hBlurMat=new Material(manager,
-    "MatDefs/MipmapBloom/HGaussianBlur.j3md");
-   final Pass hBlur=new Pass()
-   {  @Override
-      public void beforeRender()
-      {  hBlurMat.setTexture("Texture", texture);
-         hBlurMat.setFloat("Size", w);
-         hBlurMat.setFloat("Scale", 0.666666f);
-      }
-   };
-   hBlur.init(renderManager.getRenderer(), w, h, texFormat, Format.Depth, 1, 
-    hBlurMat);
-   hBlur.getRenderedTexture().setMagFilter(Texture.MagFilter.Bilinear);
-//   hBlur.getRenderedTexture().setMinFilter(Texture.MinFilter.Trilinear);
-   postRenderPasses.add(hBlur);
+   abandonBuild();
+   this.renderManager=renderManager;
+   this.viewPort=vp;
+   this.assetManager=manager;
+   this.initialWidth=w;
+   this.initialHeight=h;
 
-// Configure vertical blur pass.
-// -----------------------------------------------------------------------------
-   final Material vBlurMat=new Material(manager,
-    "MatDefs/MipmapBloom/VGaussianBlur.j3md");
-   final Pass vBlur=new Pass()
+   builder.apply(getConfig());
+   pendingBuild=new FutureTask<MipmapBloomFilter>(
+    new Callable<MipmapBloomFilter>()
    {  @Override
-      public void beforeRender()
-      {  vBlurMat.setTexture("Texture", hBlur.getRenderedTexture());
-         vBlurMat.setFloat("Size", h);
-         vBlurMat.setFloat("Scale", 0.666666f);
+      public MipmapBloomFilter call()
+      {  if (!builder.buildStarted.compareAndSet(false, true))
+            return null;                // Abandoned before it started.
+         try
+         {  builder.buildGraph(manager, null, vp, w, h);
+         }
+         catch (RuntimeException e)
+         {  builder.releaseTargets();
+            throw e;
+         }
+         return builder;
       }
-   };
-   vBlur.init(renderManager.getRenderer(), w, h, texFormat, Format.Depth, 1,
-    vBlurMat);
-   vBlur.getRenderedTexture().setMagFilter(Texture.MagFilter.Bilinear);        
-//   vBlur.getRenderedTexture().setMinFilter(Texture.MinFilter.Trilinear);
-   postRenderPasses.add(vBlur);
-
-   return vBlur.getRenderedTexture();
-} // gaussianBlur ==============================================================
+   });
+   pendingBuilder=builder;
+   buildExecutor.execute(pendingBuild);
+} // startBuild ================================================================
 
 
 
 /**
- * Reinitializes the filter by calling initFilter.
+ * Swaps in the passes of a finished background build and hands the render
+ * targets of the old ones back to the pool. The exposure, the intensity and
+ * the pruning are applied again, since they may have changed during the
+ * build.
  */
 // =============================================================================
-   protected void reInitFilter()
+   private void commitBuild()
 // =============================================================================
 {
-   initFilter(assetManager, renderManager, viewPort, initialWidth, 
-    initialHeight);
-} // ===========================================================================
-    
+   MipmapBloomFilter built=result(pendingBuild);
+   pendingBuild=null;
+   pendingBuilder=null;
+
+   releaseTargets();
+   heldTargets.addAll(built.heldTargets);
+   numPasses=built.numPasses;
+   preGlowPass=built.preGlowPass;
+   extractPass=built.extractPass;
+   extractMat=built.extractMat;
+   screenWidth=built.screenWidth;
+   screenHeight=built.screenHeight;
+   levelPasses=built.levelPasses;
+   hBlurPasses=built.hBlurPasses;
+   vBlurPasses=built.vBlurPasses;
+   upPasses=built.upPasses;
+   levelTextures=built.levelTextures;
+   levelActive=built.levelActive;
+   levelValid=built.levelValid;
+   levelScheduled=built.levelScheduled;
+   chainLevels=built.chainLevels;
+   progressiveLast=built.progressiveLast;
+   focusCount=built.focusCount;
+   peripheryPass=built.peripheryPass;
+   peripheryMat=built.peripheryMat;
+   System.arraycopy(built.upWeights, 0, upWeights, 0, MAX_LEVELS);
+   System.arraycopy(built.levelLods, 0, levelLods, 0, MAX_LEVELS);
+   System.arraycopy(built.halfTexels, 0, halfTexels, 0, MAX_LEVELS);
+   material=built.material;
+   postRenderPasses=built.postRenderPasses;
+   resetFrameState();
+
+   if (extractMat!=null)
+      setExtractParams(extractMat);
+   if (peripheryMat!=null)
+      setExtractParams(peripheryMat);
+   if (quality!=Quality.Progressive && isMipChain())
+      material.setParam("Lods", VarType.FloatArray, levelLods);
+   setStereoParams();
+   if (focusCount>0)
+      updateFocusRect();
+   setBloomIntensity(bloomFactor, bloomPower);
+   targetPool.trim(renderManager.getRenderer());
+} // commitBuild ===============================================================
+
+
 
 /**
- * Provides the premultiplication factor of the intensity equation.
- * 
- * @return 
+ * Abandons the pending background build. If it is already running, its
+ * targets are handed back to the pool when it has finished, see
+ * {@link #releaseAbandoned(boolean)}.
  */
 // =============================================================================
-    public float getBloomFactor() {return bloomFactor;}
+   private void abandonBuild()
 // =============================================================================
-    
+{
+   if (pendingBuild==null)
+      return;
+// A build that has not started yet is not run at all.
+   if (pendingBuilder.buildStarted.compareAndSet(false, true))
+      pendingBuild.cancel(false);
+   else
+      abandonedBuilds.add(pendingBuild);
+   pendingBuild=null;
+   pendingBuilder=null;
+} // abandonBuild ==============================================================
 
-    
-// =============================================================================
-   @Override
-   protected Material getMaterial() {return material;}
-// =============================================================================
 
-   
 
 /**
- * Extracts the material's Glow techniques (if specified) and renders it into
- * the preGlowPass, if GlowMode is not Scene.
- * 
- * @param queue   The queue of the rendered scene.
+ * Hands the targets of abandoned background builds back to the pool.
+ * @param wait  <code>true</code> to wait for builds that are still running.
  */
 // =============================================================================
-   @Override
-   protected void postQueue(RenderQueue queue)
+   private void releaseAbandoned(boolean wait)
 // =============================================================================
-{  if (glowMode!=GlowMode.Scene)
-   {  renderManager.getRenderer().setBackgroundColor(ColorRGBA.BlackNoAlpha);            
-      renderManager.getRenderer().setFrameBuffer(
-       preGlowPass.getRenderFrameBuffer());
-      renderManager.getRenderer().clearBuffers(true, true, true);
-      renderManager.setForcedTechnique("Glow");
-      renderManager.renderViewPortQueues(viewPort, false);         
-      renderManager.setForcedTechnique(null);
-      renderManager.getRenderer().setFrameBuffer(
-       viewPort.getOutputFrameBuffer());
+{
+   for (int ii=abandonedBuilds.size()-1; ii>=0; ii--)
+   {  FutureTask<MipmapBloomFilter> build=abandonedBuilds.get(ii);
+      if (!wait && !build.isDone())
+         continue;
+      abandonedBuilds.remove(ii);
+      MipmapBloomFilter built;
+      try
+      {  built=result(build);
+      }
+      catch (RuntimeException e)
+      {  continue;
+      }
+      if (built!=null)
+         built.releaseTargets();
    }
-} // ===========================================================================
+} // releaseAbandoned ==========================================================
 
 
-   
-// =============================================================================
-   @Override
-   protected void cleanUpFilter(Renderer r)
-// =============================================================================
-{  if (glowMode!=GlowMode.Scene)
-      preGlowPass.cleanup(r);
-} // cleanUpFilter =============================================================
 
-   
-   
 /**
- * Provides the power coefficient of the intensity equation.
- * @return  The power coefficient.
+ * Waits for a background build, rethrowing its failure on this thread.
+ * @param build
+ * @return  The filter that built the passes.
  */
 // =============================================================================
-   public float getBloomPower() {return bloomPower;}
+   private static MipmapBloomFilter result(
+    FutureTask<MipmapBloomFilter> build)
 // =============================================================================
+{
+   try
+   {  return build.get();
+   }
+   catch (InterruptedException e)
+   {  Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while building the passes.",
+       e);
+   }
+   catch (ExecutionException e)
+   {  if (e.getCause() instanceof RuntimeException)
+         throw (RuntimeException)e.getCause();
+      if (e.getCause() instanceof Error)
+         throw (Error)e.getCause();
+      throw new IllegalStateException(e.getCause());
+   }
+} // result ====================================================================
+
+
 
-   
-   
 /**
- * Sets weight factors for each mipmap by calculating the intensity equation
- * (see above).
+ * Sets the executor that builds the passes when the filter is initialized
+ * again, e.g. by the FilterPostProcessor after the resolution changed. The
+ * material definitions are loaded, the materials set up and the passes
+ * wired on the executor, while the old passes keep rendering. The new
+ * passes are swapped in at the start of the first frame after the build has
+ * finished.
+ * <p>
+ * Changes of structural settings still rebuild the passes at once. A
+ * subclass only builds in the background if it provides a builder of its
+ * own class, see {@link #createBuilder(RenderTargetPool)}.
  * 
- * @param bloomFactor  A constant premultiplication factor that should be
- *                     less than 1.
- * @param bloomPower   A greater value increases the bloom intensity of each
- *                     mipmap level.
+ * @param executor  The executor, or <code>null</code> (default) to build on
+ *                  the render thread.
  */
 // =============================================================================
-   public void setBloomIntensity(float bloomFactor, float bloomPower)
+   public void setBuildExecutor(Executor executor)
 // =============================================================================
-{  if (material!=null)
-   {
-      for (int ii=0; ii<numPasses; ii++)
-      {
-         float wt=bloomFactor*FastMath.pow(bloomPower, ii);
-         material.setFloat("Weight"+(ii+1), wt);
-      }
-   }
+{  this.buildExecutor=executor;
+} // ===========================================================================
 
-   this.bloomFactor=bloomFactor;
-   this.bloomPower=bloomPower;
-} // setBloomIntensity =========================================================
 
 
-/**
- * Provides the exposure cutoff.
- * @return  Exposure cutoff.
- */    
 // =============================================================================
-   public float getExposureCutOff() {return exposureCutOff;}
+   public Executor getBuildExecutor() {return buildExecutor;}
 // =============================================================================
 
-   
+
 
 /**
- * Define the color threshold on which the bloom will be applied (0.0 to 1.0)
- * @param exposureCutOff   The color threshold value.
+ * @return  <code>true</code> while a background build has not been swapped
+ *          in yet.
  */
 // =============================================================================
-   public void setExposureCutOff(float exposureCutOff)
+   public boolean isBuildPending() {return pendingBuild!=null;}
 // =============================================================================
-{  this.exposureCutOff=exposureCutOff;
-} // setExposureCutoff =========================================================
 
 
 
 /**
- * Provides the exposure power of the intensity equation.
- * @return
+ * Sets a bloom context that shares one chain of level and blur passes with
+ * the filters of other viewports, see {@link BloomContext}. The filter joins
+ * the chain when it is initialized, if its resolution and settings match the
+ * chain, otherwise it builds a chain of its own. Reinitializes the filter.
+ * 
+ * @param context  The context, or <code>null</code> (default) for an own
+ *                 chain.
  */
 // =============================================================================
-   public float getExposurePower() {return exposurePower;}
+   public void setBloomContext(BloomContext context)
 // =============================================================================
+{
+   if (context==this.context)
+      return;
+   if (shared)
+      leaveContext(renderManager==null? null:renderManager.getRenderer());
+   this.context=context;
+   if (assetManager!=null)
+      reInitFilter();
+} // setBloomContext ===========================================================
+
+
 
-   
-   
-/**
- * Sets the exposure power value of the intensity equation (see above).
- * @param exposurePower
- */
 // =============================================================================
-   public void setExposurePower(float exposurePower)
+   public BloomContext getBloomContext() {return context;}
 // =============================================================================
-{  this.exposurePower=exposurePower;
-} // setExposurePower ==========================================================
 
-   
+
 
 /**
- * Sets the glow mode of the bloom filter.
- * @param glowMode   See above.
+ * @return  <code>true</code> if the filter renders with the chain of its bloom
+ *          context.
  */
 // =============================================================================
-   public void setGlowMode(GlowMode glowMode)
+   public boolean isSharingChain() {return shared;}
 // =============================================================================
-{  this.glowMode=glowMode;
-   if (assetManager!=null)             // Dirty initialization check.
-      reInitFilter();
-} // setHighQuality ============================================================
 
-   
-   
+
+
+/**
+ * Makes the downsample and upsample passes of <code>Quality.Progressive</code>
+ * and the accumulation material, which composites the single bloom texture.
+ * The passes are wired by {@link #updateLevels()}.
+ * 
+ * @param manager
+ */
+// =============================================================================
+   private void makeProgressiveChain(AssetManager manager)
+// =============================================================================
+{
+// The 13-tap filter reads the full resolution extract texture itself.
+   if (extractPass!=null)
+      extractPass.getRenderedTexture().setMinFilter(
+       Texture.MinFilter.BilinearNoMipMaps);
+   upPasses=new Pass[numPasses];
+
+   for (int ii=0; ii<numPasses; ii++)
+   {  int passWidth=levelWidth(initialWidth, downSamplingCoef, ii, stereo);
+      int passHeight=levelSize(initialHeight, downSamplingCoef, ii);
+      halfTexels[ii]=0.5f/passWidth;
+
+      final Material downMat=createMaterial(
+       "MatDefs/MipmapBloom/DualDownsample.j3md");
+      if (fusedExtract && ii==0)
+      {  downMat.setFloat("Dx", 1.0f/initialWidth);
+         downMat.setFloat("Dy", 1.0f/initialHeight);
+         extractMat=downMat;
+         setExtractParams(downMat);
+         levelPasses[ii]=new PooledPass()
+         {  @Override
+            public boolean requiresSceneAsTexture() {return true;}
+         };
+         if (stereo)
+            setTiles(downMat, 2, initialWidth);
+      }
+      else
+      {  Texture2D source=ii==0? extractPass.getRenderedTexture()
+          :levelPasses[ii-1].getRenderedTexture();
+         downMat.setTexture("Texture", source);
+         downMat.setFloat("Dx", 1.0f/source.getImage().getWidth());
+         downMat.setFloat("Dy", 1.0f/source.getImage().getHeight());
+         levelPasses[ii]=new PooledPass();
+         if (stereo)
+            setTiles(downMat, 2, source.getImage().getWidth());
+      }
+      initPass(levelPasses[ii], passWidth, passHeight, downMat);
+      levelPasses[ii].getRenderedTexture().setMagFilter(
+       Texture.MagFilter.Bilinear);
+
+//    The smallest level has nothing to upsample.
+      if (ii==numPasses-1)
+         break;
+      Material upMat=createMaterial("MatDefs/MipmapBloom/DualUpsample.j3md");
+      upMat.setTexture("Base", levelPasses[ii].getRenderedTexture());
+      if (upWeights[ii]==null)
+         upWeights[ii]=new Vector2f();
+      int lowerWidth=levelWidth(initialWidth, downSamplingCoef, ii+1, 
+       stereo);
+      upMat.setFloat("Dx", 1.0f/lowerWidth);
+      upMat.setFloat("Dy", 1.0f/levelSize(initialHeight, downSamplingCoef,
+       ii+1));
+      if (stereo)
+         setTiles(upMat, 2, lowerWidth);
+      upPasses[ii]=new PooledPass();
+      initPass(upPasses[ii], passWidth, passHeight, upMat);
+      upPasses[ii].getRenderedTexture().setMagFilter(
+       Texture.MagFilter.Bilinear);
+   }
+
+   material=createMaterial("MatDefs/MipmapBloom/Accumulation.j3md");
+   setStereoParams();
+   setBloomIntensity(bloomFactor, bloomPower);
+} // makeProgressiveChain ======================================================
+
+
+
+/**
+ * Tells if the levels are read from a mip chain. Stereo mode always uses
+ * separate textures, since the mipmaps the renderer generates would mix the
+ * eyes at the seam.
+ */
+// =============================================================================
+   private boolean isMipChain()
+// =============================================================================
+{  return levelStorage==LevelStorage.MipChain && !stereo;
+} // ===========================================================================
+
+
+
+/**
+ * Tells if the first levels are only rendered in the focus rectangle, see
+ * {@link #setFoveation(float, float, int)}.
+ */
+// =============================================================================
+   private boolean isFoveated()
+// =============================================================================
+{  return focusLevels>0 && quality!=Quality.Progressive
+    && levelStorage==LevelStorage.Separate && !stereo;
+} // ===========================================================================
+
+
+
+/**
+ * Tells if the passes are limited to the region of interest, see
+ * {@link #setRegionOfInterest(float, float, float, float)}.
+ */
+// =============================================================================
+   private boolean isRegional()
+// =============================================================================
+{  return (regionWidth<1.0f || regionHeight<1.0f)
+    && quality!=Quality.Progressive && levelStorage==LevelStorage.Separate
+    && !stereo;
+} // ===========================================================================
+
+
+
+/**
+ * Provides the min filter of the textures the levels are downsampled from.
+ * In stereo mode they are sampled without mipmaps, for the same reason as in
+ * {@link #isMipChain()}.
+ */
+// =============================================================================
+   private Texture.MinFilter minFilter()
+// =============================================================================
+{  return stereo? Texture.MinFilter.BilinearNoMipMaps
+    :Texture.MinFilter.Trilinear;
+} // ===========================================================================
+
+
+
+/**
+ * Sets the tiles side by side in the texture a pass samples, which clamps
+ * its samples into the tile of each pixel.
+ * 
+ * @param mat
+ * @param tiles  The number of tiles, e.g. 2 for the eyes in stereo mode.
+ * @param width  The width of the sampled texture.
+ */
+// =============================================================================
+   static void setTiles(Material mat, int tiles, int width)
+// =============================================================================
+{  mat.setInt("Tiles", tiles);
+   mat.setFloat("TileTexel", 0.5f/width);
+} // ===========================================================================
+
+
+
+/**
+ * Sets the eyes side by side to the accumulation material in stereo mode.
+ */
+// =============================================================================
+   private void setStereoParams()
+// =============================================================================
+{
+   if (!stereo)
+      return;
+   material.setInt("Tiles", 2);
+   material.setParam("HalfTexels", VarType.FloatArray, halfTexels);
+} // setStereoParams ===========================================================
+
+
+
+/**
+ * Provides the texture the levels of the mip chain storage are read from.
+ * 
+ * @return  The extracted texture, or level 0 if the extract is fused.
+ */
+// =============================================================================
+   private Texture2D chainTexture()
+// =============================================================================
+{  return fusedExtract? levelPasses[0].getRenderedTexture()
+    :extractPass.getRenderedTexture();
+} // ===========================================================================
+
+
+
+/**
+ * A pass with a render target of a pool. Filter.cleanup cleans up all passes
+ * in postRenderPasses, which would delete targets the pool still hands out,
+ * e.g. the passes of a shared chain, so only the pool deletes them.
+ */
+// =============================================================================
+   class PooledPass extends Pass
+// =============================================================================
+{
+   @Override
+   public void cleanup(Renderer r) {}
+} // PooledPass ================================================================
+
+
+
+/**
+ * Initializes a pass with a render target from the pool.
+ * 
+ * @param pass
+ * @param w
+ * @param h
+ * @param mat  The material of the pass.
+ */
+// =============================================================================
+   private void initPass(Pass pass, int w, int h, Material mat)
+// =============================================================================
+{
+   RenderTargetPool.Target target=targetPool.acquire(w, h, texFormat, 
+    Format.Depth);
+   heldTargets.add(target);
+   pass.setRenderFrameBuffer(target.getFrameBuffer());
+   pass.setRenderedTexture(target.getTexture());
+   pass.setPassMaterial(mat);
+} // initPass ==================================================================
+
+
+
+/**
+ * Returns all render targets held by the passes to the pool.
+ */
+// =============================================================================
+   private void releaseTargets()
+// =============================================================================
+{
+   for (int ii=0; ii<heldTargets.size(); ii++)
+      targetPool.release(heldTargets.get(ii));
+   heldTargets.clear();
+} // releaseTargets ============================================================
+
+
+
+/**
+ * Provides the pool of the render targets, e.g. to monitor the memory used by
+ * the filter.
+ * 
+ * @return  The render target pool.
+ */
+// =============================================================================
+   public RenderTargetPool getRenderTargetPool() {return targetPool;}
+// =============================================================================
+
+
+
+// =============================================================================
+   Texture2D getExtractTexture() {return extractPass.getRenderedTexture();}
+// =============================================================================
+
+
+
+/**
+ * Binds the levels of a shared chain to the accumulation material, which
+ * composites the tile of this filter.
+ *
+ * @param textures    The level textures of the chain.
+ * @param tile        The index of the tile of this filter.
+ * @param tiles       The number of tiles side by side.
+ * @param halfTexels  Half a texel of each level texture in u.
+ */
+// =============================================================================
+   void bindContext(Texture2D[] textures, int tile, int tiles, 
+    float[] halfTexels)
+// =============================================================================
+{
+   levelTextures=textures;
+   for (int ii=0; ii<numPasses; ii++)
+      if (levelActive[ii])
+         material.setTexture(LEVEL_TEXTURES[ii], textures[ii]);
+   if (tiles>1)
+   {  material.setFloat("TileOffset", (float)tile/tiles);
+      material.setFloat("TileScale", 1.0f/tiles);
+      material.setParam("HalfTexels", VarType.FloatArray, halfTexels);
+   }
+   else
+   {  material.clearParam("TileOffset");
+      material.clearParam("TileScale");
+      material.clearParam("HalfTexels");
+   }
+   markDirty();
+} // bindContext ===============================================================
+
+
+
+/**
+ * @return  The format of the render targets of the passes.
+ */
+// =============================================================================
+   public Format getTextureFormat() {return texFormat;}
+// =============================================================================
+
+
+
+/**
+ * Provides the analytic cost of the passes of the current settings.
+ *
+ * @param w  The width of the framebuffer.
+ * @param h  The height of the framebuffer.
+ * @return  The model of the passes, with all levels active.
+ */
+// =============================================================================
+   public BloomCostModel getCostModel(int w, int h)
+// =============================================================================
+{  return BloomCostModel.of(this, w, h);
+} // ===========================================================================
+
+
+   
+/**
+ * Calculates the width or height of a mipmap level.
+ * 
+ * @param size    The width or height of the framebuffer.
+ * @param coef    The downsampling coefficient.
+ * @param level   The mipmap level, starting with 0.
+ * @return  <code>max(1, size/pow(coef, level+1))</code>
+ */
+// =============================================================================
+   static int levelSize(int size, float coef, int level)
+// =============================================================================
+{  return Math.max(1, (int)(size/FastMath.pow(coef, (level+1))));
+} // levelSize =================================================================
+
+
+
+/**
+ * Calculates the width of a mipmap level. In stereo mode both eyes are
+ * downsampled separately, so the seam between them stays on a texel border.
+ * 
+ * @param width   The width of the framebuffer.
+ * @param coef    The downsampling coefficient.
+ * @param level   The mipmap level.
+ * @param stereo  <code>true</code> if the framebuffer holds two eyes side by
+ *                side.
+ * @return  The width in pixels.
+ */
+// =============================================================================
+   static int levelWidth(int width, float coef, int level, boolean stereo)
+// =============================================================================
+{  return stereo? 2*levelSize(width/2, coef, level)
+    :levelSize(width, coef, level);
+} // levelWidth ================================================================
+
+
+   
+/**
+ * Calculates the width or height of the target of a focus level.
+ * 
+ * @param size      The width or height of the level.
+ * @param fraction  The width or height of the focus rectangle, 0 to 1.
+ * @return  The size in pixels, at least 1.
+ */
+// =============================================================================
+   static int focusSize(int size, float fraction)
+// =============================================================================
+{  return Math.max(1, (int)Math.ceil(size*fraction));
+} // ===========================================================================
+
+
+
+/**
+ * Calculates the number of mipmap levels for a resolution.
+ * 
+ * @param w              The width of the framebuffer.
+ * @param h              The height of the framebuffer.
+ * @param coef           The downsampling coefficient.
+ * @param numLevels      The fixed number of levels, used if autoLevelSize is 0.
+ * @param autoLevelSize  If greater than 0, levels are added until the smaller
+ *                       dimension of the last level is at most this size.
+ * @return  The number of levels, 1 to {@link #MAX_LEVELS}.
+ */
+// =============================================================================
+   static int levelCount(int w, int h, float coef, int numLevels,
+    int autoLevelSize)
+// =============================================================================
+{
+   if (autoLevelSize<=0)
+      return Math.max(1, Math.min(MAX_LEVELS, numLevels));
+
+   int count=1;
+   while (count<MAX_LEVELS && Math.min(levelSize(w, coef, count-1), 
+    levelSize(h, coef, count-1))>autoLevelSize)
+      count++;
+   return count;
+} // levelCount ================================================================
+
+
+   
+/**
+ * Informs the FilterPostProcessor that this Filter needs the original scene as 
+ * texture.
+ * 
+ * @return  <code>true</code>
+ */
+// =============================================================================
+   @Override
+   protected boolean isRequiresSceneTexture() {return true;}
+// =============================================================================
+
+   
+   
+/**
+ * Makes the glow pass and/or extract pass.
+ * 
+ * @param manager
+ * @param renderManager
+ * @param w
+ * @param h
+ * @return 
+ */
+// =============================================================================
+   protected Pass makeExtractPass(AssetManager manager, 
+    RenderManager renderManager, int w, int h)
+// =============================================================================
+{
+// Configure the preGlowPass, for use with GlowMode.SceneAndObjects and
+// GlowMode.Objects.
+// -----------------------------------------------------------------------------
+   screenWidth=(int)Math.max(1.0, (w/downSamplingCoef));
+   screenHeight=(int)Math.max(1.0, (h/downSamplingCoef));
+   if (glowMode!=GlowMode.Scene)
+   {  preGlowPass=new PooledPass();
+      initPass(preGlowPass, screenWidth, screenHeight, null);
+   }
+
+// Configure extractPass, extracting bright pixels from the scene. A fused
+// extract is done by the first level pass, whose size is the one of the
+// preGlowPass.
+// -----------------------------------------------------------------------------   
+   if (fusedExtract)
+   {  extractMat=null;
+      extractPass=null;
+      return null;
+   }
+   extractPass=new PooledPass()
+   {
+      @Override
+      public boolean requiresSceneAsTexture() {return true;}
+   };
+
+// In foveated mode only the focus rectangle is extracted, by the sampler with
+// a fused extract, which maps it from the screen. With a region of interest
+// the region is extracted, with a black border.
+   if (focusCount>0)
+   {  extractMat=createMaterial("MatDefs/MipmapBloom/MipmapSampler.j3md");
+      extractMat.setVector4("SourceRect", focusRect);
+      setExtractParams(extractMat);
+      initPass(extractPass, focusSize(w, focusWidth), 
+       focusSize(h, focusHeight), extractMat);
+   }
+   else if (regionColumns!=null)
+   {  extractMat=createMaterial("MatDefs/MipmapBloom/MipmapSampler.j3md");
+      extractMat.setVector4("SourceRect", spanRect(0, w, h));
+      extractMat.setVector4("ClipRect", getRegionOfInterest(null));
+      setExtractParams(extractMat);
+      initPass(extractPass, regionColumns[1], regionRows[1], extractMat);
+   }
+   else
+   {  extractMat=createMaterial("Common/MatDefs/Post/BloomExtract.j3md");
+      setExtractParams(extractMat);
+      initPass(extractPass, w, h, extractMat);
+   }
+
+   extractPass.getRenderedTexture().setMagFilter(Texture.MagFilter.Bilinear);
+   extractPass.getRenderedTexture().setMinFilter(minFilter());
+   
+   return extractPass;
+} // makeExtractPass =========================================================== 
+
+
+
+/**
+ * Makes the extract of the periphery in foveated mode, for the first level
+ * outside the focus, which reads the matching mipmap of it. It extracts the
+ * whole screen at the resolution of level 1, with four bilinear taps, i.e. a
+ * 4x4 box for a downsampling coefficient of 2, or at the resolution of level
+ * 0 with a single tap if only level 0 is in the focus.
+ * 
+ * @return  The extracted texture.
+ */
+// =============================================================================
+   private Texture2D makePeripheryPass()
+// =============================================================================
+{
+   int level=Math.min(1, focusCount-1);
+   int w=levelSize(initialWidth, downSamplingCoef, level);
+   int h=levelSize(initialHeight, downSamplingCoef, level);
+   peripheryMat=createMaterial("MatDefs/MipmapBloom/MipmapSampler.j3md");
+   setExtractParams(peripheryMat);
+   if (level>0)
+   {  peripheryMat.setFloat("Dx", 0.25f/w);
+      peripheryMat.setFloat("Dy", 0.25f/h);
+   }
+   peripheryPass=new PooledPass()
+   {  @Override
+      public boolean requiresSceneAsTexture() {return true;}
+   };
+   initPass(peripheryPass, w, h, peripheryMat);
+   Texture2D texture=peripheryPass.getRenderedTexture();
+   texture.setMagFilter(Texture.MagFilter.Bilinear);
+   texture.setMinFilter(Texture.MinFilter.Trilinear);
+   return texture;
+} // makePeripheryPass =========================================================
+   
+  
+
+/**
+ * Sets the parameters of the bright pixel extraction to the material of the
+ * extract pass or of a level pass with a fused extract. The parameter names
+ * are the ones of BloomExtract.j3md. Later changes of the exposure are pushed
+ * by {@link #preFrame(float)}.
+ * 
+ * @param mat
+ */
+// =============================================================================
+   private void setExtractParams(Material mat)
+// =============================================================================
+{
+   mat.setFloat("ExposurePow", exposurePower);
+   mat.setFloat("ExposureCutoff", exposureCutOff);
+   if (glowMode!=GlowMode.Scene)
+      mat.setTexture("GlowMap", preGlowPass.getRenderedTexture());
+   mat.setBoolean("Extract", glowMode!=GlowMode.Objects);
+   extractDirty=false;
+} // setExtractParams ==========================================================
+
+
+
+/**
+ * Adds an additional Gaussian blur (one horizontal and one vertical pass) to
+ * the specified texture.
+ * 
+ * @param manager
+ * @param level   The mipmap level of the texture.
+ * @param texture A single mipmap texture here.
+ * @param w       The width of the level.
+ * @param h       The height of the level.
+ * @return 
+ */   
+// =============================================================================
+   private Texture2D gaussianBlur(AssetManager manager, int level, 
+    final Texture2D texture, final int w, final int h)
+// =============================================================================
+{   
+// Configure horizontal blur pass.
+// -----------------------------------------------------------------------------   
+   final Material hBlurMat=createMaterial(
+    "MatDefs/MipmapBloom/HGaussianBlur.j3md");
+   setBlurTaps(hBlurMat, blurKernel);
+   hBlurMat.setTexture("Texture", texture);
+   hBlurMat.setFloat("Size", w);
+   hBlurMat.setFloat("Scale", blurScale(blurKernel));
+   if (stereo)
+      setTiles(hBlurMat, 2, w);
+   final Pass hBlur=new PooledPass();
+   initPass(hBlur, w, h, hBlurMat);
+   hBlur.getRenderedTexture().setMagFilter(Texture.MagFilter.Bilinear);
+//   hBlur.getRenderedTexture().setMinFilter(Texture.MinFilter.Trilinear);
+   hBlurPasses[level]=hBlur;
+
+// Configure vertical blur pass.
+// -----------------------------------------------------------------------------
+   final Material vBlurMat=createMaterial(
+    "MatDefs/MipmapBloom/VGaussianBlur.j3md");
+   setBlurTaps(vBlurMat, blurKernel);
+   vBlurMat.setTexture("Texture", hBlur.getRenderedTexture());
+   vBlurMat.setFloat("Size", h);
+   vBlurMat.setFloat("Scale", blurScale(blurKernel));
+   final Pass vBlur=new PooledPass();
+   initPass(vBlur, w, h, vBlurMat);
+   vBlur.getRenderedTexture().setMagFilter(Texture.MagFilter.Bilinear);        
+//   vBlur.getRenderedTexture().setMinFilter(Texture.MinFilter.Trilinear);
+   vBlurPasses[level]=vBlur;
+
+   return vBlur.getRenderedTexture();
+} // gaussianBlur ==============================================================
+
+
+
+/**
+ * Sets the folded taps of a generated blur kernel, if there is one, to a
+ * blur material.
+ * 
+ * @param mat
+ * @param kernel  The kernel, or <code>null</code> for the built-in one.
+ */
+// =============================================================================
+   static void setBlurTaps(Material mat, GaussianKernel kernel)
+// =============================================================================
+{
+   if (kernel==null)
+      return;
+   mat.setInt("Taps", kernel.getTapCount());
+   mat.setParam("Offsets", VarType.FloatArray, kernel.offsets());
+   mat.setParam("Weights", VarType.FloatArray, kernel.weights());
+} // setBlurTaps ================================================================
+
+
+
+/**
+ * The step size of the blur taps in texels: the offsets of a generated kernel
+ * are in texels, the built-in 9-tap kernel steps 2/3 of a texel.
+ */
+// =============================================================================
+   static float blurScale(GaussianKernel kernel)
+// =============================================================================
+{  return kernel!=null? 1.0f:0.666666f;
+} // ===========================================================================
+
+
+
+/**
+ * The reach of the blur passes in texels, with the footprint of the bilinear
+ * fetches: the built-in kernel reaches 4 steps of 2/3 of a texel.
+ */
+// =============================================================================
+   static int blurReach(GaussianKernel kernel)
+// =============================================================================
+{  return kernel!=null? kernel.getRadius()+1:4;
+} // ===========================================================================
+
+
+
+/**
+ * Rebuilds the passes at once, after a structural setting changed.
+ */
+// =============================================================================
+   protected void reInitFilter()
+// =============================================================================
+{
+   buildGraph(assetManager, renderManager, viewPort, initialWidth, 
+    initialHeight);
+} // ===========================================================================
+    
+
+/**
+ * Provides the premultiplication factor of the intensity equation.
+ * 
+ * @return 
+ */
+// =============================================================================
+    public float getBloomFactor() {return bloomFactor;}
+// =============================================================================
+    
+
+    
+// =============================================================================
+   @Override
+   protected Material getMaterial()
+    {return bloomSkipped? passThroughMat:material;}
+// =============================================================================
+
+
+
+/**
+ * Swaps in the passes of a finished background build, takes over the
+ * parameters published by other threads, pushes the exposure
+ * to the extract material if it changed since the last frame, and selects the
+ * levels that are updated in this frame. All
+ * other parameters are set when the passes are built or when the levels
+ * change.
+ * 
+ * @param tpf
+ */
+// =============================================================================
+   @Override
+   protected void preFrame(float tpf)
+// =============================================================================
+{  if (pendingBuild!=null && pendingBuild.isDone())
+      commitBuild();
+   if (!abandonedBuilds.isEmpty())
+      releaseAbandoned(false);
+   if (published.get()!=0)
+      applyPublished();
+   if (extractDirty && extractMat!=null)
+   {  extractMat.setFloat("ExposurePow", exposurePower);
+      extractMat.setFloat("ExposureCutoff", exposureCutOff);
+      if (peripheryMat!=null)
+      {  peripheryMat.setFloat("ExposurePow", exposurePower);
+         peripheryMat.setFloat("ExposureCutoff", exposureCutOff);
+      }
+      extractDirty=false;
+      markDirty();
+   }
+   if (shared && context.begin(this)!=contextRunner)
+   {  contextRunner=!contextRunner;
+      updatePassList();
+   }
+   if (amortized && material!=null && !shared)
+      scheduleLevels();
+} // preFrame ==================================================================
+
+
+
+/**
+ * Selects the levels that are rendered in the next frame from their update
+ * periods, and rebuilds the pass list if the selection changed. A level that
+ * has not been rendered since it was built or activated is always selected.
+ */
+// =============================================================================
+   private void scheduleLevels()
+// =============================================================================
+{
+   boolean changed=false;
+   for (int ii=0; ii<numPasses; ii++)
+   {  boolean scheduled=!levelValid[ii] 
+       || isScheduled(updatePeriods[ii], ii, frameCount);
+      if (scheduled!=levelScheduled[ii])
+      {  levelScheduled[ii]=scheduled;
+         changed=true;
+      }
+      if (scheduled)
+         levelValid[ii]=true;
+   }
+   frameCount++;
+   if (changed)
+      updatePassList();
+} // scheduleLevels ============================================================
+
+
+
+/**
+ * Tells if a level is updated in a frame. The frames of the levels with the
+ * same period are staggered by the level index, so they are not all updated
+ * in the same frame.
+ * 
+ * @param period  The update period of the level in frames.
+ * @param level
+ * @param frame   The frame counter.
+ * @return
+ */
+// =============================================================================
+   static boolean isScheduled(int period, int level, long frame)
+// =============================================================================
+{  return period<=1 || (frame+level)%period==0;
+} // ===========================================================================
+
+
+
+/**
+ * Marks a level as outdated, so it is rendered in the next frame regardless
+ * of its update period.
+ */
+// =============================================================================
+   private void invalidateLevel(int level)
+// =============================================================================
+{  levelValid[level]=false;
+   levelScheduled[level]=true;
+} // ===========================================================================
+
+   
+
+/**
+ * Extracts the material's Glow techniques (if specified) and renders it into
+ * the preGlowPass, if GlowMode is not Scene. With a glow registry only its
+ * geometries are rendered, otherwise the whole queue of the viewport. With
+ * static scene caching, it decides first if the filter is idle in this frame.
+ * 
+ * @param queue   The queue of the rendered scene.
+ */
+// =============================================================================
+   @Override
+   protected void postQueue(RenderQueue queue)
+// =============================================================================
+{  if (staticSceneCaching)
+      updateIdle();
+   if (glowMode==GlowMode.Scene || idle)
+      return;
+
+   if (glowCulling)
+   {  glowVisible=hasVisibleGlow(queue);
+      if (glowMode==GlowMode.Objects)
+         setBloomSkipped(!glowVisible);
+   }
+// Without visible glow the glow map only has to be cleared once.
+   if (!glowVisible && (glowMapClear || bloomSkipped))
+      return;
+
+   renderManager.getRenderer().setBackgroundColor(ColorRGBA.BlackNoAlpha);            
+   renderManager.getRenderer().setFrameBuffer(
+    preGlowPass.getRenderFrameBuffer());
+   renderManager.getRenderer().clearBuffers(true, true, true);
+   if (glowVisible)
+   {  renderManager.setForcedTechnique("Glow");
+      if (glowRegistry!=null)
+         glowRegistry.render(renderManager, viewPort.getCamera());
+      else
+         renderManager.renderViewPortQueues(viewPort, false);         
+      renderManager.setForcedTechnique(null);
+   }
+   glowMapClear=!glowVisible;
+   renderManager.getRenderer().setFrameBuffer(
+    viewPort.getOutputFrameBuffer());
+} // postQueue =================================================================
+
+
+
+/**
+ * Tells if a glowing geometry is visible in this frame: a registered one in
+ * the view frustum, or, without a registry, a geometry in the culled render
+ * queue of the viewport.
+ * 
+ * @param queue  The queue of the rendered scene.
+ */
+// =============================================================================
+   private boolean hasVisibleGlow(RenderQueue queue)
+// =============================================================================
+{
+   if (glowRegistry!=null)
+      return glowRegistry.hasVisibleGlow(viewPort.getCamera());
+   if (QUEUE_LISTS!=null)
+      try
+      {  for (int ii=0; ii<QUEUE_LISTS.length; ii++)
+         {  GeometryList list=(GeometryList)QUEUE_LISTS[ii].get(queue);
+            for (int jj=0; jj<list.size(); jj++)
+               if (GlowRegistry.isGlowing(list.get(jj).getMaterial()))
+                  return true;
+         }
+         return false;
+      }
+      catch (IllegalAccessException e)
+      {
+      }
+   List<Spatial> scenes=viewPort.getScenes();
+   for (int ii=0; ii<scenes.size(); ii++)
+      if (hasVisibleGlow(scenes.get(ii)))
+         return true;
+   return false;
+} // ===========================================================================
+
+
+
+/**
+ * Searches the spatials that passed the frustum culling of the viewport in
+ * this frame for a glowing geometry, if the lists of the queue cannot be
+ * read.
+ */
+// =============================================================================
+   private static boolean hasVisibleGlow(Spatial spatial)
+// =============================================================================
+{
+   if (spatial.getLastFrustumIntersection()==Camera.FrustumIntersect.Outside)
+      return false;
+   if (spatial instanceof Geometry)
+      return GlowRegistry.isGlowing(((Geometry)spatial).getMaterial());
+   if (spatial instanceof Node)
+   {  List<Spatial> children=((Node)spatial).getChildren();
+      for (int ii=0; ii<children.size(); ii++)
+         if (hasVisibleGlow(children.get(ii)))
+            return true;
+   }
+   return false;
+} // hasVisibleGlow ============================================================
+
+
+
+/**
+ * Provides the geometry lists of all buckets of a render queue, which
+ * RenderQueue keeps to itself.
+ * 
+ * @return  The fields, or <code>null</code> if they cannot be read.
+ */
+// =============================================================================
+   private static Field[] queueLists()
+// =============================================================================
+{
+   String[] names={"opaqueList", "transparentList", "translucentList",
+    "skyList", "guiList"};
+   try
+   {  Field[] fields=new Field[names.length];
+      for (int ii=0; ii<names.length; ii++)
+      {  fields[ii]=RenderQueue.class.getDeclaredField(names[ii]);
+         if (fields[ii].getType()!=GeometryList.class)
+            return null;
+         fields[ii].setAccessible(true);
+      }
+      return fields;
+   }
+   catch (NoSuchFieldException e)
+   {  return null;
+   }
+   catch (RuntimeException e)
+   {  return null;
+   }
+} // queueLists ================================================================
+
+
+
+/**
+ * Skips the bloom chain of <code>GlowMode.Objects</code> while no glowing
+ * geometry is visible, compositing the scene texture as it is. When the
+ * chain is resumed, all levels are rendered again.
+ */
+// =============================================================================
+   private void setBloomSkipped(boolean skipped)
+// =============================================================================
+{
+   if (skipped==bloomSkipped)
+      return;
+   bloomSkipped=skipped;
+   if (skipped && passThroughMat==null)
+      passThroughMat=createMaterial("MatDefs/MipmapBloom/Accumulation.j3md");
+   if (!skipped)
+      for (int ii=0; ii<numPasses; ii++)
+         invalidateLevel(ii);
+   updatePassList();
+} // setBloomSkipped ===========================================================
+
+
+   
+// =============================================================================
+   @Override
+   protected void cleanUpFilter(Renderer r)
+// =============================================================================
+{  abandonBuild();
+   releaseAbandoned(true);
+   if (shared)
+      leaveContext(r);
+   releaseTargets();
+   targetPool.dispose(r);
+} // cleanUpFilter =============================================================
+
+
+
+/**
+ * Removes the filter from the chain of its bloom context.
+ * @param r  The renderer, which deletes the targets of the chain when the
+ *           filter is its last view, or <code>null</code>.
+ */
+// =============================================================================
+   private void leaveContext(Renderer r)
+// =============================================================================
+{  context.leave(this, r);
+   shared=false;
+   contextRunner=false;
+} // leaveContext ==============================================================
+
+   
+   
+/**
+ * Provides the power coefficient of the intensity equation.
+ * @return  The power coefficient.
+ */
+// =============================================================================
+   public float getBloomPower() {return bloomPower;}
+// =============================================================================
+
+   
+   
+/**
+ * Sets weight factors for each mipmap by calculating the intensity equation
+ * (see above).
+ * 
+ * @param bloomFactor  A constant premultiplication factor that should be
+ *                     less than 1.
+ * @param bloomPower   A greater value increases the bloom intensity of each
+ *                     mipmap level.
+ */
+// =============================================================================
+   public void setBloomIntensity(float bloomFactor, float bloomPower)
+// =============================================================================
+{
+// Animated intensities mostly change the factor, so the power series is only
+// recalculated when the power changes.
+   if (bloomPower!=seriesPower)
+   {  for (int ii=0; ii<MAX_LEVELS; ii++)
+         powerSeries[ii]=FastMath.pow(bloomPower, ii);
+      seriesPower=bloomPower;
+   }
+   for (int ii=0; ii<MAX_LEVELS; ii++)
+      weights[ii]=bloomFactor*powerSeries[ii];
+   if (material!=null)
+      updateLevels();
+
+   this.bloomFactor=bloomFactor;
+   this.bloomPower=bloomPower;
+} // setBloomIntensity =========================================================
+
+
+
+/**
+ * Determines the levels whose effective weight reaches the prune epsilon and
+ * binds only their textures to the accumulation material. Levels read from the
+ * mip chain are sampled up to the last active one, with a zero weight if they
+ * are pruned. If the set of active levels changed, the pass list is rebuilt.
+ */
+// =============================================================================
+   private void updateLevels()
+// =============================================================================
+{
+   if (quality==Quality.Progressive)
+   {  updateProgressiveLevels();
+      return;
+   }
+
+   boolean changed=false;
+   int chain=0;
+   for (int ii=0; ii<numPasses; ii++)
+   {  boolean active=pruneEpsilon<=0.0f
+       || Math.abs(weights[ii]*expectedLuminance)>=pruneEpsilon;
+      levelWeights[ii]=active? weights[ii]:0.0f;
+      if (levelTextures[ii]==null)
+      {  if (active)
+            chain=ii+1;
+      }
+      else if (active!=levelActive[ii])
+      {  if (active)
+            material.setTexture(LEVEL_TEXTURES[ii], levelTextures[ii]);
+         else
+            material.clearParam(LEVEL_TEXTURES[ii]);
+      }
+      if (active!=levelActive[ii])
+      {  levelActive[ii]=active;
+         if (active)
+            invalidateLevel(ii);
+         changed=true;
+      }
+   }
+   material.setParam("Weights", VarType.FloatArray, levelWeights);
+   if (changed)
+      markDirty();
+   if (chain!=chainLevels)
+   {  chainLevels=chain;
+      if (chain>0)
+         material.setInt("ChainLevels", chain);
+      else
+         material.clearParam("ChainLevels");
+   }
+   if (changed)
+      updatePassList();
+} // updateLevels ==============================================================
+
+
+
+/**
+ * Sets the weights of the upsample passes of <code>Quality.Progressive</code>.
+ * The chain starts at the last active level, whose upsample source is its
+ * own downsampled texture, while all other upsample passes read the upsample
+ * result of the next smaller level. Pruned levels in between keep their
+ * place in the chain with a zero weight.
+ */
+// =============================================================================
+   private void updateProgressiveLevels()
+// =============================================================================
+{
+   boolean changed=false;
+   int last=-1;
+   for (int ii=0; ii<numPasses; ii++)
+   {  boolean active=pruneEpsilon<=0.0f
+       || Math.abs(weights[ii]*expectedLuminance)>=pruneEpsilon;
+      levelWeights[ii]=active? weights[ii]:0.0f;
+      if (active)
+         last=ii;
+      if (active!=levelActive[ii])
+      {  levelActive[ii]=active;
+         changed=true;
+      }
+   }
+
+// The weights are vectors that are updated in place, since float parameters
+// would be boxed on every change.
+   for (int ii=0; ii<last; ii++)
+   {  upWeights[ii].set(levelWeights[ii], ii==last-1? levelWeights[last]
+       :1.0f);
+      upPasses[ii].getPassMaterial().setParam("Weights", VarType.Vector2,
+       upWeights[ii]);
+   }
+
+   if (last!=progressiveLast)
+   {
+//    The upsample chain is wired anew, so no previous result can be reused.
+      progressiveLast=last;
+      for (int ii=0; ii<numPasses; ii++)
+         invalidateLevel(ii);
+      changed=true;
+      for (int ii=0; ii<last; ii++)
+         upPasses[ii].getPassMaterial().setTexture("Texture", ii==last-1
+          ? levelPasses[last].getRenderedTexture()
+          :upPasses[ii+1].getRenderedTexture());
+      if (last<0)
+         material.clearParam(LEVEL_TEXTURES[0]);
+      else
+         material.setTexture(LEVEL_TEXTURES[0], last==0
+          ? levelPasses[0].getRenderedTexture()
+          :upPasses[0].getRenderedTexture());
+   }
+
+// A single level is composited directly with its own weight. The other
+// weights are applied by the upsample passes, which have to run again.
+   compositeWeights[0]=last==0? levelWeights[0]:1.0f;
+   markDirty();
+   material.setParam("Weights", VarType.FloatArray, compositeWeights);
+
+   if (changed)
+      updatePassList();
+} // updateProgressiveLevels ===================================================
+
+
+
+/**
+ * Fills postRenderPasses with the passes the active levels depend on: each
+ * level is downsampled from the previous one, so the mipmap passes are
+ * needed up to the last active level, while the blur passes are only needed
+ * for the active levels themselves. In foveated mode the extract of the
+ * periphery goes with the first level outside the focus. The passes of
+ * levels that are not scheduled in this frame are left out, their targets
+ * keep the last result. While the filter is idle or the bloom is skipped, the
+ * list is empty.
+ * <p>
+ * A filter that shares a chain only renders its extract pass, and the passes
+ * of the chain if it renders them in this frame, even while it is idle or
+ * its bloom is skipped, since the other views depend on them.
+ */
+// =============================================================================
+   private void updatePassList()
+// =============================================================================
+{
+   postRenderPasses.clear();
+   if (shared)
+   {  if (!idle && !bloomSkipped && extractPass!=null)
+         postRenderPasses.add(extractPass);
+      if (contextRunner)
+         postRenderPasses.addAll(context.getPasses());
+      return;
+   }
+   if (idle || bloomSkipped)
+      return;
+   int last=-1;
+   for (int ii=0; ii<numPasses; ii++)
+      if (levelActive[ii])
+         last=ii;
+   if (last<0)
+      return;
+
+   if (extractPass!=null)
+      postRenderPasses.add(extractPass);
+   if (upPasses!=null)
+   {  for (int ii=0; ii<=last; ii++)
+         if (levelScheduled[ii])
+            postRenderPasses.add(levelPasses[ii]);
+      for (int ii=last-1; ii>=0; ii--)
+         if (levelScheduled[ii])
+            postRenderPasses.add(upPasses[ii]);
+      return;
+   }
+   for (int ii=0; ii<=last; ii++)
+   {  if (!levelScheduled[ii])
+         continue;
+      if (ii==focusCount && peripheryPass!=null)
+         postRenderPasses.add(peripheryPass);
+      if (levelPasses[ii]!=null)
+         postRenderPasses.add(levelPasses[ii]);
+      if (levelActive[ii] && hBlurPasses[ii]!=null)
+      {  postRenderPasses.add(hBlurPasses[ii]);
+         postRenderPasses.add(vBlurPasses[ii]);
+      }
+   }
+} // updatePassList ============================================================
+
+
+
+/**
+ * Provides the prune epsilon.
+ * @return  The epsilon, 0 if pruning is off.
+ */
+// =============================================================================
+   public float getPruneEpsilon() {return pruneEpsilon;}
+// =============================================================================
+
+
+
+/**
+ * Sets the epsilon below which a mipmap level is considered negligible. The
+ * effective weight of a level is its weight from the intensity equation times
+ * the expected luminance. Negligible levels are neither rendered, nor blurred,
+ * nor sampled by the accumulation, and come back as soon as their weight rises
+ * above the epsilon again, without a reinitialization.
+ * 
+ * @param pruneEpsilon  The epsilon, 0 (default) to render all levels.
+ */
+// =============================================================================
+   public void setPruneEpsilon(float pruneEpsilon)
+// =============================================================================
+{  this.pruneEpsilon=pruneEpsilon;
+   if (material!=null)
+      updateLevels();
+} // setPruneEpsilon ===========================================================
+
+
+
+/**
+ * Provides the expected luminance of the extracted colors.
+ * @return
+ */
+// =============================================================================
+   public float getExpectedLuminance() {return expectedLuminance;}
+// =============================================================================
+
+
+
+/**
+ * Sets the expected luminance of the extracted colors, which scales the
+ * weights compared with the prune epsilon. A scene with very bright
+ * highlights needs a higher value to keep levels with a low weight.
+ * 
+ * @param expectedLuminance   The luminance, 1 by default.
+ */
+// =============================================================================
+   public void setExpectedLuminance(float expectedLuminance)
+// =============================================================================
+{  this.expectedLuminance=expectedLuminance;
+   if (material!=null)
+      updateLevels();
+} // setExpectedLuminance ======================================================
+
+
+
+/**
+ * Checks if a mipmap level is rendered, i.e. not pruned.
+ * @param level
+ * @return  <code>true</code> if the level contributes to the bloom.
+ */
+// =============================================================================
+   public boolean isLevelActive(int level)
+// =============================================================================
+{  return levelActive!=null && level<levelActive.length && levelActive[level];
+} // isLevelActive =============================================================
+
+
+
+/**
+ * Provides the update period of a level.
+ * @param level   0 to {@link #MAX_LEVELS}-1.
+ * @return  The period in frames, 1 if the level is updated every frame.
+ */
+// =============================================================================
+   public int getUpdatePeriod(int level) {return updatePeriods[level];}
+// =============================================================================
+
+
+
+/**
+ * Sets the number of frames between two updates of a level. In between, the
+ * level and its blur or upsample pass are not rendered and their targets are
+ * reused, which suits the deep levels with low frequency content. Levels with
+ * the same period are updated in different frames, so the cost per frame
+ * stays about the same. Changing a period does not reinitialize the filter.
+ * 
+ * @param level   0 to {@link #MAX_LEVELS}-1.
+ * @param period  The period in frames, 1 (default) to update every frame.
+ */
+// =============================================================================
+   public void setUpdatePeriod(int level, int period)
+// =============================================================================
+{
+   if (level<0 || level>=MAX_LEVELS)
+      throw new IllegalArgumentException("level must be 0 to "
+       +(MAX_LEVELS-1)+": "+level);
+   if (period<1)
+      throw new IllegalArgumentException("period must be at least 1: "
+       +period);
+   updatePeriods[level]=period;
+   updateAmortization();
+   markDirty();
+} // setUpdatePeriod ===========================================================
+
+
+
+/**
+ * Sets the update period of all levels from the specified one on, e.g. 
+ * <code>setUpdatePeriods(5, 2)</code> updates the levels 5 and up every 
+ * second frame.
+ * 
+ * @param fromLevel  The first level, 0 to {@link #MAX_LEVELS}-1.
+ * @param period     The period in frames, see 
+ *                   {@link #setUpdatePeriod(int, int)}.
+ */
+// =============================================================================
+   public void setUpdatePeriods(int fromLevel, int period)
+// =============================================================================
+{
+   for (int ii=fromLevel; ii<MAX_LEVELS; ii++)
+      setUpdatePeriod(ii, period);
+} // setUpdatePeriods ==========================================================
+
+
+
+/**
+ * Turns the scheduling of the levels on if a level has a period above 1, or 
+ * restores the passes of all levels if none has.
+ */
+// =============================================================================
+   private void updateAmortization()
+// =============================================================================
+{
+   amortized=false;
+   for (int ii=0; ii<MAX_LEVELS; ii++)
+      amortized|=updatePeriods[ii]>1;
+   if (!amortized && material!=null)
+   {  Arrays.fill(levelScheduled, true);
+      updatePassList();
+   }
+} // updateAmortization ========================================================
+
+
+
+/**
+ * Provides the registry of the geometries rendered into the glow map.
+ * @return  <code>null</code> if the whole queue is rendered.
+ */
+// =============================================================================
+   public GlowRegistry getGlowRegistry() {return glowRegistry;}
+// =============================================================================
+
+
+
+/**
+ * Sets the registry of the geometries rendered into the glow map of
+ * <code>GlowMode.Objects</code> and <code>GlowMode.SceneAndObjects</code>.
+ * Without a registry all queued geometries of the viewport are rendered with
+ * the Glow technique. Does not reinitialize the filter.
+ * 
+ * @param glowRegistry  The registry, or <code>null</code> (default).
+ */
+// =============================================================================
+   public void setGlowRegistry(GlowRegistry glowRegistry)
+// =============================================================================
+{  this.glowRegistry=glowRegistry;
+   markDirty();
+} // ===========================================================================
+
+
+
+/**
+ * Tells if the glow map is rendered only while a glowing geometry is visible.
+ * @return
+ */
+// =============================================================================
+   public boolean isGlowCulling() {return glowCulling;}
+// =============================================================================
+
+
+
+/**
+ * Turns the visibility check of the glowing geometries on or off. With the
+ * check, the pre-glow pass of <code>GlowMode.Objects</code> and
+ * <code>GlowMode.SceneAndObjects</code> is not rendered while none of them is
+ * visible, and the glow map is cleared once instead. In
+ * <code>GlowMode.Objects</code> the whole bloom chain is skipped then, and
+ * the scene is composited as it is.
+ * <p>
+ * With a glow registry, its glowing geometries are checked against the view
+ * frustum. Otherwise the culled render queue of the viewport is searched up
+ * to the first glowing geometry. See {@link GlowRegistry#isGlowing} for the
+ * geometries that count as glowing.
+ * 
+ * @param glowCulling  <code>false</code> by default.
+ */
+// =============================================================================
+   public void setGlowCulling(boolean glowCulling)
+// =============================================================================
+{
+   this.glowCulling=glowCulling;
+   glowVisible=true;
+   if (!glowCulling && material!=null)
+      setBloomSkipped(false);
+} // setGlowCulling ============================================================
+
+
+
+/**
+ * Tells if a glowing geometry was visible in the current frame. Always
+ * <code>true</code> without glow culling.
+ * @return
+ */
+// =============================================================================
+   public boolean isGlowVisible() {return glowVisible;}
+// =============================================================================
+
+
+
+/**
+ * Tells if the filter skips the bloom chain when nothing changed.
+ * @return
+ */
+// =============================================================================
+   public boolean isStaticSceneCaching() {return staticSceneCaching;}
+// =============================================================================
+
+
+
+/**
+ * Turns static scene caching on or off. With caching, the filter renders its
+ * passes only after {@link #markDirty()} was called or a setting of the
+ * filter changed, and composites the bloom of the last rendered frame
+ * otherwise, which leaves a single pass, e.g. for pause menus, loading
+ * screens or idle editor views. After a change the passes run until every
+ * level has been updated once (see {@link #setUpdatePeriod(int, int)}).
+ * 
+ * @param staticSceneCaching  <code>false</code> by default.
+ */
+// =============================================================================
+   public void setStaticSceneCaching(boolean staticSceneCaching)
+// =============================================================================
+{
+   this.staticSceneCaching=staticSceneCaching;
+   markDirty();
+   if (!staticSceneCaching && idle)
+   {  idle=false;
+      if (material!=null)
+         updatePassList();
+   }
+} // setStaticSceneCaching =====================================================
+
+
+
+/**
+ * Tells if the camera and the scene are checked for changes each frame.
+ * @return
+ */
+// =============================================================================
+   public boolean isAutoInvalidate() {return autoInvalidate;}
+// =============================================================================
+
+
+
+/**
+ * Turns the automatic change detection of static scene caching on or off. It
+ * compares the view projection matrix of the camera and a hash over the
+ * spatials of the scenes of the viewport, with their world transforms, cull 
+ * hints and materials, to the ones of the last frame. Changes of material
+ * parameters, lights or the contents of textures are not detected and need a
+ * call of {@link #markDirty()}. The hash visits every spatial each frame; for
+ * very large scenes calling {@link #markDirty()} directly is cheaper.
+ * 
+ * @param autoInvalidate  <code>false</code> by default.
+ */
+// =============================================================================
+   public void setAutoInvalidate(boolean autoInvalidate)
+// =============================================================================
+{  this.autoInvalidate=autoInvalidate;
+   markDirty();
+} // ===========================================================================
+
+
+
+/**
+ * Tells the filter that the scene changed, so the passes are rendered again.
+ * Only needed with static scene caching.
+ */
+// =============================================================================
+   public void markDirty()
+// =============================================================================
+{
+   int frames=1;
+   for (int ii=0; ii<MAX_LEVELS; ii++)
+      frames=Math.max(frames, updatePeriods[ii]);
+   pendingFrames=Math.max(pendingFrames, frames);
+} // markDirty =================================================================
+
+
+
+/**
+ * Tells if the filter skipped its passes in the current frame.
+ * @return  <code>true</code> if only the cached bloom is composited.
+ */
+// =============================================================================
+   public boolean isIdle() {return idle;}
+// =============================================================================
+
+
+
+/**
+ * Decides if the passes are rendered in this frame, and empties or restores
+ * the pass list when that changes.
+ */
+// =============================================================================
+   private void updateIdle()
+// =============================================================================
+{
+   if (autoInvalidate && sceneChanged())
+      markDirty();
+   boolean wasIdle=idle;
+   idle=pendingFrames<=0;
+   if (!idle)
+      pendingFrames--;
+   if (idle!=wasIdle)
+      updatePassList();
+} // updateIdle ================================================================
+
+
+
+/**
+ * Compares the camera and the scenes of the viewport to the last frame.
+ * @return  <code>true</code> if something changed.
+ */
+// =============================================================================
+   private boolean sceneChanged()
+// =============================================================================
+{
+   boolean changed=false;
+   Matrix4f viewProjection=viewPort.getCamera().getViewProjectionMatrix();
+   if (!viewProjection.equals(lastViewProjection))
+   {  lastViewProjection.set(viewProjection);
+      changed=true;
+   }
+   sceneHash.hash=1;
+   List<Spatial> scenes=viewPort.getScenes();
+   for (int ii=0; ii<scenes.size(); ii++)
+      scenes.get(ii).depthFirstTraversal(sceneHash);
+   if (sceneHash.hash!=lastSceneHash)
+   {  lastSceneHash=sceneHash.hash;
+      changed=true;
+   }
+   return changed;
+} // sceneChanged ==============================================================
+
+
+
+/**
+ * Hashes the spatials of a scene with the state that changes their rendering.
+ */
+// =============================================================================
+   private static final class SceneHash implements SceneGraphVisitor
+// =============================================================================
+{
+   int hash;
+
+   @Override
+   public void visit(Spatial spatial)
+   {  int h=System.identityHashCode(spatial);
+      h=31*h+spatial.getCullHint().ordinal();
+      h=31*h+spatial.getWorldTransform().getTranslation().hashCode();
+      h=31*h+spatial.getWorldTransform().getRotation().hashCode();
+      h=31*h+spatial.getWorldTransform().getScale().hashCode();
+      if (spatial instanceof Geometry)
+         h=31*h+System.identityHashCode(((Geometry)spatial).getMaterial());
+      hash=31*hash+h;
+   }
+} // SceneHash =================================================================
+
+
+/**
+ * Provides the exposure cutoff.
+ * @return  Exposure cutoff.
+ */    
+// =============================================================================
+   public float getExposureCutOff() {return exposureCutOff;}
+// =============================================================================
+
+   
+
+/**
+ * Define the color threshold on which the bloom will be applied (0.0 to 1.0)
+ * @param exposureCutOff   The color threshold value.
+ */
+// =============================================================================
+   public void setExposureCutOff(float exposureCutOff)
+// =============================================================================
+{  this.exposureCutOff=exposureCutOff;
+   extractDirty=true;
+} // setExposureCutoff =========================================================
+
+
+
+/**
+ * Provides the exposure power of the intensity equation.
+ * @return
+ */
+// =============================================================================
+   public float getExposurePower() {return exposurePower;}
+// =============================================================================
+
+   
+   
+/**
+ * Sets the exposure power value of the intensity equation (see above).
+ * @param exposurePower
+ */
+// =============================================================================
+   public void setExposurePower(float exposurePower)
+// =============================================================================
+{  this.exposurePower=exposurePower;
+   extractDirty=true;
+} // setExposurePower ==========================================================
+
+
+
+/**
+ * Sets the exposure power from any thread. The value is taken over at the
+ * start of the next frame; of several values published in between, only the
+ * last one is applied. Lock-free and allocation-free.
+ * 
+ * @param exposurePower
+ */
+// =============================================================================
+   public void publishExposurePower(float exposurePower)
+// =============================================================================
+{  publishedExposurePower.set(Float.floatToRawIntBits(exposurePower));
+   publish(PUBLISHED_EXPOSURE_POWER);
+} // ===========================================================================
+
+
+
+/**
+ * Sets the exposure cutoff from any thread, see 
+ * {@link #publishExposurePower(float)}.
+ * 
+ * @param exposureCutOff
+ */
+// =============================================================================
+   public void publishExposureCutOff(float exposureCutOff)
+// =============================================================================
+{  publishedExposureCutOff.set(Float.floatToRawIntBits(exposureCutOff));
+   publish(PUBLISHED_EXPOSURE_CUTOFF);
+} // ===========================================================================
+
+
+
+/**
+ * Sets the bloom intensity from any thread, see 
+ * {@link #publishExposurePower(float)}. Factor and power are published 
+ * together, so the render thread never sees the factor of one call with the
+ * power of another.
+ * 
+ * @param bloomFactor
+ * @param bloomPower
+ */
+// =============================================================================
+   public void publishBloomIntensity(float bloomFactor, float bloomPower)
+// =============================================================================
+{  publishedIntensity.set((long)Float.floatToRawIntBits(bloomFactor)<<32
+    | (Float.floatToRawIntBits(bloomPower)&0xffffffffL));
+   publish(PUBLISHED_INTENSITY);
+} // ===========================================================================
+
+
+
+/**
+ * Marks a published value as pending, after the value itself was stored.
+ */
+// =============================================================================
+   private void publish(int flag)
+// =============================================================================
+{
+   int pending;
+   do
+      pending=published.get();
+   while ((pending&flag)==0 && !published.compareAndSet(pending, pending|flag));
+} // publish ===================================================================
+
+
+
+/**
+ * Applies the values published since the last frame. The pending flags are
+ * cleared before the values are read, so a value published meanwhile is
+ * applied again in the next frame, but never lost.
+ */
+// =============================================================================
+   private void applyPublished()
+// =============================================================================
+{
+   int pending=published.getAndSet(0);
+   if ((pending&PUBLISHED_EXPOSURE_POWER)!=0)
+   {  float value=Float.intBitsToFloat(publishedExposurePower.get());
+      if (value!=exposurePower)
+         setExposurePower(value);
+   }
+   if ((pending&PUBLISHED_EXPOSURE_CUTOFF)!=0)
+   {  float value=Float.intBitsToFloat(publishedExposureCutOff.get());
+      if (value!=exposureCutOff)
+         setExposureCutOff(value);
+   }
+   if ((pending&PUBLISHED_INTENSITY)!=0)
+   {  long bits=publishedIntensity.get();
+      float factor=Float.intBitsToFloat((int)(bits>>>32));
+      float power=Float.intBitsToFloat((int)bits);
+      if (factor!=bloomFactor || power!=bloomPower)
+         setBloomIntensity(factor, power);
+   }
+} // applyPublished ============================================================
+
+   
+
+/**
+ * Provides the glow mode of the bloom filter.
+ * @return
+ */
+// =============================================================================
+   public GlowMode getGlowMode() {return glowMode;}
+// =============================================================================
+
+
+
+/**
+ * Sets the glow mode of the bloom filter.
+ * @param glowMode   See above.
+ */
+// =============================================================================
+   public void setGlowMode(GlowMode glowMode)
+// =============================================================================
+{  this.glowMode=glowMode;
+   if (assetManager!=null)             // Dirty initialization check.
+      reInitFilter();
+} // setHighQuality ============================================================
+
+   
+   
+/**
+ * Provides the quality of the bloom filter.
+ * @return
+ */
+// =============================================================================
+   public Quality getQuality() {return quality;}
+// =============================================================================
+
+
+
+/**
+ * Sets the quality of the bloom filter.
+ * @param quality    See above.
+ */
+// =============================================================================
+   public void setQuality(Quality quality)
+// =============================================================================
+{  this.quality=quality;
+   if (assetManager!=null)             // Dirty initialization check.
+      reInitFilter();
+} // setQuality ================================================================
+
+
+
 /**
  * Sets the quality of the bloom filter.
  * @param enabled    <code>true</code> for <code>Quality.High</code>.
@@ -548,8 +2661,9 @@ import java.util.ArrayList;
  * <p>
  * A lower value means less blur at higher computational cost, as the last level
  * will have a high resolution. The coefficient shall therefore be chosen in
- * such a way, that the highest (7th) level will have a resolution of just a few
- * pixels.
+ * such a way, that the last level will have a resolution of just a few
+ * pixels, or the level count shall be chosen automatically, see 
+ * {@link #setAutoLevels(int)}.
  * 
  * @param downSamplingCoef The downsampling coefficient.
  */
@@ -564,6 +2678,569 @@ import java.util.ArrayList;
 
 
 
+/**
+ * Provides the fixed number of mipmap levels.
+ * @return  The number of levels, used if the automatic level count is off.
+ */
+// =============================================================================
+   public int getNumLevels() {return numLevels;}
+// =============================================================================
+
+
+
+/**
+ * Sets a fixed number of mipmap levels and turns the automatic level count
+ * off. Each level costs one pass, and two more for the blur in
+ * <code>Quality.High</code>, so levels that are only a few pixels wide should
+ * be avoided.
+ * 
+ * @param numLevels  1 to {@link #MAX_LEVELS}.
+ */
+// =============================================================================
+   public void setNumLevels(int numLevels)
+// =============================================================================
+{
+   if (numLevels<1 || numLevels>MAX_LEVELS)
+      throw new IllegalArgumentException("numLevels must be 1 to "
+       +MAX_LEVELS+": "+numLevels);
+   this.numLevels=numLevels;
+   this.autoLevelSize=0;
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setNumLevels ==============================================================
+
+
+
+/**
+ * Provides the target size of the automatic level count.
+ * @return  The size in pixels, or 0 if the level count is fixed.
+ */
+// =============================================================================
+   public int getAutoLevelSize() {return autoLevelSize;}
+// =============================================================================
+
+
+
+/**
+ * Chooses the number of mipmap levels automatically from the resolution:
+ * levels are added until the smaller dimension of the last level has reached
+ * the specified size (at most {@link #MAX_LEVELS} levels).
+ * 
+ * @param minLevelSize  The target size of the last level in pixels, or 0 to
+ *                      use the fixed number of levels again.
+ */
+// =============================================================================
+   public void setAutoLevels(int minLevelSize)
+// =============================================================================
+{
+   this.autoLevelSize=Math.max(0, minLevelSize);
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setAutoLevels =============================================================
+
+
+
+/**
+ * Provides the number of mipmap levels used at the specified resolution.
+ * @param w  The width of the framebuffer.
+ * @param h  The height of the framebuffer.
+ * @return  The number of levels.
+ */
+// =============================================================================
+   public int getLevelCount(int w, int h)
+// =============================================================================
+{  return levelCount(stereo? w/2:w, h, downSamplingCoef, numLevels,
+    autoLevelSize);
+} // getLevelCount =============================================================
+
+
+
+/**
+ * Provides the storage of the mipmap levels.
+ * @return
+ */
+// =============================================================================
+   public LevelStorage getLevelStorage() {return levelStorage;}
+// =============================================================================
+
+
+
+/**
+ * Sets the storage of the mipmap levels, see {@link LevelStorage}.
+ * @param levelStorage
+ */
+// =============================================================================
+   public void setLevelStorage(LevelStorage levelStorage)
+// =============================================================================
+{
+   this.levelStorage=levelStorage;
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setLevelStorage ===========================================================
+
+
+
+/**
+ * Tells if the extract is fused into the first downsampling pass.
+ * @return
+ */
+// =============================================================================
+   public boolean isFusedExtract() {return fusedExtract;}
+// =============================================================================
+
+
+
+/**
+ * Fuses the extraction of the bright pixels (threshold, exposure power and
+ * glow map) into the first downsampling pass, which samples the scene itself
+ * at the resolution of level 0. This removes the full resolution extract
+ * texture with its write and read per frame. Each tap of the first pass is
+ * thresholded separately, so the result differs slightly from extracting
+ * first.
+ * @param fusedExtract
+ */
+// =============================================================================
+   public void setFusedExtract(boolean fusedExtract)
+// =============================================================================
+{
+   this.fusedExtract=fusedExtract;
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setFusedExtract ===========================================================
+
+
+
+/**
+ * Tells if the framebuffer holds two eyes side by side.
+ * @return
+ */
+// =============================================================================
+   public boolean isStereo() {return stereo;}
+// =============================================================================
+
+
+
+/**
+ * Sets the stereo mode, for a framebuffer that holds the left and the right
+ * eye side by side, e.g. for VR. Every pass then clamps its samples into the
+ * eye of the pixel, so no bloom bleeds across the seam, and both eyes are
+ * done by one set of passes. The levels are downsampled per eye, so the
+ * width of the framebuffer should be even.
+ * <p>
+ * The levels are sampled without mipmaps and are always stored in separate
+ * textures, whatever the level storage. The glow map is sampled by the
+ * extract without clamping.
+ * @param stereo
+ */
+// =============================================================================
+   public void setStereo(boolean stereo)
+// =============================================================================
+{
+   this.stereo=stereo;
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setStereo =================================================================
+
+
+
+/**
+ * Provides the size of the focus rectangle of the foveated mode.
+ * @return  The width as a fraction of the screen width.
+ */
+// =============================================================================
+   public float getFocusWidth() {return focusWidth;}
+// =============================================================================
+
+
+
+/**
+ * @return  The height as a fraction of the screen height.
+ */
+// =============================================================================
+   public float getFocusHeight() {return focusHeight;}
+// =============================================================================
+
+
+
+/**
+ * @return  The number of levels that are only rendered in the focus
+ *          rectangle, 0 if foveation is off.
+ */
+// =============================================================================
+   public int getFocusLevels() {return focusLevels;}
+// =============================================================================
+
+
+
+/**
+ * Sets the foveated mode, e.g. for VR or very high resolutions, where the
+ * high resolution levels are wasted outside the area the viewer looks at.
+ * The extract and the first levels are only rendered in a focus rectangle,
+ * into targets of its size, and the periphery gets the low frequency levels
+ * only, which are downsampled from an extract of the whole screen at the
+ * resolution of level 1. The accumulation fades the focus levels out towards
+ * the edges of the rectangle, except at the border of the screen.
+ * <p>
+ * The rectangle is moved by {@link #setFocus(float, float)} without a
+ * reinitialization. Foveation applies to <code>Quality.High</code> and
+ * <code>Quality.Low</code> with separate level storage, without stereo mode
+ * and without a shared chain, and is ignored otherwise. At least the last
+ * level covers the whole screen. The CPU reference does not model it.
+ * 
+ * @param focusWidth   The width of the focus rectangle, 0 to 1 of the screen.
+ * @param focusHeight  The height, 0 to 1 of the screen.
+ * @param focusLevels  The number of levels in the focus rectangle only, 0 
+ *                     (default) to turn foveation off.
+ */
+// =============================================================================
+   public void setFoveation(float focusWidth, float focusHeight, 
+    int focusLevels)
+// =============================================================================
+{
+   BloomConfig.checkFoveation(focusWidth, focusHeight, focusLevels);
+   this.focusWidth=focusWidth;
+   this.focusHeight=focusHeight;
+   this.focusLevels=focusLevels;
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setFoveation ==============================================================
+
+
+
+/**
+ * Moves the focus rectangle of the foveated mode, e.g. to the gaze point of 
+ * an eye tracker, without a reinitialization. The rectangle is kept on the
+ * screen and snapped to the texels of the last focus level, so the levels
+ * do not shimmer while it moves. The focus levels are rendered again in the
+ * next frame, regardless of their update periods.
+ * 
+ * @param x  The center of the rectangle in u, 0 to 1 from the left.
+ * @param y  The center in v, 0 to 1 from the bottom.
+ */
+// =============================================================================
+   public void setFocus(float x, float y)
+// =============================================================================
+{
+   focusX=x;
+   focusY=y;
+   if (focusCount==0 || material==null)
+      return;
+   updateFocusRect();
+   for (int ii=0; ii<focusCount; ii++)
+      invalidateLevel(ii);
+   markDirty();
+} // setFocus ==================================================================
+
+
+
+/**
+ * Provides the focus rectangle of the foveated mode.
+ * @param store  The vector to store it in, or <code>null</code>.
+ * @return  x, y, width and height in u and v, or the whole screen if the
+ *          filter is not foveated.
+ */
+// =============================================================================
+   public Vector4f getFocusRect(Vector4f store)
+// =============================================================================
+{
+   if (store==null)
+      store=new Vector4f();
+   return focusCount>0? store.set(focusRect):store.set(0.0f, 0.0f, 1.0f, 1.0f);
+} // getFocusRect ==============================================================
+
+
+
+/**
+ * Places the focus rectangle around its center and sets it to the materials
+ * that map it: the accumulation and the extract, which is fused into level 0
+ * or extracts the focus only.
+ */
+// =============================================================================
+   private void updateFocusRect()
+// =============================================================================
+{
+   int last=focusCount-1;
+   focusRect.set(focusOrigin(focusX, focusWidth, 
+    levelSize(initialWidth, downSamplingCoef, last)),
+    focusOrigin(focusY, focusHeight, 
+    levelSize(initialHeight, downSamplingCoef, last)),
+    focusWidth, focusHeight);
+   extractMat.setVector4("SourceRect", focusRect);
+   material.setVector4("FocusRect", focusRect);
+} // updateFocusRect ===========================================================
+
+
+
+/**
+ * Calculates the origin of the focus rectangle in u or v.
+ * 
+ * @param center  The center of the rectangle.
+ * @param size    The size of the rectangle.
+ * @param texels  The size of the level the origin is snapped to.
+ * @return  The origin, 0 to 1-size.
+ */
+// =============================================================================
+   static float focusOrigin(float center, float size, int texels)
+// =============================================================================
+{  float origin=Math.max(0.0f, Math.min(1.0f-size, center-0.5f*size));
+   return (float)Math.floor(origin*texels)/texels;
+} // ===========================================================================
+
+
+
+/**
+ * Provides the region of interest.
+ * @param store  The vector to store it in, or <code>null</code>.
+ * @return  x, y, width and height in u and v, the whole screen by default.
+ */
+// =============================================================================
+   public Vector4f getRegionOfInterest(Vector4f store)
+// =============================================================================
+{
+   if (store==null)
+      store=new Vector4f();
+   return store.set(regionX, regionY, regionWidth, regionHeight);
+} // getRegionOfInterest =======================================================
+
+
+
+/**
+ * Limits the bloom to a region of the screen, e.g. a HUD element or an
+ * in-world monitor. The bright pixels are only extracted inside the region,
+ * every level and blur pass only renders the region, padded by the reach of
+ * the passes up to its level and a black border, into a target of that size,
+ * and the accumulation only samples the levels inside the region. Since the
+ * extract is black outside the region, the padding keeps the edges of the
+ * region free of artefacts, but bright pixels outside do not bloom into it.
+ * <p>
+ * Reinitializes the filter. The region applies to <code>Quality.High</code>
+ * and <code>Quality.Low</code> with separate level storage, without stereo
+ * mode and without a shared chain, and is ignored otherwise; foveation is
+ * ignored while a region is set. The CPU reference does not model it.
+ * 
+ * @param x       The left edge of the region, 0 to 1 of the screen width.
+ * @param y       The bottom edge, 0 to 1 of the screen height.
+ * @param width   The width, up to 1-x. A region of the whole screen (default)
+ *                turns it off.
+ * @param height  The height, up to 1-y.
+ */
+// =============================================================================
+   public void setRegionOfInterest(float x, float y, float width, 
+    float height)
+// =============================================================================
+{
+   BloomConfig.checkRegionOfInterest(x, y, width, height);
+   regionX=x;
+   regionY=y;
+   regionWidth=width;
+   regionHeight=height;
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setRegionOfInterest =======================================================
+
+
+
+/**
+ * Calculates the texels along one axis that a region of interest needs in
+ * the extract and in each level. A level covers the region, padded by the
+ * reach of the passes up to it, i.e. a texel per downsampling and the reach
+ * of the blur, plus a texel of black border, so the samples outside the
+ * target are clamped to black.
+ * 
+ * @param size        The width or height of the framebuffer.
+ * @param coef        The downsampling coefficient.
+ * @param count       The number of levels.
+ * @param start       The left or bottom edge of the region, 0 to 1.
+ * @param extent      The width or height of the region, 0 to 1.
+ * @param blurFrom    The first blurred level.
+ * @param blurReach   The reach of the blur in texels.
+ * @return  The first texel and the number of texels of the extract, followed
+ *          by the ones of each level.
+ */
+// =============================================================================
+   static int[] regionSpans(int size, float coef, int count, float start,
+    float extent, int blurFrom, int blurReach)
+// =============================================================================
+{
+   int[] spans=new int[2*count+2];
+   float reach=0.0f;
+   int previous=size;
+   for (int ii=-1; ii<count; ii++)
+   {  int texels=ii<0? size:levelSize(size, coef, ii);
+      int pad=1;
+      if (ii>=0)
+      {  reach=reach*texels/previous+1.0f+(ii>=blurFrom? blurReach:0);
+         pad+=(int)Math.ceil(reach);
+      }
+      int first=Math.max(0, (int)Math.floor(start*texels)-pad);
+      int last=Math.min(texels, (int)Math.ceil((start+extent)*texels)+pad);
+      spans[2*ii+2]=first;
+      spans[2*ii+3]=Math.max(1, last-first);
+      previous=texels;
+   }
+   return spans;
+} // regionSpans ===============================================================
+
+
+
+/**
+ * Provides the rectangle of the screen the extract or a level covers with a
+ * region of interest.
+ * 
+ * @param index  0 for the extract, level+1 for a level.
+ * @param w      The width of the framebuffer.
+ * @param h      The height of the framebuffer.
+ * @return  x, y, width and height in u and v.
+ */
+// =============================================================================
+   private Vector4f spanRect(int index, int w, int h)
+// =============================================================================
+{
+   int columns=index==0? w:levelSize(w, downSamplingCoef, index-1);
+   int rows=index==0? h:levelSize(h, downSamplingCoef, index-1);
+   return new Vector4f((float)regionColumns[2*index]/columns, 
+    (float)regionRows[2*index]/rows, (float)regionColumns[2*index+1]/columns, 
+    (float)regionRows[2*index+1]/rows);
+} // spanRect ==================================================================
+
+
+
+/**
+ * Calculates the rectangle of a source texture a pass covers, from the 
+ * rectangles of the screen both cover.
+ * 
+ * @param target  The rectangle of the target of the pass.
+ * @param source  The rectangle of the source.
+ * @return  The rectangle of the target in u and v of the source.
+ */
+// =============================================================================
+   static Vector4f sourceRect(Vector4f target, Vector4f source)
+// =============================================================================
+{  return new Vector4f((target.x-source.x)/source.z, 
+    (target.y-source.y)/source.w, target.z/source.z, target.w/source.w);
+} // ===========================================================================
+
+
+
+/**
+ * Provides the generated kernel of the Gaussian blur passes.
+ * @return  <code>null</code> for the built-in 9-tap kernel.
+ */
+// =============================================================================
+   public GaussianKernel getBlurKernel() {return blurKernel;}
+// =============================================================================
+
+
+
+/**
+ * Sets the kernel of the Gaussian blur passes of <code>Quality.High</code>.
+ * A generated kernel folds its taps into bilinear fetches, see
+ * {@link GaussianKernel}. A kernel with a sigma of about 1.5 and a radius of
+ * 3 is close to the built-in one.
+ * @param kernel  A kernel from {@link GaussianKernel#get(float, int)}, or
+ *                <code>null</code> for the built-in 9-tap kernel.
+ */
+// =============================================================================
+   public void setBlurKernel(GaussianKernel kernel)
+// =============================================================================
+{
+   this.blurKernel=kernel;
+   if (assetManager!=null) // dirty isInitialised check
+      reInitFilter();
+} // setBlurKernel =============================================================
+
+
+
+/**
+ * Provides the current settings of the filter.
+ * @return  A new immutable configuration.
+ */
+// =============================================================================
+   public BloomConfig getConfig()
+// =============================================================================
+{
+   return BloomConfig.DEFAULT
+    .withQuality(quality)
+    .withGlowMode(glowMode)
+    .withExposurePower(exposurePower)
+    .withExposureCutOff(exposureCutOff)
+    .withBloomIntensity(bloomFactor, bloomPower)
+    .withDownSamplingCoef(downSamplingCoef)
+    .withNumLevels(numLevels)
+    .withAutoLevels(autoLevelSize)
+    .withPruneEpsilon(pruneEpsilon)
+    .withExpectedLuminance(expectedLuminance)
+    .withLevelStorage(levelStorage)
+    .withFusedExtract(fusedExtract)
+    .withStereo(stereo)
+    .withFoveation(focusWidth, focusHeight, focusLevels)
+    .withRegionOfInterest(regionX, regionY, regionWidth, regionHeight)
+    .withBlurKernel(blurKernel)
+    .withUpdatePeriods(updatePeriods);
+} // getConfig =================================================================
+
+
+
+/**
+ * Changes all settings of the filter at once. An initialized filter rebuilds
+ * its passes only if a structural setting differs from the current one (see
+ * {@link BloomConfig#requiresRebuild(BloomConfig)}); changes of the exposure,
+ * the intensity and the pruning are applied to the existing passes.
+ * 
+ * @param config  The new settings.
+ * @return  <code>true</code> if the passes were rebuilt.
+ */
+// =============================================================================
+   public boolean apply(BloomConfig config)
+// =============================================================================
+{
+   boolean rebuild=getConfig().requiresRebuild(config);
+   extractDirty|=exposurePower!=config.getExposurePower()
+    || exposureCutOff!=config.getExposureCutOff();
+   boolean levels=bloomFactor!=config.getBloomFactor()
+    || bloomPower!=config.getBloomPower()
+    || pruneEpsilon!=config.getPruneEpsilon()
+    || expectedLuminance!=config.getExpectedLuminance();
+
+   quality=config.getQuality();
+   glowMode=config.getGlowMode();
+   exposurePower=config.getExposurePower();
+   exposureCutOff=config.getExposureCutOff();
+   bloomFactor=config.getBloomFactor();
+   bloomPower=config.getBloomPower();
+   downSamplingCoef=config.getDownSamplingCoef();
+   numLevels=config.getNumLevels();
+   autoLevelSize=config.getAutoLevelSize();
+   pruneEpsilon=config.getPruneEpsilon();
+   expectedLuminance=config.getExpectedLuminance();
+   levelStorage=config.getLevelStorage();
+   fusedExtract=config.isFusedExtract();
+   stereo=config.isStereo();
+   focusWidth=config.getFocusWidth();
+   focusHeight=config.getFocusHeight();
+   focusLevels=config.getFocusLevels();
+   regionX=config.getRegionX();
+   regionY=config.getRegionY();
+   regionWidth=config.getRegionWidth();
+   regionHeight=config.getRegionHeight();
+   blurKernel=config.getBlurKernel();
+   for (int ii=0; ii<MAX_LEVELS; ii++)
+      updatePeriods[ii]=config.getUpdatePeriod(ii);
+   updateAmortization();
+
+   if (assetManager==null)             // Dirty initialization check.
+      return false;
+   if (rebuild)
+   {  reInitFilter();
+      return true;
+   }
+   if (levels)
+      setBloomIntensity(bloomFactor, bloomPower);
+   return false;
+} // apply =====================================================================
+
+
+
 // =============================================================================
    @Override
    public void write(JmeExporter ex) throws IOException
@@ -577,6 +3254,23 @@ import java.util.ArrayList;
    oc.write(bloomFactor, "bloomFactor", 0.2f);
    oc.write(bloomPower, "bloomIntensity", 2.0f);
    oc.write(downSamplingCoef, "downSamplingFactor", 1);
+   oc.write(numLevels, "numLevels", 8);
+   oc.write(autoLevelSize, "autoLevelSize", 0);
+   oc.write(pruneEpsilon, "pruneEpsilon", 0.0f);
+   oc.write(levelStorage, "levelStorage", LevelStorage.Separate);
+   oc.write(fusedExtract, "fusedExtract", false);
+   oc.write(stereo, "stereo", false);
+   oc.write(focusWidth, "focusWidth", 1.0f);
+   oc.write(focusHeight, "focusHeight", 1.0f);
+   oc.write(focusLevels, "focusLevels", 0);
+   oc.write(regionX, "regionX", 0.0f);
+   oc.write(regionY, "regionY", 0.0f);
+   oc.write(regionWidth, "regionWidth", 1.0f);
+   oc.write(regionHeight, "regionHeight", 1.0f);
+   oc.write(blurKernel!=null? blurKernel.getSigma():0.0f, "blurSigma", 0.0f);
+   oc.write(blurKernel!=null? blurKernel.getRadius():0, "blurRadius", 0);
+   oc.write(expectedLuminance, "expectedLuminance", 1.0f);
+   oc.write(updatePeriods, "updatePeriods", null);
 } // write =====================================================================
 
    
@@ -594,6 +3288,29 @@ import java.util.ArrayList;
    bloomFactor=ic.readFloat("bloomFactor", 0.2f);
    bloomPower=ic.readFloat("bloomIntensity", 2.0f);
    downSamplingCoef=ic.readFloat("downSamplingFactor", 1);
+   numLevels=ic.readInt("numLevels", 8);
+   autoLevelSize=ic.readInt("autoLevelSize", 0);
+   pruneEpsilon=ic.readFloat("pruneEpsilon", 0.0f);
+   levelStorage=ic.readEnum("levelStorage", LevelStorage.class, 
+    LevelStorage.Separate);
+   fusedExtract=ic.readBoolean("fusedExtract", false);
+   stereo=ic.readBoolean("stereo", false);
+   focusWidth=ic.readFloat("focusWidth", 1.0f);
+   focusHeight=ic.readFloat("focusHeight", 1.0f);
+   focusLevels=ic.readInt("focusLevels", 0);
+   regionX=ic.readFloat("regionX", 0.0f);
+   regionY=ic.readFloat("regionY", 0.0f);
+   regionWidth=ic.readFloat("regionWidth", 1.0f);
+   regionHeight=ic.readFloat("regionHeight", 1.0f);
+   float blurSigma=ic.readFloat("blurSigma", 0.0f);
+   int blurRadius=ic.readInt("blurRadius", 0);
+   blurKernel=blurRadius>0? GaussianKernel.get(blurSigma, blurRadius):null;
+   expectedLuminance=ic.readFloat("expectedLuminance", 1.0f);
+   int[] periods=ic.readIntArray("updatePeriods", null);
+   if (periods!=null)
+      System.arraycopy(periods, 0, updatePeriods, 0, 
+       Math.min(periods.length, MAX_LEVELS));
+   updateAmortization();
 } // read ======================================================================
 
 } // ***************************************************************************
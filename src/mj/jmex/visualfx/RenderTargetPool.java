@@ -0,0 +1,312 @@
+package mj.jmex.visualfx;
+
+import com.jme3.renderer.Renderer;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Image.Format;
+import com.jme3.texture.Texture;
+import com.jme3.texture.Texture2D;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * A pool of render targets (a FrameBuffer with a color texture and a depth
+ * buffer), keyed by width, height, color format and depth format.
+ * <p>
+ * Targets that are released are kept for reuse by the next acquire with a
+ * matching key, so a reinitialization of a filter does not allocate new
+ * framebuffers for passes whose size did not change. Targets that are no
+ * longer needed are deleted with {@link #trim(Renderer)}.
+ * <p>
+ * The pool keeps track of the bytes of all targets that are allocated
+ * (acquired or free) and of the peak of that value.
+ * <p>
+ * The pool is thread safe, so passes can be built on a background thread.
+ * Deleting targets with {@link #trim(Renderer)} or {@link #dispose(Renderer)}
+ * has to be done on the render thread.
+ */
+// *****************************************************************************
+   public class RenderTargetPool
+// *****************************************************************************
+{
+   private final Map<Key, ArrayDeque<Target>> freeTargets=
+    new HashMap<Key, ArrayDeque<Target>>();
+   private final ArrayList<Target> allTargets=new ArrayList<Target>();
+   private long liveBytes;
+   private long peakBytes;
+   private long acquiredBytes;
+   private int acquiredCount;
+   private int createdCount;
+
+
+
+/**
+ * A single render target of the pool.
+ */
+// =============================================================================
+   public static final class Target
+// =============================================================================
+{
+   private final Key key;
+   private final FrameBuffer frameBuffer;
+   private final Texture2D texture;
+   private final long bytes;
+   private boolean acquired;
+
+   private Target(Key key)
+   {  this.key=key;
+      texture=new Texture2D(key.width, key.height, key.colorFormat);
+      frameBuffer=new FrameBuffer(key.width, key.height, 1);
+      if (key.depthFormat!=null)
+         frameBuffer.setDepthBuffer(key.depthFormat);
+      frameBuffer.setColorTexture(texture);
+      bytes=RenderTargetPool.bytesOf(key.width, key.height, key.colorFormat,
+       key.depthFormat);
+   }
+
+   public FrameBuffer getFrameBuffer() {return frameBuffer;}
+   public Texture2D getTexture() {return texture;}
+   public int getWidth() {return key.width;}
+   public int getHeight() {return key.height;}
+   public Format getColorFormat() {return key.colorFormat;}
+   public Format getDepthFormat() {return key.depthFormat;}
+
+   /**
+    * @return  The estimated size of the color texture and depth buffer.
+    */
+   public long getBytes() {return bytes;}
+} // Target ====================================================================
+
+
+
+// =============================================================================
+   private static final class Key
+// =============================================================================
+{
+   final int width;
+   final int height;
+   final Format colorFormat;
+   final Format depthFormat;
+
+   Key(int width, int height, Format colorFormat, Format depthFormat)
+   {  this.width=width;
+      this.height=height;
+      this.colorFormat=colorFormat;
+      this.depthFormat=depthFormat;
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {  if (!(o instanceof Key))
+         return false;
+      Key k=(Key)o;
+      return width==k.width && height==k.height
+       && colorFormat==k.colorFormat && depthFormat==k.depthFormat;
+   }
+
+   @Override
+   public int hashCode()
+   {  int hash=width;
+      hash=31*hash+height;
+      hash=31*hash+(colorFormat==null? 0:colorFormat.ordinal());
+      hash=31*hash+(depthFormat==null? 0:depthFormat.ordinal());
+      return hash;
+   }
+} // Key =======================================================================
+
+
+
+/**
+ * Provides a render target of the specified size and formats. A free target
+ * with a matching key is reused, otherwise a new one is created.
+ *
+ * @param width         Width in pixels (at least 1).
+ * @param height        Height in pixels (at least 1).
+ * @param colorFormat   The format of the color texture.
+ * @param depthFormat   The format of the depth buffer, or <code>null</code>
+ *                      for no depth buffer.
+ * @return  The acquired target.
+ */
+// =============================================================================
+   public synchronized Target acquire(int width, int height, Format colorFormat,
+    Format depthFormat)
+// =============================================================================
+{
+   Key key=new Key(Math.max(1, width), Math.max(1, height), colorFormat,
+    depthFormat);
+   ArrayDeque<Target> free=freeTargets.get(key);
+   Target target=free==null? null:free.pollFirst();
+   if (target==null)
+   {  target=new Target(key);
+      allTargets.add(target);
+      createdCount++;
+      liveBytes+=target.bytes;
+      peakBytes=Math.max(peakBytes, liveBytes);
+   }
+
+// A reused texture may have been configured differently by its last owner.
+   target.texture.setMagFilter(Texture.MagFilter.Bilinear);
+   target.texture.setMinFilter(Texture.MinFilter.BilinearNoMipMaps);
+   target.acquired=true;
+   acquiredBytes+=target.bytes;
+   acquiredCount++;
+   return target;
+} // acquire ===================================================================
+
+
+
+/**
+ * Returns a target to the pool, so it can be reused by the next acquire.
+ *
+ * @param target  A target acquired from this pool.
+ */
+// =============================================================================
+   public synchronized void release(Target target)
+// =============================================================================
+{
+   if (!target.acquired)
+      return;
+   target.acquired=false;
+   acquiredBytes-=target.bytes;
+   acquiredCount--;
+   ArrayDeque<Target> free=freeTargets.get(target.key);
+   if (free==null)
+   {  free=new ArrayDeque<Target>();
+      freeTargets.put(target.key, free);
+   }
+   free.addLast(target);
+} // release ===================================================================
+
+
+
+/**
+ * Deletes all free targets.
+ *
+ * @param r  The renderer that owns the targets.
+ */
+// =============================================================================
+   public synchronized void trim(Renderer r)
+// =============================================================================
+{
+   for (ArrayDeque<Target> free : freeTargets.values())
+      for (Target target : free)
+         delete(r, target);
+   freeTargets.clear();
+} // trim ======================================================================
+
+
+
+/**
+ * Deletes all targets of the pool, acquired ones included.
+ *
+ * @param r  The renderer that owns the targets.
+ */
+// =============================================================================
+   public synchronized void dispose(Renderer r)
+// =============================================================================
+{
+   for (int ii=allTargets.size()-1; ii>=0; ii--)
+   {  Target target=allTargets.get(ii);
+      if (target.acquired)
+      {  target.acquired=false;
+         acquiredBytes-=target.bytes;
+         acquiredCount--;
+      }
+      delete(r, target);
+   }
+   freeTargets.clear();
+} // dispose ===================================================================
+
+
+
+// =============================================================================
+   private void delete(Renderer r, Target target)
+// =============================================================================
+{
+   r.deleteFrameBuffer(target.frameBuffer);
+   r.deleteImage(target.texture.getImage());
+   allTargets.remove(target);
+   liveBytes-=target.bytes;
+} // delete ====================================================================
+
+
+
+/**
+ * Estimates the memory of a render target.
+ *
+ * @param width
+ * @param height
+ * @param colorFormat
+ * @param depthFormat   May be <code>null</code>.
+ * @return  The size of the color texture plus the depth buffer in bytes.
+ */
+// =============================================================================
+   public static long bytesOf(int width, int height, Format colorFormat,
+    Format depthFormat)
+// =============================================================================
+{
+   long bits=colorFormat.getBitsPerPixel();
+// Format.Depth has no size of its own, the drivers allocate 24 bits for it.
+   if (depthFormat!=null)
+      bits+=depthFormat==Format.Depth? 24:depthFormat.getBitsPerPixel();
+   return (long)width*height*bits/8;
+} // bytesOf ===================================================================
+
+
+
+/**
+ * @return  Bytes of all allocated targets (acquired and free).
+ */
+// =============================================================================
+   public synchronized long getLiveBytes() {return liveBytes;}
+// =============================================================================
+
+
+
+/**
+ * @return  The highest value {@link #getLiveBytes()} has ever reached.
+ */
+// =============================================================================
+   public synchronized long getPeakBytes() {return peakBytes;}
+// =============================================================================
+
+
+
+/**
+ * @return  Bytes of the targets that are currently acquired.
+ */
+// =============================================================================
+   public synchronized long getAcquiredBytes() {return acquiredBytes;}
+// =============================================================================
+
+
+
+/**
+ * @return  Number of targets that are currently acquired.
+ */
+// =============================================================================
+   public synchronized int getAcquiredCount() {return acquiredCount;}
+// =============================================================================
+
+
+
+/**
+ * @return  Number of allocated targets (acquired and free).
+ */
+// =============================================================================
+   public synchronized int getLiveCount() {return allTargets.size();}
+// =============================================================================
+
+
+
+/**
+ * @return  Number of targets that have been created since the pool exists.
+ */
+// =============================================================================
+   public synchronized int getCreatedCount() {return createdCount;}
+// =============================================================================
+
+} // ***************************************************************************
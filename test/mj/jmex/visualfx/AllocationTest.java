@@ -0,0 +1,136 @@
+package mj.jmex.visualfx;
+
+import java.lang.management.ManagementFactory;
+import mj.jmex.visualfx.MipmapBloomFilter.LevelStorage;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+
+
+/**
+ * Checks that the per-frame path of the filter and
+ * {@link MipmapBloomFilter#setBloomIntensity(float, float)} do not allocate
+ * once they are warmed up, measured with the allocation counter of the
+ * thread.
+ */
+// *****************************************************************************
+   public class AllocationTest
+// *****************************************************************************
+{
+   private static final int WARMUP=20000;
+   private static final int CALLS=1000;
+
+   private com.sun.management.ThreadMXBean threads;
+   private long thread;
+
+
+
+// =============================================================================
+   @Before
+   public void setUp()
+// =============================================================================
+{
+   Assume.assumeTrue(ManagementFactory.getThreadMXBean()
+    instanceof com.sun.management.ThreadMXBean);
+   threads=(com.sun.management.ThreadMXBean)ManagementFactory
+    .getThreadMXBean();
+   Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+   threads.setThreadAllocatedMemoryEnabled(true);
+   thread=Thread.currentThread().getId();
+} // setUp =====================================================================
+
+
+
+// =============================================================================
+   @Test
+   public void steadyStateFrameDoesNotAllocate()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+      for (LevelStorage storage : LevelStorage.values())
+      {  RecordingFilter filter=filter(quality, storage);
+         for (int ii=0; ii<WARMUP; ii++)
+            filter.frame(0.016f);
+
+         long bytes=allocated();
+         for (int ii=0; ii<CALLS; ii++)
+            filter.frame(0.016f);
+         bytes=allocated()-bytes-overhead();
+         assertEquals(quality+" "+storage, 0, Math.max(0, bytes));
+      }
+} // steadyStateFrameDoesNotAllocate ===========================================
+
+
+
+/**
+ * An animated intensity: a new intensity in each frame.
+ */
+// =============================================================================
+   @Test
+   public void intensityChangeDoesNotAllocate()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+      for (LevelStorage storage : LevelStorage.values())
+      {  RecordingFilter filter=filter(quality, storage);
+         for (int ii=0; ii<WARMUP; ii++)
+            pulse(filter, ii);
+
+         long bytes=allocated();
+         for (int ii=0; ii<CALLS; ii++)
+            pulse(filter, ii);
+         bytes=allocated()-bytes-overhead();
+         assertEquals(quality+" "+storage, 0, Math.max(0, bytes));
+      }
+} // intensityChangeDoesNotAllocate ============================================
+
+
+
+// =============================================================================
+   private static void pulse(RecordingFilter filter, int frame)
+// =============================================================================
+{
+   filter.setBloomIntensity(1.5f+0.5f*(frame%32)/32.0f,
+    1.5f+0.25f*(frame%8)/8.0f);
+   filter.frame(0.016f);
+} // pulse =====================================================================
+
+
+
+// =============================================================================
+   private static RecordingFilter filter(Quality quality, LevelStorage storage)
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(quality);
+   filter.setLevelStorage(storage);
+   filter.initialize(1280, 720);
+   return filter;
+} // filter ====================================================================
+
+
+
+// =============================================================================
+   private long allocated() {return threads.getThreadAllocatedBytes(thread);}
+// =============================================================================
+
+
+
+/**
+ * @return  The bytes that two calls of the counter allocate by themselves.
+ */
+// =============================================================================
+   private long overhead()
+// =============================================================================
+{
+   long overhead=Long.MAX_VALUE;
+   for (int ii=0; ii<10; ii++)
+   {  long bytes=allocated();
+      overhead=Math.min(overhead, allocated()-bytes);
+   }
+   return overhead;
+} // overhead ==================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,192 @@
+package mj.jmex.visualfx;
+
+import com.jme3.material.MatParam;
+import com.jme3.material.Material;
+import com.jme3.post.Filter.Pass;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import mj.jmex.visualfx.MipmapBloomFilter.LevelStorage;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+
+/**
+ * Checks the passes that are built in the background: once they are swapped
+ * in, they must be the passes a build on the render thread makes, and a build
+ * that is abandoned must hand its targets back to the pool.
+ */
+// *****************************************************************************
+   public class BackgroundBuildTest
+// *****************************************************************************
+{
+   private static final Executor DIRECT=new Executor()
+   {  @Override
+      public void execute(Runnable task) {task.run();}
+   };
+
+   private final ArrayList<Runnable> tasks=new ArrayList<Runnable>();
+   private final Executor queue=new Executor()
+   {  @Override
+      public void execute(Runnable task) {tasks.add(task);}
+   };
+
+
+
+// =============================================================================
+   @Test
+   public void swappedInPassesMatchSynchronousBuild()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+      for (LevelStorage storage : LevelStorage.values())
+         for (int fused=0; fused<2; fused++)
+            for (int layout=0; layout<4; layout++)
+            {  RecordingFilter background=filter(quality, storage, fused==1,
+                layout);
+               RecordingFilter synchronous=filter(quality, storage, fused==1,
+                layout);
+               String what=quality+" "+storage+" fused "+fused+" layout "
+                +layout;
+
+               background.initialize(1280, 720);
+               background.frame(0.016f);
+               background.setBuildExecutor(DIRECT);
+               background.initialize(1920, 1080);
+               assertTrue(what, background.isBuildPending());
+               background.frame(0.016f);
+               assertFalse(what, background.isBuildPending());
+
+               synchronous.initialize(1920, 1080);
+               synchronous.frame(0.016f);
+
+               assertEquals(what, describe(synchronous.getPasses()),
+                describe(background.getPasses()));
+               assertEquals(what, describe(synchronous.getMaterial()),
+                describe(background.getMaterial()));
+               RenderTargetPool a=synchronous.getRenderTargetPool();
+               RenderTargetPool b=background.getRenderTargetPool();
+               assertEquals(what, a.getAcquiredCount(), b.getAcquiredCount());
+               assertEquals(what, a.getAcquiredBytes(), b.getAcquiredBytes());
+            }
+} // swappedInPassesMatchSynchronousBuild ======================================
+
+
+
+/**
+ * A build that has finished but is abandoned, and one that is abandoned
+ * before it has started.
+ */
+// =============================================================================
+   @Test
+   public void abandonedBuildReleasesTargets()
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(Quality.High);
+   filter.initialize(1280, 720);
+   filter.frame(0.016f);
+   RenderTargetPool pool=filter.getRenderTargetPool();
+   int acquired=pool.getAcquiredCount();
+   long bytes=pool.getAcquiredBytes();
+   filter.setBuildExecutor(queue);
+
+   filter.initialize(1920, 1080);
+   tasks.remove(0).run();
+   assertTrue(pool.getAcquiredBytes()>bytes);
+   filter.initialize(1280, 720);
+   tasks.remove(0).run();
+   filter.frame(0.016f);
+   assertFalse(filter.isBuildPending());
+   assertEquals(acquired, pool.getAcquiredCount());
+   assertEquals(bytes, pool.getAcquiredBytes());
+
+   filter.initialize(1920, 1080);
+   filter.initialize(1280, 720);
+   tasks.remove(0).run();
+   assertEquals(bytes, pool.getAcquiredBytes());
+   tasks.remove(0).run();
+   filter.frame(0.016f);
+   assertEquals(acquired, pool.getAcquiredCount());
+   assertEquals(bytes, pool.getAcquiredBytes());
+} // abandonedBuildReleasesTargets =============================================
+
+
+
+// =============================================================================
+   private static RecordingFilter filter(Quality quality,
+    LevelStorage storage, boolean fused, int layout)
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(quality);
+   filter.setLevelStorage(storage);
+   filter.setFusedExtract(fused);
+   if (layout==1)
+      filter.setStereo(true);
+   else if (layout==2)
+      filter.setFoveation(0.4f, 0.3f, 3);
+   else if (layout==3)
+      filter.setRegionOfInterest(0.1f, 0.6f, 0.2f, 0.1f);
+   return filter;
+} // filter ====================================================================
+
+
+
+/**
+ * Describes the passes by their sizes and materials.
+ */
+// =============================================================================
+   private static List<String> describe(List<Pass> passes)
+// =============================================================================
+{
+   List<String> descriptions=new ArrayList<String>();
+   for (int ii=0; ii<passes.size(); ii++)
+   {  Pass pass=passes.get(ii);
+      descriptions.add(describe(pass.getRenderedTexture())+" "
+       +describe(pass.getPassMaterial()));
+   }
+   return descriptions;
+} // describe ==================================================================
+
+
+
+/**
+ * Describes a material by its definition and its parameters, with textures
+ * by their sizes.
+ */
+// =============================================================================
+   private static String describe(Material material)
+// =============================================================================
+{
+   if (material==null)
+      return "no material";
+   TreeMap<String, String> params=new TreeMap<String, String>();
+   for (MatParam param : material.getParams())
+   {  Object value=param.getValue();
+      params.put(param.getName(), value instanceof Texture
+       ? describe((Texture)value)
+       :value instanceof float[]? Arrays.toString((float[])value)
+       :value instanceof Object[]? Arrays.toString((Object[])value)
+       :String.valueOf(value));
+   }
+   return material.getMaterialDef().getAssetName()+" "+params;
+} // describe ==================================================================
+
+
+
+// =============================================================================
+   private static String describe(Texture texture)
+// =============================================================================
+{
+   Image image=texture.getImage();
+   return image.getWidth()+"x"+image.getHeight()+" "+texture.getMinFilter();
+} // describe ==================================================================
+
+} // ***************************************************************************
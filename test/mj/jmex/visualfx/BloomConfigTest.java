@@ -0,0 +1,80 @@
+package mj.jmex.visualfx;
+
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+
+
+/**
+ * Checks the contract of equals and hashCode of {@link BloomConfig}, and which
+ * changes require a rebuild.
+ */
+// *****************************************************************************
+   public class BloomConfigTest
+// *****************************************************************************
+{
+
+
+
+/**
+ * The floats are compared by their bits, like they are hashed.
+ */
+// =============================================================================
+   @Test
+   public void equalConfigsHaveEqualHashes()
+// =============================================================================
+{
+   BloomConfig zero=BloomConfig.DEFAULT.withExposureCutOff(0.0f);
+   BloomConfig negativeZero=BloomConfig.DEFAULT.withExposureCutOff(-0.0f);
+   assertNotEquals(zero, negativeZero);
+
+   BloomConfig nan=BloomConfig.DEFAULT.withExposureCutOff(Float.NaN);
+   BloomConfig otherNan=BloomConfig.DEFAULT.withExposureCutOff(Float.NaN);
+   assertEquals(nan, otherNan);
+   assertEquals(nan.hashCode(), otherNan.hashCode());
+
+   BloomConfig a=BloomConfig.DEFAULT.withQuality(Quality.Low)
+    .withFoveation(0.5f, 0.4f, 2).withUpdatePeriod(5, 3);
+   BloomConfig b=BloomConfig.DEFAULT.withUpdatePeriod(5, 3)
+    .withFoveation(0.5f, 0.4f, 2).withQuality(Quality.Low);
+   assertEquals(a, b);
+   assertEquals(a.hashCode(), b.hashCode());
+   assertNotEquals(a, b.withUpdatePeriod(5, 2));
+   assertNotEquals(a, b.withNumLevels(5));
+} // equalConfigsHaveEqualHashes ===============================================
+
+
+
+/**
+ * The number of levels is not used while the level size chooses it.
+ */
+// =============================================================================
+   @Test
+   public void unusedNumLevelsDoesNotRebuild()
+// =============================================================================
+{
+   BloomConfig fixed=BloomConfig.DEFAULT.withNumLevels(6);
+   assertTrue(fixed.requiresRebuild(BloomConfig.DEFAULT.withNumLevels(7)));
+
+   BloomConfig auto=fixed.withAutoLevels(16);
+   BloomConfig other=BloomConfig.DEFAULT.withNumLevels(7).withAutoLevels(16);
+   assertFalse(auto.requiresRebuild(other));
+   assertTrue(auto.requiresRebuild(other.withAutoLevels(8)));
+   assertTrue(auto.requiresRebuild(other.withAutoLevels(0)));
+   assertTrue(auto.requiresRebuild(fixed));
+
+   RecordingFilter filter=new RecordingFilter(Quality.High);
+   filter.apply(auto);
+   filter.initialize(1280, 720);
+   int passes=filter.getPasses().size();
+   assertFalse(filter.apply(other));
+   assertEquals(7, filter.getNumLevels());
+   assertEquals(passes, filter.getPasses().size());
+   assertTrue(filter.apply(other.withAutoLevels(0)));
+} // unusedNumLevelsDoesNotRebuild =============================================
+
+} // ***************************************************************************
@@ -0,0 +1,222 @@
+package mj.jmex.visualfx;
+
+import com.jme3.post.Filter.Pass;
+import com.jme3.texture.Image;
+import com.jme3.util.NativeObject;
+import com.jme3.util.NativeObjectManager;
+import java.util.List;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+
+/**
+ * Checks the join, leave and rebuild of a shared chain, and that the targets
+ * of the chain are only deleted by its pool: the FilterPostProcessor cleans
+ * up the passes of a filter it removes, and the filter that renders the chain
+ * has the passes of the chain in its list.
+ */
+// *****************************************************************************
+   public class BloomContextTest
+// *****************************************************************************
+{
+   private static final int W=1280;
+   private static final int H=720;
+
+   private final RecordingRenderer renderer=new RecordingRenderer();
+   private final BloomContext context=new BloomContext();
+   private int ids;
+
+
+
+/**
+ * The chain holds the views side by side, and is rebuilt when they leave.
+ */
+// =============================================================================
+   @Test
+   public void chainIsRebuiltForItsViews()
+// =============================================================================
+{
+   for (Quality quality : new Quality[] {Quality.Low, Quality.High})
+   {  BloomContext context=new BloomContext();
+      RecordingFilter a=view(context, quality);
+      RecordingFilter b=view(context, quality);
+      assertTrue(a.isSharingChain());
+      assertTrue(b.isSharingChain());
+      assertEquals(2, context.getViews().size());
+      checkChain(context, 2, a.getNumLevels(), quality);
+
+//    A filter with another resolution builds a chain of its own.
+      RecordingFilter c=new RecordingFilter(quality, renderer);
+      c.setBloomContext(context);
+      c.initialize(W/2, H/2);
+      assertFalse(c.isSharingChain());
+      assertEquals(2, context.getViews().size());
+
+      b.remove();
+      assertEquals(1, context.getViews().size());
+      assertEquals(a, context.getViews().get(0));
+      checkChain(context, 1, a.getNumLevels(), quality);
+
+      a.remove();
+      assertEquals(0, context.getViews().size());
+      assertEquals(0, context.getPassCount());
+      assertEquals(0, context.getRenderTargetPool().getLiveCount());
+      assertEquals(0, context.getRenderTargetPool().getLiveBytes());
+   }
+} // chainIsRebuiltForItsViews =================================================
+
+
+
+/**
+ * The filter that renders the chain is removed: its cleanup must not dispose
+ * the targets of the chain, which is rebuilt for the other view. The targets
+ * of the chain are registered like the renderer does when it uploads them,
+ * so a disposal is deleted by the renderer.
+ */
+// =============================================================================
+   @Test
+   public void removingRunnerKeepsChainTargets()
+// =============================================================================
+{
+   RecordingFilter a=view(context, Quality.High);
+   RecordingFilter b=view(context, Quality.High);
+   for (int ii=0; ii<3; ii++)
+   {  a.frame(0.016f);
+      b.frame(0.016f);
+   }
+   assertTrue(b.getPasses().containsAll(context.getPasses()));
+
+   NativeObjectManager objects=new NativeObjectManager();
+   upload(objects, a.getPasses());
+   upload(objects, b.getPasses());
+// The pools delete the targets of b and the ones the rebuilt chain does not
+// use, nothing is disposed behind their back.
+   renderer.reset();
+   b.remove();
+   int deleted=renderer.total();
+   objects.deleteUnused(renderer.getRenderer());
+   assertEquals(deleted, renderer.total());
+   checkNotDeleted(a.getPasses());
+   checkNotDeleted(context.getPasses());
+
+   upload(objects, a.getPasses());
+   renderer.reset();
+   a.remove();
+   deleted=renderer.total();
+   objects.deleteUnused(renderer.getRenderer());
+   assertEquals(deleted, renderer.total());
+   assertEquals(0, context.getRenderTargetPool().getLiveCount());
+   assertEquals(0, a.getRenderTargetPool().getLiveCount());
+} // removingRunnerKeepsChainTargets ===========================================
+
+
+
+/**
+ * A chain whose last view leaves without a renderer keeps its targets until
+ * it is disposed.
+ */
+// =============================================================================
+   @Test
+   public void chainWithoutViewsIsDisposed()
+// =============================================================================
+{
+   RecordingFilter a=view(context, Quality.High);
+   RenderTargetPool pool=context.getRenderTargetPool();
+   int targets=pool.getLiveCount();
+   assertTrue(targets>0);
+
+   renderer.reset();
+   context.leave(a, null);
+   assertEquals(0, renderer.total());
+   assertEquals(targets, pool.getLiveCount());
+
+   context.dispose(renderer.getRenderer());
+   assertEquals(targets, renderer.count("deleteFrameBuffer"));
+   assertEquals(targets, renderer.count("deleteImage"));
+   assertEquals(0, pool.getLiveCount());
+   assertEquals(0, pool.getLiveBytes());
+} // chainWithoutViewsIsDisposed ===============================================
+
+
+
+// =============================================================================
+   private RecordingFilter view(BloomContext context, Quality quality)
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(quality, renderer);
+   filter.setBloomContext(context);
+   filter.initialize(W, H);
+   return filter;
+} // view ======================================================================
+
+
+
+/**
+ * Checks the level and blur passes of a chain with n views.
+ */
+// =============================================================================
+   private static void checkChain(BloomContext context, int n, int levels,
+    Quality quality)
+// =============================================================================
+{
+   List<Pass> passes=context.getPasses();
+   int blurred=quality==Quality.High? levels-3:0;
+   assertEquals(levels+2*blurred, passes.size());
+   int pass=0;
+   for (int ii=0; ii<levels; ii++)
+   {  int w=n*MipmapBloomFilter.levelSize(W, 2.0f, ii);
+      int h=MipmapBloomFilter.levelSize(H, 2.0f, ii);
+      for (int jj=0; jj<(quality==Quality.High && ii>=3? 3:1); jj++)
+      {  Image image=passes.get(pass++).getRenderedTexture().getImage();
+         assertEquals("level "+ii, w, image.getWidth());
+         assertEquals("level "+ii, h, image.getHeight());
+      }
+   }
+} // checkChain ================================================================
+
+
+
+/**
+ * Registers the framebuffers and textures of passes with an object manager.
+ */
+// =============================================================================
+   private void upload(NativeObjectManager objects, List<Pass> passes)
+// =============================================================================
+{
+   for (int ii=0; ii<passes.size(); ii++)
+   {  upload(objects, passes.get(ii).getRenderFrameBuffer());
+      upload(objects, passes.get(ii).getRenderedTexture().getImage());
+   }
+} // upload ====================================================================
+
+
+
+// =============================================================================
+   private void upload(NativeObjectManager objects, NativeObject object)
+// =============================================================================
+{
+   if (object.getId()>0)
+      return;
+   object.setId(++ids);
+   objects.registerObject(object);
+} // upload ====================================================================
+
+
+
+// =============================================================================
+   private void checkNotDeleted(List<Pass> passes)
+// =============================================================================
+{
+   for (int ii=0; ii<passes.size(); ii++)
+   {  Pass pass=passes.get(ii);
+      assertFalse("pass "+ii, renderer.isDeleted(pass.getRenderFrameBuffer()));
+      assertFalse("pass "+ii,
+       renderer.isDeleted(pass.getRenderedTexture().getImage()));
+   }
+} // checkNotDeleted ===========================================================
+
+} // ***************************************************************************
@@ -0,0 +1,294 @@
+package mj.jmex.visualfx;
+
+import com.jme3.material.Material;
+import com.jme3.math.Vector4f;
+import com.jme3.post.Filter.Pass;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Image;
+import java.util.ArrayList;
+import java.util.List;
+import mj.jmex.visualfx.BloomCostModel.Kind;
+import mj.jmex.visualfx.BloomCostModel.PassCost;
+import mj.jmex.visualfx.MipmapBloomFilter.GlowMode;
+import mj.jmex.visualfx.MipmapBloomFilter.LevelStorage;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+
+/**
+ * Pins the {@link BloomCostModel} to the pass graph the filter really builds:
+ * for each combination of settings, the passes of the model must match the
+ * passes of the filter in order and size, and the render targets of the
+ * model the ones in the pool of the filter. The layouts that clip the passes
+ * are also pinned to sizes worked out by hand, since the model shares the
+ * size functions of the filter.
+ */
+// *****************************************************************************
+   public class BloomCostModelTest
+// *****************************************************************************
+{
+   private static final int[][] RESOLUTIONS={{1280, 720}, {1920, 1080},
+    {3840, 2160}};
+   private static final int[] LEVELS={6, 8};
+   private static final float[] COEFS={2.0f, 1.5f};
+   private static final GaussianKernel[] KERNELS={null,
+    GaussianKernel.get(2.5f, 6)};
+   private static final float EPSILON=1e-6f;
+
+
+
+/**
+ * The 864 combinations of resolution, quality, level storage, glow mode,
+ * fused extract, blur kernel, level count and downsampling coefficient.
+ */
+// =============================================================================
+   @Test
+   public void modelMatchesPassGraph()
+// =============================================================================
+{
+   int combinations=0;
+   for (int[] resolution : RESOLUTIONS)
+      for (Quality quality : Quality.values())
+         for (LevelStorage storage : LevelStorage.values())
+            for (GlowMode glowMode : GlowMode.values())
+               for (int fused=0; fused<2; fused++)
+                  for (GaussianKernel kernel : KERNELS)
+                     for (int levels : LEVELS)
+                        for (float coef : COEFS)
+                        {  RecordingFilter filter=
+                            new RecordingFilter(quality);
+                           filter.setLevelStorage(storage);
+                           filter.setGlowMode(glowMode);
+                           filter.setFusedExtract(fused==1);
+                           filter.setBlurKernel(kernel);
+                           filter.setNumLevels(levels);
+                           filter.setDownSamplingCoef(coef);
+                           check(filter, resolution[0], resolution[1],
+                            quality+" "+storage+" "+glowMode+" fused "+fused
+                            +" kernel "+(kernel!=null)+" levels "+levels
+                            +" coef "+coef);
+                           combinations++;
+                        }
+   assertEquals(864, combinations);
+} // modelMatchesPassGraph =====================================================
+
+
+
+/**
+ * The layouts with passes of other sizes: stereo, foveation and a region of
+ * interest.
+ */
+// =============================================================================
+   @Test
+   public void modelMatchesPassGraphOfLayouts()
+// =============================================================================
+{
+   for (int[] resolution : RESOLUTIONS)
+      for (Quality quality : Quality.values())
+         for (LevelStorage storage : LevelStorage.values())
+            for (int fused=0; fused<2; fused++)
+               for (int layout=0; layout<4; layout++)
+               {  RecordingFilter filter=new RecordingFilter(quality);
+                  filter.setLevelStorage(storage);
+                  filter.setFusedExtract(fused==1);
+                  if (layout==1)
+                     filter.setStereo(true);
+                  else if (layout==2)
+                     filter.setFoveation(0.4f, 0.3f, 3);
+                  else if (layout==3)
+                     filter.setRegionOfInterest(0.1f, 0.6f, 0.2f, 0.1f);
+                  check(filter, resolution[0], resolution[1], quality+" "
+                   +storage+" fused "+fused+" layout "+layout);
+               }
+} // modelMatchesPassGraphOfLayouts ============================================
+
+
+
+/**
+ * The level count the filter reports is the one of the levels it builds,
+ * with auto levels and in stereo mode, where the levels are sized by an eye.
+ */
+// =============================================================================
+   @Test
+   public void levelCountMatchesPassGraph()
+// =============================================================================
+{
+   for (int[] resolution : RESOLUTIONS)
+      for (int stereo=0; stereo<2; stereo++)
+         for (int autoLevels=0; autoLevels<=64; autoLevels+=16)
+         {  RecordingFilter filter=new RecordingFilter(Quality.Low);
+            filter.setStereo(stereo==1);
+            filter.setAutoLevels(autoLevels);
+            int w=resolution[0], h=resolution[1];
+            int count=filter.getLevelCount(w, h);
+            filter.initialize(w, h);
+            String what=w+"x"+h+" stereo "+stereo+" auto "+autoLevels;
+
+//          The extract and the levels.
+            assertEquals(what, 1+count, filter.getPasses().size());
+            for (int ii=0; ii<count; ii++)
+               assertEquals(what, MipmapBloomFilter.levelSize(h, 2.0f, ii),
+                filter.getPasses().get(1+ii).getRenderedTexture().getImage()
+                .getHeight());
+         }
+} // levelCountMatchesPassGraph ================================================
+
+
+
+/**
+ * The focus levels of a 0.375x0.25 focus at 1280x720 cover the focus only, and
+ * the first level outside is downsampled from the extract of the periphery
+ * at the size of level 1.
+ */
+// =============================================================================
+   @Test
+   public void focusLevelsAreClippedToFocus()
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(Quality.Low);
+   filter.setNumLevels(6);
+   filter.setFoveation(0.375f, 0.25f, 3);
+   filter.initialize(1280, 720);
+   checkSizes(filter.getPasses(), new int[][] {{480, 180}, {240, 90},
+    {120, 45}, {60, 23}, {320, 180}, {80, 45}, {40, 22}, {20, 11}});
+} // focusLevelsAreClippedToFocus ==============================================
+
+
+
+/**
+ * The extract and the levels of a region of interest at 1280x720 cover the
+ * region, padded by a texel of border plus the reach of the passes up to
+ * the level, and are clipped at the edges of the screen.
+ */
+// =============================================================================
+   @Test
+   public void regionPassesAreClippedToPaddedRegion()
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(Quality.Low);
+   filter.setNumLevels(4);
+   filter.setRegionOfInterest(0.125f, 0.5f, 0.25f, 0.125f);
+   filter.initialize(1280, 720);
+   checkSizes(filter.getPasses(), new int[][] {{322, 92}, {164, 49},
+    {86, 29}, {46, 18}, {26, 13}});
+   assertEquals(new Vector4f(159.0f/1280, 359.0f/720, 322.0f/1280,
+    92.0f/720), vector(filter.getPasses().get(0).getPassMaterial(),
+    "SourceRect"));
+
+   filter.setRegionOfInterest(0.0f, 0.75f, 0.25f, 0.25f);
+   checkSizes(filter.getPasses(), new int[][] {{321, 181}, {162, 92},
+    {83, 48}, {43, 26}, {23, 15}});
+} // regionPassesAreClippedToPaddedRegion ======================================
+
+
+
+/**
+ * Moving the focus maps the extract and the accumulation to the new focus
+ * rectangle, which stays on the screen, without building the passes again.
+ */
+// =============================================================================
+   @Test
+   public void movingFocusDoesNotRebuild()
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(Quality.High);
+   filter.setFoveation(0.375f, 0.25f, 3);
+   filter.initialize(1280, 720);
+   for (int ii=0; ii<3; ii++)
+      filter.frame(0.016f);
+   List<Pass> passes=new ArrayList<Pass>(filter.getPasses());
+   List<FrameBuffer> frameBuffers=new ArrayList<FrameBuffer>();
+   for (Pass pass : passes)
+      frameBuffers.add(pass.getRenderFrameBuffer());
+   int created=filter.getRenderTargetPool().getCreatedCount();
+// The rectangle is snapped to the texels of the last focus level, 160x90.
+   Vector4f before=filter.getFocusRect(null);
+   assertEquals(0.3125f, before.x, 1.0f/160);
+   assertEquals(0.375f, before.y, 1.0f/90);
+
+   filter.reset();
+   filter.setFocus(0.1f, 0.95f);
+   filter.frame(0.016f);
+   Vector4f rect=filter.getFocusRect(null);
+   assertEquals(0.0f, rect.x, EPSILON);
+   assertEquals(0.75f, rect.y, 1.0f/90);
+   assertEquals(0.375f, rect.z, EPSILON);
+   assertEquals(0.25f, rect.w, EPSILON);
+   assertTrue(rect.y+rect.w<=1.0f);
+   assertEquals(rect, vector(passes.get(0).getPassMaterial(), "SourceRect"));
+   assertEquals(rect, vector(filter.getMaterial(), "FocusRect"));
+
+   assertEquals(passes, filter.getPasses());
+   for (int ii=0; ii<passes.size(); ii++)
+      assertSame("pass "+ii, frameBuffers.get(ii),
+       passes.get(ii).getRenderFrameBuffer());
+   assertEquals(created, filter.getRenderTargetPool().getCreatedCount());
+   assertEquals(2, filter.getMutations());
+} // movingFocusDoesNotRebuild =================================================
+
+
+
+/**
+ * Initializes a filter and compares its passes and targets to its model.
+ */
+// =============================================================================
+   private static void check(RecordingFilter filter, int w, int h,
+    String settings)
+// =============================================================================
+{
+   BloomCostModel model=filter.getCostModel(w, h);
+   filter.initialize(w, h);
+   String what=settings+" at "+w+"x"+h;
+
+// The pre-glow pass is rendered by postQueue, the accumulation by the
+// post processor, all other passes are in the pass list.
+   List<PassCost> costs=new ArrayList<PassCost>();
+   for (PassCost cost : model.getPasses())
+      if (cost.getKind()!=Kind.Mipmaps && cost.getKind()!=Kind.Accumulation
+       && cost.getKind()!=Kind.PreGlow)
+         costs.add(cost);
+   List<Pass> passes=filter.getPasses();
+   assertEquals(what, costs.size(), passes.size());
+   for (int ii=0; ii<passes.size(); ii++)
+   {  Image image=passes.get(ii).getRenderedTexture().getImage();
+      assertEquals(what+", "+costs.get(ii), costs.get(ii).getWidth(),
+       image.getWidth());
+      assertEquals(what+", "+costs.get(ii), costs.get(ii).getHeight(),
+       image.getHeight());
+   }
+
+   RenderTargetPool pool=filter.getRenderTargetPool();
+   assertEquals(what, model.getTargetCount(), pool.getLiveCount());
+   assertEquals(what, model.getTargetBytes(), pool.getLiveBytes());
+} // check =====================================================================
+
+
+
+/**
+ * Checks the sizes of the passes in the pass list.
+ */
+// =============================================================================
+   private static void checkSizes(List<Pass> passes, int[][] sizes)
+// =============================================================================
+{
+   assertEquals(sizes.length, passes.size());
+   for (int ii=0; ii<sizes.length; ii++)
+   {  Image image=passes.get(ii).getRenderedTexture().getImage();
+      assertEquals("pass "+ii, sizes[ii][0], image.getWidth());
+      assertEquals("pass "+ii, sizes[ii][1], image.getHeight());
+   }
+} // checkSizes ================================================================
+
+
+
+// =============================================================================
+   private static Vector4f vector(Material material, String name)
+// =============================================================================
+{  return (Vector4f)material.getParam(name).getValue();
+} // vector ====================================================================
+
+} // ***************************************************************************
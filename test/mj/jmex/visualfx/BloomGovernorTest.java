@@ -0,0 +1,197 @@
+package mj.jmex.visualfx;
+
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+
+
+/**
+ * Drives a {@link BloomGovernor} with a synthetic clock and checks its
+ * hysteresis. The governed filter is not initialized, so the configurations
+ * of the ladder are only applied to its settings.
+ */
+// *****************************************************************************
+   public class BloomGovernorTest
+// *****************************************************************************
+{
+   private static final float BUDGET=10.0f;
+   private static final int DOWN_FRAMES=5;
+   private static final int UP_FRAMES=20;
+   private static final int COOLDOWN_FRAMES=3;
+
+   private MipmapBloomFilter filter;
+   private BloomGovernor governor;
+   private final SyntheticClock clock=new SyntheticClock();
+
+
+
+/**
+ * A clock that advances by the frame times of the test.
+ */
+// =============================================================================
+   private static final class SyntheticClock implements BloomGovernor.Clock
+// =============================================================================
+{
+   long time;
+
+   @Override
+   public long nanoTime() {return time;}
+} // SyntheticClock ============================================================
+
+
+
+// =============================================================================
+   @Before
+   public void setUp()
+// =============================================================================
+{
+   filter=new MipmapBloomFilter();
+   governor=new BloomGovernor(filter, BloomGovernor.defaultLadder(), BUDGET);
+   governor.setHysteresis(0.1f, 0.25f, DOWN_FRAMES, UP_FRAMES,
+    COOLDOWN_FRAMES);
+   governor.setClock(clock);
+   governor.update();                   // Only starts the clock.
+} // setUp =====================================================================
+
+
+
+// =============================================================================
+   @Test
+   public void stepsDownAfterDownFrames()
+// =============================================================================
+{
+   governor.setSmoothing(1.0f);
+   int top=governor.getRungCount()-1;
+   assertEquals(top, governor.getRung());
+   assertEquals(Quality.High, filter.getQuality());
+
+// Frames over budget that are interrupted do not count.
+   frames(12.0f, DOWN_FRAMES-1);
+   frames(9.0f, 1);
+   frames(12.0f, DOWN_FRAMES-1);
+   assertEquals(top, governor.getRung());
+
+   frames(12.0f, 1);
+   assertEquals(top-1, governor.getRung());
+   assertEquals(Quality.Low, filter.getQuality());
+   assertEquals(8, filter.getNumLevels());
+
+// The frames of the cooldown are ignored.
+   frames(12.0f, COOLDOWN_FRAMES+DOWN_FRAMES-1);
+   assertEquals(top-1, governor.getRung());
+   frames(12.0f, 1);
+   assertEquals(top-2, governor.getRung());
+} // stepsDownAfterDownFrames ==================================================
+
+
+
+// =============================================================================
+   @Test
+   public void doesNotOscillateAroundBudget()
+// =============================================================================
+{
+   governor.setRung(1);
+   governor.setSmoothing(0.1f);
+
+// Single frames far over and under the budget are smoothed out.
+   for (int ii=0; ii<1000; ii++)
+      frames(ii%2==0? 8.0f:13.0f, 1);
+   assertEquals(1, governor.getRung());
+
+// Frame times between the margins never step.
+   governor.setSmoothing(1.0f);
+   for (int ii=0; ii<1000; ii++)
+      frames(ii%2==0? 7.6f:10.9f, 1);
+   assertEquals(1, governor.getRung());
+
+   frames(BUDGET, 1000);
+   assertEquals(1, governor.getRung());
+} // doesNotOscillateAroundBudget ==============================================
+
+
+
+/**
+ * The top rung does not fit the budget and the one below it is well under
+ * it. Each step up that fails again doubles the frames the governor waits
+ * before it tries the next one.
+ */
+// =============================================================================
+   @Test
+   public void failedStepUpDoublesBackoff()
+// =============================================================================
+{
+   governor.setSmoothing(1.0f);
+   int top=governor.getRungCount()-1;
+
+   frames(12.0f, DOWN_FRAMES);
+   assertEquals(top-1, governor.getRung());
+
+   int[] waits=new int[4];
+   for (int ii=0; ii<waits.length; ii++)
+   {  waits[ii]=framesUntilStep(7.0f);
+      assertEquals(top, governor.getRung());
+      assertEquals(COOLDOWN_FRAMES+DOWN_FRAMES, framesUntilStep(12.0f));
+      assertEquals(top-1, governor.getRung());
+   }
+   assertEquals(COOLDOWN_FRAMES+UP_FRAMES, waits[0]);
+   assertEquals(COOLDOWN_FRAMES+2*UP_FRAMES, waits[1]);
+   assertEquals(COOLDOWN_FRAMES+4*UP_FRAMES, waits[2]);
+   assertEquals(COOLDOWN_FRAMES+8*UP_FRAMES, waits[3]);
+} // failedStepUpDoublesBackoff ================================================
+
+
+
+/**
+ * A step up that holds resets the backoff.
+ */
+// =============================================================================
+   @Test
+   public void heldStepUpResetsBackoff()
+// =============================================================================
+{
+   governor.setSmoothing(1.0f);
+   frames(12.0f, DOWN_FRAMES);
+   framesUntilStep(7.0f);
+   framesUntilStep(12.0f);
+   assertEquals(COOLDOWN_FRAMES+2*UP_FRAMES, framesUntilStep(7.0f));
+
+// The top rung now fits the budget for longer than the up frames.
+   frames(BUDGET, COOLDOWN_FRAMES+UP_FRAMES+1);
+   framesUntilStep(12.0f);
+   assertEquals(COOLDOWN_FRAMES+UP_FRAMES, framesUntilStep(7.0f));
+} // heldStepUpResetsBackoff ===================================================
+
+
+
+// =============================================================================
+   private void frames(float millis, int count)
+// =============================================================================
+{
+   for (int ii=0; ii<count; ii++)
+   {  clock.time+=(long)(millis*1000000.0f);
+      governor.update();
+   }
+} // frames ====================================================================
+
+
+
+/**
+ * Renders frames of a constant time until the governor steps.
+ * @return  The number of frames.
+ */
+// =============================================================================
+   private int framesUntilStep(float millis)
+// =============================================================================
+{
+   int rung=governor.getRung();
+   for (int ii=1; ii<=10000; ii++)
+   {  frames(millis, 1);
+      if (governor.getRung()!=rung)
+         return ii;
+   }
+   return -1;
+} // framesUntilStep ===========================================================
+
+} // ***************************************************************************
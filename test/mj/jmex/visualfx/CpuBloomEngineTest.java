@@ -0,0 +1,300 @@
+package mj.jmex.visualfx;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+
+/**
+ * Checks the {@link CpuBloomEngine} reference: the error of the levels that
+ * are updated at a reduced rate, the schedule of their passes, the seam
+ * between the eyes in stereo mode, and the failure of a tile.
+ */
+// *****************************************************************************
+   public class CpuBloomEngineTest
+// *****************************************************************************
+{
+   private static final int WIDTH=320;
+   private static final int HEIGHT=180;
+   private static final int FRAMES=48;
+
+
+
+/**
+ * Renders a moving highlight with and without update periods on the levels
+ * 5 and up, and compares the outputs of each frame. The error is the RMS
+ * difference relative to the RMS of the bloom of the reference.
+ */
+// =============================================================================
+   @Test
+   public void amortizedErrorIsBounded()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+   {  double bound=quality==Quality.Low? 0.025:0.01;
+      for (int period=2; period<=4; period+=2)
+      {  double error=amortizedError(quality, period);
+         String what=quality+" period "+period+": "+error;
+         assertTrue(what, error<bound);
+         assertTrue(what, error>0.0);
+      }
+   }
+} // amortizedErrorIsBounded ===================================================
+
+
+
+/**
+ * Levels with the same period are staggered, so the number of levels a render
+ * updates differs by at most one, and each level is updated once per period.
+ */
+// =============================================================================
+   @Test
+   public void staggeringKeepsLevelCountFlat()
+// =============================================================================
+{
+   float[] scene=scene(0);
+   float[] out=new float[scene.length];
+   for (int period=2; period<=4; period++)
+   {  CpuBloomEngine engine=new CpuBloomEngine();
+      for (int ii=4; ii<MipmapBloomFilter.MAX_LEVELS; ii++)
+         engine.setUpdatePeriod(ii, period);
+      engine.render(scene, WIDTH, HEIGHT, out);
+      int levels=engine.getLevelCount();
+      assertEquals(levels, scheduledLevels(engine));
+
+      int amortized=levels-4;
+      int min=Integer.MAX_VALUE;
+      int max=0;
+      int[] updates=new int[levels];
+      for (int frame=0; frame<4*period; frame++)
+      {  engine.render(scene, WIDTH, HEIGHT, out);
+         int count=scheduledLevels(engine);
+         min=Math.min(min, count);
+         max=Math.max(max, count);
+         for (int ii=0; ii<levels; ii++)
+            if (engine.isScheduled(ii))
+               updates[ii]++;
+      }
+      String what="period "+period;
+      assertEquals(what, 4+amortized/period, min);
+      assertEquals(what, 4+(amortized+period-1)/period, max);
+      for (int ii=0; ii<levels; ii++)
+         assertEquals(what+" level "+ii, ii<4? 4*period:4, updates[ii]);
+   }
+} // staggeringKeepsLevelCountFlat =============================================
+
+
+
+/**
+ * In stereo mode no bloom crosses the seam between the eyes, in any quality,
+ * with a separate or fused extract and with the built-in or a generated blur
+ * kernel. Without it, the eyes bleed into each other.
+ */
+// =============================================================================
+   @Test
+   public void stereoKeepsBloomInItsEye()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+      for (int ii=0; ii<4; ii++)
+      {  CpuBloomEngine engine=new CpuBloomEngine();
+         engine.setQuality(quality);
+         engine.setFusedExtract(ii%2==1);
+         engine.setBlurKernel(ii>=2? GaussianKernel.get(2.5f, 6):null);
+         String what=quality+" fused "+engine.isFusedExtract()+" kernel "
+          +(ii>=2);
+
+         engine.setStereo(true);
+         assertEquals(what, 0.0, measureSeamLeak(engine, WIDTH, HEIGHT),
+          1.0e-5);
+         engine.setStereo(false);
+         assertTrue(what, measureSeamLeak(engine, WIDTH, HEIGHT)>0.1);
+      }
+} // stereoKeepsBloomInItsEye ==================================================
+
+
+
+/**
+ * A kernel that fails in some tiles: the failure is rethrown on the calling
+ * thread once all tiles have finished, and the engine runs the next kernel
+ * over all rows.
+ */
+// =============================================================================
+   @Test
+   public void failedTileIsRethrown()
+// =============================================================================
+{
+   ForkJoinPool pool=new ForkJoinPool(4);
+   try
+   {  CpuBloomEngine engine=new CpuBloomEngine(pool);
+      final int rows=HEIGHT;
+      final AtomicIntegerArray runs=new AtomicIntegerArray(rows);
+      for (int ii=0; ii<20; ii++)
+      {  final RuntimeException failure=new IllegalArgumentException();
+         CpuBloomEngine.RowKernel failing=new CpuBloomEngine.RowKernel()
+         {  @Override
+            void run(int y0, int y1)
+            {  for (int y=y0; y<y1; y++)
+                  runs.incrementAndGet(y);
+               if (y1>rows/2)
+                  throw failure;
+            }
+         };
+         try
+         {  engine.runRows(failing, rows);
+            fail("The failure of a tile is lost.");
+         }
+         catch (IllegalStateException e)
+         {  assertSame(failure, e.getCause());
+         }
+         checkRuns(runs, 1);
+
+         engine.runRows(new CpuBloomEngine.RowKernel()
+         {  @Override
+            void run(int y0, int y1)
+            {  for (int y=y0; y<y1; y++)
+                  runs.incrementAndGet(y);
+            }
+         }, rows);
+         checkRuns(runs, 2);
+      }
+   }
+   finally
+   {  pool.shutdown();
+   }
+} // failedTileIsRethrown ======================================================
+
+
+
+/**
+ * Checks that each row has been run a number of times, and resets the counts.
+ */
+// =============================================================================
+   private static void checkRuns(AtomicIntegerArray runs, int count)
+// =============================================================================
+{
+   for (int y=0; y<runs.length(); y++)
+   {  assertEquals("row "+y, count, runs.get(y));
+      if (count>1)
+         runs.set(y, 0);
+   }
+} // checkRuns =================================================================
+
+
+
+/**
+ * Measures the bloom that crosses the seam between the eyes: renders a scene
+ * that is lit only by a stripe along the seam in the left eye, and compares
+ * the bloom added to the right eye to the bloom added to the left one. In
+ * stereo mode the result is 0, up to the rounding of the clamped texture
+ * coordinates; without it, it shows how much the eyes bleed into each other.
+ *
+ * @param engine  An engine with all update periods at 1.
+ * @param width   The width of both eyes together.
+ * @param height
+ * @return  The bloom energy in the right eye divided by the one in the left
+ *          eye.
+ */
+// =============================================================================
+   static double measureSeamLeak(CpuBloomEngine engine, int width, int height)
+// =============================================================================
+{
+   float[] scene=new float[width*height*3];
+   int seam=width/2;
+   int stripe=Math.max(1, width/32);
+   for (int y=0; y<height; y++)
+      for (int x=seam-stripe; x<seam; x++)
+         Arrays.fill(scene, (y*width+x)*3, (y*width+x)*3+3, 4.0f);
+   float[] out=new float[scene.length];
+   engine.render(scene, width, height, out);
+
+   double left=0.0;
+   double right=0.0;
+   for (int y=0; y<height; y++)
+      for (int x=0, i=y*width*3; x<width; x++, i+=3)
+      {  double bloom=out[i]+out[i+1]+out[i+2]
+          -scene[i]-scene[i+1]-scene[i+2];
+         if (x<seam)
+            left+=bloom;
+         else
+            right+=bloom;
+      }
+   return left>0.0? right/left:0.0;
+} // measureSeamLeak ===========================================================
+
+
+
+/**
+ * @return  The relative RMS error over all frames.
+ */
+// =============================================================================
+   private static double amortizedError(Quality quality, int period)
+// =============================================================================
+{
+   CpuBloomEngine reference=new CpuBloomEngine();
+   CpuBloomEngine amortized=new CpuBloomEngine();
+   reference.setQuality(quality);
+   amortized.setQuality(quality);
+   for (int ii=5; ii<MipmapBloomFilter.MAX_LEVELS; ii++)
+      amortized.setUpdatePeriod(ii, period);
+
+   float[] expected=new float[WIDTH*HEIGHT*3];
+   float[] actual=new float[expected.length];
+   double error=0.0;
+   double bloom=0.0;
+   for (int frame=0; frame<FRAMES; frame++)
+   {  float[] scene=scene(frame);
+      reference.render(scene, WIDTH, HEIGHT, expected);
+      amortized.render(scene, WIDTH, HEIGHT, actual);
+      for (int ii=0; ii<expected.length; ii++)
+      {  double d=actual[ii]-expected[ii];
+         double b=expected[ii]-scene[ii];
+         error+=d*d;
+         bloom+=b*b;
+      }
+   }
+   return Math.sqrt(error/bloom);
+} // amortizedError ============================================================
+
+
+
+/**
+ * A dim scene with a bright disc that moves one pixel per frame.
+ */
+// =============================================================================
+   static float[] scene(int frame)
+// =============================================================================
+{
+   float[] scene=new float[WIDTH*HEIGHT*3];
+   Arrays.fill(scene, 0.2f);
+   int cx=WIDTH/4+frame;
+   int cy=HEIGHT/2;
+   int r=4;
+   for (int y=cy-r; y<=cy+r; y++)
+      for (int x=cx-r; x<=cx+r; x++)
+         if ((x-cx)*(x-cx)+(y-cy)*(y-cy)<=r*r)
+            Arrays.fill(scene, (y*WIDTH+x)*3, (y*WIDTH+x)*3+3, 4.0f);
+   return scene;
+} // scene =====================================================================
+
+
+
+// =============================================================================
+   private static int scheduledLevels(CpuBloomEngine engine)
+// =============================================================================
+{
+   int count=0;
+   for (int ii=0; ii<engine.getLevelCount(); ii++)
+      if (engine.isScheduled(ii))
+         count++;
+   return count;
+} // scheduledLevels ===========================================================
+
+} // ***************************************************************************
@@ -0,0 +1,110 @@
+package mj.jmex.visualfx;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+
+/**
+ * Checks that the folded taps of a {@link GaussianKernel}, sampled with
+ * linear interpolation like the bilinear fetches of the blur shaders, give
+ * the same blur as the discrete kernel.
+ */
+// *****************************************************************************
+   public class GaussianKernelTest
+// *****************************************************************************
+{
+   private static final float[][] KERNELS={{1.0f, 2}, {1.9f, 3}, {2.5f, 4},
+    {4.0f, 9}, {8.0f, 24}, {3.0f, 32}};
+   private static final int SIZE=256;
+
+
+
+// =============================================================================
+   @Test
+   public void weightsSumToOne()
+// =============================================================================
+{
+   for (float[] k : KERNELS)
+   {  GaussianKernel kernel=GaussianKernel.get(k[0], (int)k[1]);
+      double discrete=kernel.getDiscreteWeight(0);
+      for (int ii=1; ii<=kernel.getRadius(); ii++)
+         discrete+=2.0*kernel.getDiscreteWeight(ii);
+      double folded=kernel.getWeight(0);
+      for (int ii=1; ii<kernel.getTapCount(); ii++)
+         folded+=2.0*kernel.getWeight(ii);
+      assertEquals("discrete "+kernel(kernel), 1.0, discrete, 1.0e-6);
+      assertEquals("folded "+kernel(kernel), 1.0, folded, 1.0e-6);
+   }
+} // weightsSumToOne ===========================================================
+
+
+
+// =============================================================================
+   @Test
+   public void foldedMatchesDiscrete()
+// =============================================================================
+{
+   Random random=new Random(11);
+   float[] signal=new float[SIZE];
+   for (int ii=0; ii<SIZE; ii++)
+      signal[ii]=4.0f*random.nextFloat();
+
+   for (float[] k : KERNELS)
+   {  GaussianKernel kernel=GaussianKernel.get(k[0], (int)k[1]);
+      assertEquals(1+(kernel.getRadius()+1)/2, kernel.getTapCount());
+      int radius=kernel.getRadius();
+      for (int x=radius; x<SIZE-radius; x++)
+      {  float discrete=kernel.getDiscreteWeight(0)*signal[x];
+         for (int ii=1; ii<=radius; ii++)
+            discrete+=kernel.getDiscreteWeight(ii)
+             *(signal[x-ii]+signal[x+ii]);
+
+         float folded=kernel.getWeight(0)*signal[x];
+         for (int ii=1; ii<kernel.getTapCount(); ii++)
+            folded+=kernel.getWeight(ii)
+             *(sample(signal, x-kernel.getOffset(ii))
+             +sample(signal, x+kernel.getOffset(ii)));
+
+         assertEquals(kernel(kernel)+" at "+x, discrete, folded, 3.0e-5f);
+      }
+   }
+} // foldedMatchesDiscrete =====================================================
+
+
+
+// =============================================================================
+   @Test
+   public void kernelsAreCached()
+// =============================================================================
+{  assertSame(GaussianKernel.get(2.5f, 4), GaussianKernel.get(2.5f, 4));
+} // ===========================================================================
+
+
+
+/**
+ * Samples a signal with linear interpolation, as a bilinear fetch does along
+ * the blur direction.
+ */
+// =============================================================================
+   private static float sample(float[] signal, float x)
+// =============================================================================
+{
+   int x0=(int)Math.floor(x);
+   float t=x-x0;
+   if (t==0.0f)
+      return signal[x0];
+   return signal[x0]+t*(signal[x0+1]-signal[x0]);
+} // sample ====================================================================
+
+
+
+// =============================================================================
+   private static String kernel(GaussianKernel kernel)
+// =============================================================================
+{  return "sigma "+kernel.getSigma()+" radius "+kernel.getRadius();
+} // ===========================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,132 @@
+package mj.jmex.visualfx;
+
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.renderer.queue.RenderQueue.Bucket;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.shape.Box;
+import mj.jmex.visualfx.MipmapBloomFilter.GlowMode;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+
+/**
+ * Checks the glow culling against the culled render queue: the pre-glow pass
+ * is only rendered while a glowing geometry is in the queue, and
+ * <code>GlowMode.Objects</code> composites the scene as it is meanwhile.
+ */
+// *****************************************************************************
+   public class GlowCullingTest
+// *****************************************************************************
+{
+   private final Geometry plain=geometry("plain", false);
+   private final Geometry glowing=geometry("glowing", true);
+
+
+
+/**
+ * The bloom chain is skipped while the queue has no glowing geometry, in
+ * any bucket, and resumed when one is queued.
+ */
+// =============================================================================
+   @Test
+   public void objectsModeSkipsChainWithoutGlow()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+      for (Bucket bucket : new Bucket[] {Bucket.Opaque, Bucket.Transparent,
+       Bucket.Gui})
+      {  RecordingFilter filter=new RecordingFilter(quality);
+         filter.setGlowMode(GlowMode.Objects);
+         filter.setGlowCulling(true);
+         filter.initialize(1280, 720);
+         String what=quality+" "+bucket;
+         Material material=filter.getMaterial();
+         int passes=filter.getPasses().size();
+         RenderQueue queue=filter.getRenderQueue();
+
+         queue.addToQueue(plain, Bucket.Opaque);
+         filter.frame(0.016f);
+         assertFalse(what, filter.isGlowVisible());
+         assertTrue(what, filter.getPasses().isEmpty());
+         Material passThrough=filter.getMaterial();
+         assertNotSame(what, material, passThrough);
+         assertNull(what, passThrough.getParam("Texture1"));
+
+         queue.addToQueue(glowing, bucket);
+         filter.frame(0.016f);
+         assertTrue(what, filter.isGlowVisible());
+         assertEquals(what, passes, filter.getPasses().size());
+         assertSame(what, material, filter.getMaterial());
+
+         queue.clear();
+         filter.frame(0.016f);
+         assertFalse(what, filter.isGlowVisible());
+         assertSame(what, passThrough, filter.getMaterial());
+
+         filter.setGlowCulling(false);
+         assertTrue(what, filter.isGlowVisible());
+         assertSame(what, material, filter.getMaterial());
+         assertEquals(what, passes, filter.getPasses().size());
+      }
+} // objectsModeSkipsChainWithoutGlow ==========================================
+
+
+
+/**
+ * The glow map of <code>GlowMode.SceneAndObjects</code> is cleared once
+ * while no glowing geometry is queued, and rendered again when one is.
+ */
+// =============================================================================
+   @Test
+   public void glowMapIsClearedOnce()
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(Quality.High);
+   filter.setGlowMode(GlowMode.SceneAndObjects);
+   filter.setGlowCulling(true);
+   filter.initialize(1280, 720);
+   int passes=filter.getPasses().size();
+   RecordingRenderer renderer=filter.getRecordingRenderer();
+   RenderQueue queue=filter.getRenderQueue();
+   queue.addToQueue(plain, Bucket.Opaque);
+
+   renderer.reset();
+   for (int ii=0; ii<5; ii++)
+      filter.frame(0.016f);
+   assertFalse(filter.isGlowVisible());
+   assertEquals(1, renderer.count("clearBuffers"));
+   assertEquals(passes, filter.getPasses().size());
+
+   queue.addToQueue(glowing, Bucket.Opaque);
+   renderer.reset();
+   for (int ii=0; ii<5; ii++)
+      filter.frame(0.016f);
+   assertTrue(filter.isGlowVisible());
+   assertEquals(5, renderer.count("clearBuffers"));
+} // glowMapIsClearedOnce ======================================================
+
+
+
+// =============================================================================
+   private static Geometry geometry(String name, boolean glowing)
+// =============================================================================
+{
+   Material mat=new Material(RecordingFilter.assetManager(),
+    "Common/MatDefs/Misc/Unshaded.j3md");
+   if (glowing)
+      mat.setColor("GlowColor", ColorRGBA.White);
+   Geometry geometry=new Geometry(name, new Box(1.0f, 1.0f, 1.0f));
+   geometry.setMaterial(mat);
+   return geometry;
+} // geometry ==================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,257 @@
+package mj.jmex.visualfx;
+
+import com.jme3.material.Material;
+import com.jme3.math.ColorRGBA;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.shape.Box;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+
+/**
+ * Checks the bookkeeping of a {@link GlowRegistry} across adds and removes of
+ * overlapping subtrees: the registered geometries, their counts, and the
+ * render order, which has the glowing geometries ahead of the occluders.
+ */
+// *****************************************************************************
+   public class GlowRegistryTest
+// *****************************************************************************
+{
+   private final Material glow=material(true);
+   private final Material plain=material(false);
+   private final Camera cam=new Camera(1280, 720);
+   private final ArrayList<Geometry> rendered=new ArrayList<Geometry>();
+   private final RenderManager rm=new RenderManager(
+    new RecordingRenderer().getRenderer())
+   {  @Override
+      public void renderGeometry(Geometry geometry) {rendered.add(geometry);}
+   };
+   private final GlowRegistry registry=new GlowRegistry();
+
+
+
+/**
+ * Glowing and plain geometries in a tree with a shared subtree.
+ */
+// =============================================================================
+   @Test
+   public void subtreesAreAddedAndRemoved()
+// =============================================================================
+{
+   Geometry g1=geometry("g1", glow), p1=geometry("p1", plain);
+   Geometry g2=geometry("g2", glow), p2=geometry("p2", plain);
+   Geometry g3=geometry("g3", glow);
+   Node sub=node("sub", g2, p2, g3);
+   Node root=node("root", g1, p1, sub);
+
+   registry.add(root);
+   check(list(g1, g2, g3), list());
+   registry.addOccluder(sub);
+   check(list(g1, g2, g3), list(p2));
+   registry.addOccluder(root);
+   check(list(g1, g2, g3), list(p1, p2));
+
+// Adding again changes nothing.
+   registry.add(root);
+   registry.addOccluder(sub);
+   check(list(g1, g2, g3), list(p1, p2));
+
+// A glowing geometry in front leaves, and the last occluder moves up.
+   registry.remove(g1);
+   check(list(g2, g3), list(p1, p2));
+   registry.remove(sub);
+   check(list(), list(p1));
+   registry.add(sub);
+   check(list(g2, g3), list(p1));
+   registry.add(g1);
+   check(list(g1, g2, g3), list(p1));
+
+// A geometry whose material changed is added again.
+   g2.setMaterial(plain);
+   registry.addOccluder(g2);
+   check(list(g1, g3), list(p1, g2));
+   p1.setMaterial(glow);
+   registry.add(p1);
+   check(list(g1, g3, p1), list(g2));
+
+   registry.remove(root);
+   check(list(), list());
+   registry.addOccluder(root);
+   registry.clear();
+   check(list(), list());
+} // subtreesAreAddedAndRemoved ================================================
+
+
+
+/**
+ * A random mix of adds and removes of overlapping subtrees, against a model
+ * of the registered geometries.
+ */
+// =============================================================================
+   @Test
+   public void randomMixKeepsRegistryConsistent()
+// =============================================================================
+{
+   Random random=new Random(17);
+   Geometry[] geometries=new Geometry[24];
+   for (int ii=0; ii<geometries.length; ii++)
+      geometries[ii]=geometry("g"+ii, random.nextBoolean()? glow:plain);
+// Subtrees of a few consecutive geometries, which overlap each other.
+   List<List<Geometry>> subtrees=new ArrayList<List<Geometry>>();
+   for (int ii=0; ii<geometries.length; ii++)
+   {  List<Geometry> subtree=new ArrayList<Geometry>();
+      for (int jj=ii; jj<Math.min(geometries.length, ii+1+ii%5); jj++)
+         subtree.add(geometries[jj]);
+      subtrees.add(subtree);
+   }
+
+   Set<Geometry> model=Collections.newSetFromMap(
+    new IdentityHashMap<Geometry, Boolean>());
+   for (int step=0; step<2000; step++)
+   {  List<Geometry> subtree=subtrees.get(random.nextInt(subtrees.size()));
+      Node node=node("subtree", subtree.toArray(new Geometry[0]));
+      int op=random.nextInt(3);
+      if (op==0)
+         registry.add(node);
+      else if (op==1)
+         registry.addOccluder(node);
+      else
+         registry.remove(node);
+      for (Geometry geometry : subtree)
+         if (op==2)
+            model.remove(geometry);
+         else if (op==1 || GlowRegistry.isGlowing(geometry.getMaterial()))
+            model.add(geometry);
+
+      String what="step "+step;
+      checkOrder(what);
+      assertEquals(what, model.size(), registry.size());
+      for (Geometry geometry : geometries)
+         assertEquals(what+", "+geometry.getName(), model.contains(geometry),
+          registry.contains(geometry));
+      assertTrue(what, rendered.containsAll(model));
+   }
+} // randomMixKeepsRegistryConsistent ==========================================
+
+
+
+/**
+ * Checks the registered geometries, the glowing ones in any order ahead of
+ * the occluders in any order.
+ */
+// =============================================================================
+   private void check(List<Geometry> glowing, List<Geometry> occluders)
+// =============================================================================
+{
+   checkOrder("");
+   assertEquals(glowing.size(), registry.getGlowCount());
+   assertEquals(glowing.size()+occluders.size(), registry.size());
+   assertEquals(identities(glowing),
+    identities(rendered.subList(0, glowing.size())));
+   assertEquals(identities(occluders),
+    identities(rendered.subList(glowing.size(), rendered.size())));
+   for (Geometry geometry : rendered)
+      assertTrue(geometry.getName(), registry.contains(geometry));
+} // check =====================================================================
+
+
+
+/**
+ * Renders the registry and checks that each geometry is rendered once, the
+ * glowing ones first.
+ */
+// =============================================================================
+   private void checkOrder(String what)
+// =============================================================================
+{
+   rendered.clear();
+   assertEquals(what, registry.getGlowCount(), registry.render(rm, cam));
+   assertEquals(what, registry.size(), rendered.size());
+   assertEquals(what, rendered.size(), identities(rendered).size());
+   for (int ii=0; ii<rendered.size(); ii++)
+      assertEquals(what+", "+ii, ii<registry.getGlowCount(),
+       GlowRegistry.isGlowing(rendered.get(ii).getMaterial()));
+   assertEquals(what, registry.getGlowCount()>0, registry.hasVisibleGlow(cam));
+} // checkOrder ================================================================
+
+
+
+// =============================================================================
+   private static Set<Geometry> identities(List<Geometry> geometries)
+// =============================================================================
+{
+   Set<Geometry> set=Collections.newSetFromMap(
+    new IdentityHashMap<Geometry, Boolean>());
+   set.addAll(geometries);
+   return set;
+} // identities ================================================================
+
+
+
+// =============================================================================
+   private static List<Geometry> list(Geometry... geometries)
+// =============================================================================
+{  List<Geometry> list=new ArrayList<Geometry>();
+   Collections.addAll(list, geometries);
+   return list;
+} // list ======================================================================
+
+
+
+/**
+ * Makes a node for a subtree. The registry only reads the children of the
+ * node, which are not attached to it, so a geometry can be in several.
+ */
+// =============================================================================
+   private static Node node(String name, final Spatial... spatials)
+// =============================================================================
+{
+   return new Node(name)
+   {  @Override
+      public List<Spatial> getChildren()
+       {return new ArrayList<Spatial>(Arrays.asList(spatials));}
+   };
+} // node ======================================================================
+
+
+
+/**
+ * Makes a geometry that is always in the view frustum.
+ */
+// =============================================================================
+   private static Geometry geometry(String name, Material mat)
+// =============================================================================
+{
+   Geometry geometry=new Geometry(name, new Box(1.0f, 1.0f, 1.0f));
+   geometry.setMaterial(mat);
+   geometry.setCullHint(Spatial.CullHint.Never);
+   return geometry;
+} // geometry ==================================================================
+
+
+
+// =============================================================================
+   private static Material material(boolean glowing)
+// =============================================================================
+{
+   Material mat=new Material(RecordingFilter.assetManager(),
+    "Common/MatDefs/Misc/Unshaded.j3md");
+   if (glowing)
+      mat.setColor("GlowColor", ColorRGBA.White);
+   return mat;
+} // material ==================================================================
+
+} // ***************************************************************************
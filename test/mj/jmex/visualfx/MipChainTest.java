@@ -0,0 +1,123 @@
+package mj.jmex.visualfx;
+
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.post.Filter.Pass;
+import com.jme3.texture.Image;
+import com.jme3.texture.Texture;
+import java.util.List;
+import mj.jmex.visualfx.MipmapBloomFilter.LevelStorage;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+
+
+/**
+ * Checks the sizes of the levels in the mip chain storage: the passes the
+ * filter renders must have the sizes of their levels, and the levels of
+ * detail the accumulation reads the chain at must select the mipmaps of the
+ * level sizes, both explicitly and as a bias on the level of detail the GPU
+ * selects at the screen size.
+ */
+// *****************************************************************************
+   public class MipChainTest
+// *****************************************************************************
+{
+   private static final int[][] RESOLUTIONS={{1280, 720}, {1920, 1080},
+    {1366, 768}};
+   private static final float[] COEFS={2.0f, 1.5f};
+   private static final float EPSILON=1e-4f;
+   private static final float ROUNDING=0.01f;
+
+
+
+// =============================================================================
+   @Test
+   public void levelsHaveLevelSizes()
+// =============================================================================
+{
+   for (int[] resolution : RESOLUTIONS)
+      for (Quality quality : new Quality[] {Quality.Low, Quality.High})
+         for (int fused=0; fused<2; fused++)
+            for (float coef : COEFS)
+               check(resolution[0], resolution[1], quality, fused==1, coef);
+} // levelsHaveLevelSizes ======================================================
+
+
+
+// =============================================================================
+   private static void check(int w, int h, Quality quality, boolean fused,
+    float coef)
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(quality);
+   filter.setLevelStorage(LevelStorage.MipChain);
+   filter.setFusedExtract(fused);
+   filter.setDownSamplingCoef(coef);
+   filter.initialize(w, h);
+   String what=quality+" fused "+fused+" coef "+coef+" at "+w+"x"+h;
+   int levels=filter.getNumLevels();
+
+// The extract, or level 0 if it is fused, and the blur passes of the levels
+// from 3 on in high quality.
+   List<Pass> passes=filter.getPasses();
+   assertEquals(what, 1+(quality==Quality.High? 2*(levels-3):0),
+    passes.size());
+   Image chain=passes.get(0).getRenderedTexture().getImage();
+   assertSize(what+", chain", fused? level(w, coef, 0):w,
+    fused? level(h, coef, 0):h, chain);
+   for (int ii=1; ii<passes.size(); ii++)
+   {  int level=3+(ii-1)/2;
+      assertSize(what+", blur of level "+level, level(w, coef, level),
+       level(h, coef, level), passes.get(ii).getRenderedTexture().getImage());
+   }
+
+   Material material=filter.getMaterial();
+   Texture mipChain=material.getTextureParam("MipChain").getTextureValue();
+   assertEquals(what, chain, mipChain.getImage());
+   float[] lods=(float[])material.getParam("Lods").getValue();
+   float chainLod=((Float)material.getParam("ChainLod").getValue())
+    .floatValue();
+   assertEquals(what, log2(Math.max((float)chain.getWidth()/w,
+    (float)chain.getHeight()/h)), chainLod, EPSILON);
+   if (fused && coef==2.0f)
+      assertEquals(what, -1.0f, chainLod, EPSILON);
+
+// The explicit level of detail of the GLSL150 technique is relative to the
+// chain, the bias of the GLSL100 technique to the screen. The rounding of the
+// level sizes in both axes leaves a small error on the bias.
+   for (int ii=fused? 1:0; ii<levels; ii++)
+   {  int lw=level(w, coef, ii), lh=level(h, coef, ii);
+      assertEquals(what+", level "+ii, log2(Math.max(
+       (float)chain.getWidth()/lw, (float)chain.getHeight()/lh)), lods[ii],
+       EPSILON);
+      assertEquals(what+", level "+ii, log2(Math.max((float)w/lw,
+       (float)h/lh)), lods[ii]-chainLod, ROUNDING);
+   }
+} // check =====================================================================
+
+
+
+// =============================================================================
+   private static void assertSize(String what, int w, int h, Image image)
+// =============================================================================
+{  assertEquals(what, w, image.getWidth());
+   assertEquals(what, h, image.getHeight());
+} // assertSize ================================================================
+
+
+
+// =============================================================================
+   private static int level(int size, float coef, int level)
+// =============================================================================
+{  return Math.max(1, (int)(size/FastMath.pow(coef, level+1)));
+} // level =====================================================================
+
+
+
+// =============================================================================
+   private static float log2(float x) {return FastMath.log(x, 2.0f);}
+// =============================================================================
+
+} // ***************************************************************************
@@ -0,0 +1,90 @@
+package mj.jmex.visualfx;
+
+import mj.jmex.visualfx.MipmapBloomFilter.GlowMode;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+
+
+/**
+ * Checks that the static parameters of the passes are set once when they are
+ * built, and that a frame only changes the parameters a setter has marked as
+ * dirty.
+ */
+// *****************************************************************************
+   public class ParameterUpdateTest
+// *****************************************************************************
+{
+
+
+
+// =============================================================================
+   @Test
+   public void steadyStateFrameMutatesNothing()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+      for (GlowMode glowMode : GlowMode.values())
+         for (int fused=0; fused<2; fused++)
+         {  RecordingFilter filter=filter(quality, glowMode, fused==1);
+            String what=quality+" "+glowMode+" fused "+(fused==1);
+            filter.reset();
+            for (int ii=0; ii<10; ii++)
+               filter.frame(0.016f);
+            assertEquals(what, 0, filter.getMutations());
+         }
+} // steadyStateFrameMutatesNothing ============================================
+
+
+
+/**
+ * An exposure change sets the power and the cut-off of the extract material
+ * once, in the next frame.
+ */
+// =============================================================================
+   @Test
+   public void exposureChangeMutatesExtractOnce()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+      for (int fused=0; fused<2; fused++)
+      {  RecordingFilter filter=filter(quality, GlowMode.Scene, fused==1);
+         String what=quality+" fused "+(fused==1);
+         filter.reset();
+         filter.setExposurePower(4.0f);
+         assertEquals(what, 0, filter.getMutations());
+         filter.frame(0.016f);
+         assertEquals(what, 2, filter.getMutations());
+
+         filter.reset();
+         filter.frame(0.016f);
+         assertEquals(what, 0, filter.getMutations());
+
+         filter.setExposurePower(5.0f);
+         filter.setExposureCutOff(0.1f);
+         filter.frame(0.016f);
+         assertEquals(what, 2, filter.getMutations());
+      }
+} // exposureChangeMutatesExtractOnce ==========================================
+
+
+
+/**
+ * Makes an initialized filter that has rendered a few frames.
+ */
+// =============================================================================
+   private static RecordingFilter filter(Quality quality, GlowMode glowMode,
+    boolean fused)
+// =============================================================================
+{
+   RecordingFilter filter=new RecordingFilter(quality);
+   filter.setGlowMode(glowMode);
+   filter.setFusedExtract(fused);
+   filter.initialize(1280, 720);
+   for (int ii=0; ii<3; ii++)
+      filter.frame(0.016f);
+   return filter;
+} // filter ====================================================================
+
+} // ***************************************************************************
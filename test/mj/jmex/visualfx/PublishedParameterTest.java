@@ -0,0 +1,182 @@
+package mj.jmex.visualfx;
+
+import java.util.ArrayList;
+import java.util.List;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+
+/**
+ * Checks the parameters that are published for the next frame: they are only
+ * applied by a frame, the last one of several values wins, the bloom factor
+ * and power are applied as a pair, and a value published while the frame
+ * applies the others is kept for the next frame.
+ */
+// *****************************************************************************
+   public class PublishedParameterTest
+// *****************************************************************************
+{
+   private static final float EPSILON=0.0f;
+
+
+
+// =============================================================================
+   @Test
+   public void publishedValuesAreCoalesced()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+   {  IntensityFilter filter=filter(quality);
+      String what=quality.toString();
+      float power=filter.getExposurePower();
+      float cutOff=filter.getExposureCutOff();
+
+      filter.publishExposurePower(4.0f);
+      filter.publishExposurePower(5.0f);
+      filter.publishExposureCutOff(0.1f);
+      filter.publishExposurePower(6.0f);
+      filter.publishExposureCutOff(0.2f);
+      assertEquals(what, power, filter.getExposurePower(), EPSILON);
+      assertEquals(what, cutOff, filter.getExposureCutOff(), EPSILON);
+      assertEquals(what, 0, filter.getMutations());
+
+//    The extract material takes over the last values once.
+      filter.frame(0.016f);
+      assertEquals(what, 6.0f, filter.getExposurePower(), EPSILON);
+      assertEquals(what, 0.2f, filter.getExposureCutOff(), EPSILON);
+      assertEquals(what, 2, filter.getMutations());
+
+      filter.reset();
+      filter.frame(0.016f);
+      assertEquals(what, 0, filter.getMutations());
+
+//    Values that do not change anything are not applied.
+      filter.publishExposurePower(6.0f);
+      filter.publishBloomIntensity(filter.getBloomFactor(),
+       filter.getBloomPower());
+      filter.frame(0.016f);
+      assertEquals(what, 0, filter.getMutations());
+      assertEquals(what, 0, filter.applied.size());
+   }
+} // publishedValuesAreCoalesced ===============================================
+
+
+
+/**
+ * Of several intensities only the last pair is applied, in one call.
+ */
+// =============================================================================
+   @Test
+   public void intensityIsAppliedAsPair()
+// =============================================================================
+{
+   IntensityFilter filter=filter(Quality.High);
+   filter.publishBloomIntensity(2.0f, 3.0f);
+   filter.publishBloomIntensity(4.0f, 5.0f);
+   assertEquals(0, filter.applied.size());
+   filter.frame(0.016f);
+   checkApplied(filter, 4.0f, 5.0f);
+
+// Only the power changes.
+   filter.publishBloomIntensity(4.0f, 1.25f);
+   filter.frame(0.016f);
+   checkApplied(filter, 4.0f, 1.25f);
+
+   filter.frame(0.016f);
+   assertEquals(0, filter.applied.size());
+} // intensityIsAppliedAsPair ==================================================
+
+
+
+/**
+ * A value published while the frame applies the published values is not
+ * lost, but applied by the next frame.
+ */
+// =============================================================================
+   @Test
+   public void valuePublishedDuringApplyIsAppliedNextFrame()
+// =============================================================================
+{
+   IntensityFilter filter=filter(Quality.High);
+   filter.republished=new float[] {6.0f, 7.0f};
+   filter.publishBloomIntensity(4.0f, 5.0f);
+   filter.frame(0.016f);
+   checkApplied(filter, 4.0f, 5.0f);
+
+   filter.frame(0.016f);
+   checkApplied(filter, 6.0f, 7.0f);
+
+   filter.frame(0.016f);
+   assertEquals(0, filter.applied.size());
+} // valuePublishedDuringApplyIsAppliedNextFrame ===============================
+
+
+
+/**
+ * Checks that a frame applied one intensity, and clears the applied ones.
+ */
+// =============================================================================
+   private static void checkApplied(IntensityFilter filter, float factor,
+    float power)
+// =============================================================================
+{
+   assertEquals(1, filter.applied.size());
+   assertArrayEquals(new float[] {factor, power}, filter.applied.get(0),
+    EPSILON);
+   assertEquals(factor, filter.getBloomFactor(), EPSILON);
+   assertEquals(power, filter.getBloomPower(), EPSILON);
+   filter.applied.clear();
+} // checkApplied ==============================================================
+
+
+
+/**
+ * Makes an initialized filter that has rendered a few frames.
+ */
+// =============================================================================
+   private static IntensityFilter filter(Quality quality)
+// =============================================================================
+{
+   IntensityFilter filter=new IntensityFilter(quality);
+   filter.initialize(1280, 720);
+   for (int ii=0; ii<3; ii++)
+      filter.frame(0.016f);
+   filter.reset();
+   filter.applied.clear();
+   return filter;
+} // filter ====================================================================
+
+
+
+/**
+ * Records the intensities that are applied, and publishes another one from
+ * within the first of them.
+ */
+// =============================================================================
+   private static class IntensityFilter extends RecordingFilter
+// =============================================================================
+{
+   final List<float[]> applied=new ArrayList<float[]>();
+   float[] republished;
+
+   IntensityFilter(Quality quality) {super(quality);}
+
+   @Override
+   public void setBloomIntensity(float bloomFactor, float bloomPower)
+   {  super.setBloomIntensity(bloomFactor, bloomPower);
+//    The constructor of the filter sets the default intensity.
+      if (applied==null)
+         return;
+      applied.add(new float[] {bloomFactor, bloomPower});
+      if (republished!=null)
+      {  float[] intensity=republished;
+         republished=null;
+         publishBloomIntensity(intensity[0], intensity[1]);
+      }
+   }
+} // IntensityFilter ===========================================================
+
+} // ***************************************************************************
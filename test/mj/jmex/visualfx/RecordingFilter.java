@@ -0,0 +1,221 @@
+package mj.jmex.visualfx;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.asset.plugins.FileLocator;
+import com.jme3.material.Material;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.renderer.queue.RenderQueue;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * A {@link MipmapBloomFilter} that is driven by the tests like the
+ * FilterPostProcessor drives it, against a {@link RecordingRenderer}. Its
+ * pass materials are {@link RecordingMaterial}s.
+ * <p>
+ * The material definitions are loaded from the <code>Assets</code> directory
+ * of the working directory and the jME3 classpath.
+ */
+// *****************************************************************************
+   public class RecordingFilter extends MipmapBloomFilter
+// *****************************************************************************
+{
+   private static AssetManager sharedAssetManager;
+
+   private final RecordingRenderer renderer;
+   private final RenderManager renderManager;
+   private final RenderQueue queue=new RenderQueue();
+   private final ArrayList<RecordingMaterial> materials=
+    new ArrayList<RecordingMaterial>();
+   private final RecordingFilter owner;
+   private AssetManager manager;
+
+
+
+// =============================================================================
+   public RecordingFilter() {this(Quality.High);}
+   public RecordingFilter(Quality quality)
+    {this(quality, new RecordingRenderer());}
+// =============================================================================
+
+
+
+/**
+ * Makes a filter that renders with a renderer, e.g. one that is shared by the
+ * filters of several viewports.
+ * @param quality
+ * @param renderer
+ */
+// =============================================================================
+   public RecordingFilter(Quality quality, RecordingRenderer renderer)
+// =============================================================================
+{  super(quality);
+   this.renderer=renderer;
+   renderManager=new RenderManager(renderer.getRenderer());
+   owner=null;
+} // ===========================================================================
+
+
+
+/**
+ * Makes the builder of a filter, whose materials are made by the filter.
+ */
+// =============================================================================
+   private RecordingFilter(RenderTargetPool pool, RecordingFilter owner)
+// =============================================================================
+{  super(pool);
+   renderer=owner.renderer;
+   renderManager=owner.renderManager;
+   this.owner=owner;
+} // ===========================================================================
+
+
+
+/**
+ * Provides an asset manager for the tests, which is created on first use.
+ */
+// =============================================================================
+   public static synchronized AssetManager assetManager()
+// =============================================================================
+{
+   if (sharedAssetManager==null)
+   {  sharedAssetManager=new DesktopAssetManager(true);
+      sharedAssetManager.registerLocator("Assets", FileLocator.class);
+   }
+   return sharedAssetManager;
+} // assetManager ==============================================================
+
+
+
+/**
+ * Initializes the filter for a framebuffer, as the FilterPostProcessor does.
+ * @param w
+ * @param h
+ */
+// =============================================================================
+   public void initialize(int w, int h)
+// =============================================================================
+{
+   manager=assetManager();
+   init(manager, renderManager, new ViewPort("test", new Camera(w, h)), w, h);
+} // initialize ================================================================
+
+
+
+/**
+ * Initializes the filter again, e.g. after a structural change.
+ */
+// =============================================================================
+   @Override
+   public void reInitFilter() {super.reInitFilter();}
+// =============================================================================
+
+
+
+/**
+ * Cleans up the filter, as the FilterPostProcessor does when the filter is
+ * removed from it.
+ */
+// =============================================================================
+   public void remove() {cleanup(renderer.getRenderer());}
+// =============================================================================
+
+
+
+/**
+ * Does what the FilterPostProcessor does for the filter each frame, up to
+ * the actual rendering.
+ */
+// =============================================================================
+   public void frame(float tpf)
+// =============================================================================
+{
+   preFrame(tpf);
+   postQueue(queue);
+   for (int ii=0; ii<postRenderPasses.size(); ii++)
+      postRenderPasses.get(ii).beforeRender();
+} // frame =====================================================================
+
+
+
+// =============================================================================
+   @Override
+   protected MipmapBloomFilter createBuilder(RenderTargetPool pool)
+// =============================================================================
+{  return new RecordingFilter(pool, this);
+} // ===========================================================================
+
+
+
+// =============================================================================
+   @Override
+   Material createMaterial(String name)
+// =============================================================================
+{
+   if (owner!=null)
+      return owner.createMaterial(name);
+   RecordingMaterial mat=new RecordingMaterial(manager, name);
+   materials.add(mat);
+   return mat;
+} // createMaterial ============================================================
+
+
+
+/**
+ * @return  The parameter changes of all pass materials since the last reset.
+ */
+// =============================================================================
+   public int getMutations()
+// =============================================================================
+{
+   int mutations=0;
+   for (int ii=0; ii<materials.size(); ii++)
+      mutations+=materials.get(ii).getMutations();
+   return mutations;
+} // getMutations ==============================================================
+
+
+
+/**
+ * Resets the counts of the materials and of the renderer.
+ */
+// =============================================================================
+   public void reset()
+// =============================================================================
+{
+   for (int ii=0; ii<materials.size(); ii++)
+      materials.get(ii).reset();
+   renderer.reset();
+} // reset =====================================================================
+
+
+
+/**
+ * @return  The passes that are rendered in the next frame, in render order.
+ */
+// =============================================================================
+   public List<Pass> getPasses() {return postRenderPasses;}
+// =============================================================================
+
+
+
+// =============================================================================
+   public RecordingRenderer getRecordingRenderer() {return renderer;}
+// =============================================================================
+
+
+
+/**
+ * @return  The queue that is handed to the filter each frame, which the tests
+ *          fill with the geometries that passed the culling.
+ */
+// =============================================================================
+   public RenderQueue getRenderQueue() {return queue;}
+// =============================================================================
+
+} // ***************************************************************************
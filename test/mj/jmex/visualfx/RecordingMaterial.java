@@ -0,0 +1,94 @@
+package mj.jmex.visualfx;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.shader.VarType;
+import com.jme3.texture.Texture;
+
+
+
+/**
+ * A {@link Material} that counts the changes of its parameters. All setters
+ * of Material end up in <code>setParam</code>, <code>setTextureParam</code> or
+ * <code>clearParam</code>; a call from one of them into another is counted
+ * once.
+ */
+// *****************************************************************************
+   public class RecordingMaterial extends Material
+// *****************************************************************************
+{
+   private int mutations;
+   private int depth;
+
+
+
+// =============================================================================
+   public RecordingMaterial(AssetManager manager, String defName)
+// =============================================================================
+{  super(manager, defName);
+} // ===========================================================================
+
+
+
+/**
+ * @return  The number of parameter changes since the last reset.
+ */
+// =============================================================================
+   public int getMutations() {return mutations;}
+// =============================================================================
+
+
+
+// =============================================================================
+   public void reset() {mutations=0;}
+// =============================================================================
+
+
+
+// =============================================================================
+   @Override
+   public void setParam(String name, VarType type, Object value)
+// =============================================================================
+{  if (depth++==0)
+      mutations++;
+   try
+   {  super.setParam(name, type, value);
+   }
+   finally
+   {  depth--;
+   }
+} // setParam ==================================================================
+
+
+
+// =============================================================================
+   @Override
+   public void setTextureParam(String name, VarType type, Texture value)
+// =============================================================================
+{  if (depth++==0)
+      mutations++;
+   try
+   {  super.setTextureParam(name, type, value);
+   }
+   finally
+   {  depth--;
+   }
+} // setTextureParam ===========================================================
+
+
+
+// =============================================================================
+   @Override
+   public void clearParam(String name)
+// =============================================================================
+{  if (depth++==0)
+      mutations++;
+   try
+   {  super.clearParam(name);
+   }
+   finally
+   {  depth--;
+   }
+} // clearParam ================================================================
+
+} // ***************************************************************************
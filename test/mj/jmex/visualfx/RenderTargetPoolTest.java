@@ -0,0 +1,181 @@
+package mj.jmex.visualfx;
+
+import com.jme3.post.Filter.Pass;
+import com.jme3.texture.FrameBuffer;
+import com.jme3.texture.Image.Format;
+import java.util.ArrayList;
+import java.util.List;
+import mj.jmex.visualfx.MipmapBloomFilter.Quality;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+
+/**
+ * Checks the reuse, the deletion and the memory accounting of the
+ * {@link RenderTargetPool} with a {@link RecordingRenderer}.
+ */
+// *****************************************************************************
+   public class RenderTargetPoolTest
+// *****************************************************************************
+{
+   private static final Format COLOR=Format.RGB111110F;
+   private static final long BYTES_64=RenderTargetPool.bytesOf(64, 32, COLOR,
+    Format.Depth);
+   private static final long BYTES_32=RenderTargetPool.bytesOf(32, 16, COLOR,
+    Format.Depth);
+
+   private final RecordingRenderer renderer=new RecordingRenderer();
+
+
+
+/**
+ * A reinitialization with the same sizes renders into the same framebuffers,
+ * without creating or deleting targets.
+ */
+// =============================================================================
+   @Test
+   public void reinitReusesFrameBuffers()
+// =============================================================================
+{
+   for (Quality quality : Quality.values())
+   {  RecordingFilter filter=new RecordingFilter(quality, renderer);
+      filter.initialize(1280, 720);
+      RenderTargetPool pool=filter.getRenderTargetPool();
+      List<FrameBuffer> before=frameBuffers(filter.getPasses());
+      int created=pool.getCreatedCount();
+      long bytes=pool.getLiveBytes();
+
+      renderer.reset();
+      filter.reInitFilter();
+      List<FrameBuffer> after=frameBuffers(filter.getPasses());
+      assertEquals(quality.toString(), before.size(), after.size());
+      for (int ii=0; ii<before.size(); ii++)
+         assertSame(quality+", pass "+ii, before.get(ii), after.get(ii));
+      assertEquals(quality.toString(), created, pool.getCreatedCount());
+      assertEquals(quality.toString(), bytes, pool.getLiveBytes());
+      assertEquals(quality.toString(), 0, renderer.count("deleteFrameBuffer"));
+   }
+} // reinitReusesFrameBuffers ==================================================
+
+
+
+/**
+ * A released target is handed out again for the same key only.
+ */
+// =============================================================================
+   @Test
+   public void acquireReusesReleasedTarget()
+// =============================================================================
+{
+   RenderTargetPool pool=new RenderTargetPool();
+   RenderTargetPool.Target a=pool.acquire(64, 32, COLOR, Format.Depth);
+   pool.release(a);
+   assertNotSame(a, pool.acquire(32, 16, COLOR, Format.Depth));
+   assertNotSame(a, pool.acquire(64, 32, COLOR, null));
+   assertSame(a, pool.acquire(64, 32, COLOR, Format.Depth));
+   assertEquals(3, pool.getCreatedCount());
+} // acquireReusesReleasedTarget ===============================================
+
+
+
+/**
+ * Trim deletes the free targets, and only them.
+ */
+// =============================================================================
+   @Test
+   public void trimDeletesOnlyFreeTargets()
+// =============================================================================
+{
+   RenderTargetPool pool=new RenderTargetPool();
+   RenderTargetPool.Target a=pool.acquire(64, 32, COLOR, Format.Depth);
+   RenderTargetPool.Target b=pool.acquire(64, 32, COLOR, Format.Depth);
+   RenderTargetPool.Target c=pool.acquire(32, 16, COLOR, Format.Depth);
+   pool.release(b);
+
+   pool.trim(renderer.getRenderer());
+   assertEquals(1, renderer.count("deleteFrameBuffer"));
+   assertEquals(1, renderer.count("deleteImage"));
+   assertTrue(renderer.isDeleted(b.getFrameBuffer()));
+   assertTrue(renderer.isDeleted(b.getTexture().getImage()));
+   for (RenderTargetPool.Target target : new RenderTargetPool.Target[] {a, c})
+   {  assertFalse(renderer.isDeleted(target.getFrameBuffer()));
+      assertFalse(renderer.isDeleted(target.getTexture().getImage()));
+   }
+
+// A trimmed target is not handed out again.
+   assertNotSame(b, pool.acquire(64, 32, COLOR, Format.Depth));
+
+   renderer.reset();
+   pool.trim(renderer.getRenderer());
+   assertEquals(0, renderer.total());
+} // trimDeletesOnlyFreeTargets ================================================
+
+
+
+/**
+ * The live, acquired and peak bytes across acquire, release, trim and
+ * dispose.
+ */
+// =============================================================================
+   @Test
+   public void bytesAreCounted()
+// =============================================================================
+{
+   assertEquals(64*32*(32+24)/8, BYTES_64);
+   RenderTargetPool pool=new RenderTargetPool();
+   RenderTargetPool.Target a=pool.acquire(64, 32, COLOR, Format.Depth);
+   RenderTargetPool.Target b=pool.acquire(32, 16, COLOR, Format.Depth);
+   check(pool, 2, BYTES_64+BYTES_32, 2, BYTES_64+BYTES_32,
+    BYTES_64+BYTES_32);
+
+   pool.release(b);
+   pool.release(b);
+   check(pool, 2, BYTES_64+BYTES_32, 1, BYTES_64, BYTES_64+BYTES_32);
+
+   pool.trim(renderer.getRenderer());
+   check(pool, 1, BYTES_64, 1, BYTES_64, BYTES_64+BYTES_32);
+
+// Reaches a new peak.
+   pool.acquire(64, 32, COLOR, Format.Depth);
+   pool.acquire(64, 32, COLOR, Format.Depth);
+   check(pool, 3, 3*BYTES_64, 3, 3*BYTES_64, 3*BYTES_64);
+
+   pool.release(a);
+   pool.dispose(renderer.getRenderer());
+   check(pool, 0, 0, 0, 0, 3*BYTES_64);
+   assertEquals(4, renderer.count("deleteFrameBuffer"));
+   assertEquals(4, renderer.count("deleteImage"));
+} // bytesAreCounted ===========================================================
+
+
+
+// =============================================================================
+   private static void check(RenderTargetPool pool, int live, long liveBytes,
+    int acquired, long acquiredBytes, long peakBytes)
+// =============================================================================
+{
+   assertEquals(live, pool.getLiveCount());
+   assertEquals(liveBytes, pool.getLiveBytes());
+   assertEquals(acquired, pool.getAcquiredCount());
+   assertEquals(acquiredBytes, pool.getAcquiredBytes());
+   assertEquals(peakBytes, pool.getPeakBytes());
+} // check =====================================================================
+
+
+
+// =============================================================================
+   private static List<FrameBuffer> frameBuffers(List<Pass> passes)
+// =============================================================================
+{
+   List<FrameBuffer> frameBuffers=new ArrayList<FrameBuffer>();
+   for (int ii=0; ii<passes.size(); ii++)
+      frameBuffers.add(passes.get(ii).getRenderFrameBuffer());
+   return frameBuffers;
+} // frameBuffers ==============================================================
+
+} // ***************************************************************************